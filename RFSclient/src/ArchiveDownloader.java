@@ -0,0 +1,136 @@
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.rmi.RemoteException;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Downloads a remote directory tree as a single archive, made by the server
+ * while it's read
+ *
+ * A tree of many small files comes in a few large chunks instead of a call
+ * per file.
+ *
+ * @author Bernardo Lopes - a32040
+ * @author Tiago Padrão - a33061
+ */
+class ArchiveDownloader {
+    // Times a chunk is asked for again after the call fails
+    private static final int MAX_RETRIES = 3;
+    // Milliseconds waited before the first retry, doubled for each one after it
+    private static final long RETRY_DELAY = 200;
+
+    private final Protocol p;
+    private final int chunkSize;
+    private long bytes;
+    private long nanos;
+
+    /**
+     * Creates a new downloader
+     *
+     * @param p - remote protocol
+     * @param chunkSize - maximum number of bytes read per call
+     */
+    ArchiveDownloader(Protocol p, int chunkSize) {
+        this.p = p;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Picks the format of an archive from the name of the file it's saved to
+     *
+     * @param local - local file
+     * @return TAR for .tar files, TAR_GZIP for .tar.gz and .tgz files, and ZIP for anything else
+     */
+    static ArchiveFormat formatFor(File local) {
+        String name = local.getName().toLowerCase();
+        if (name.endsWith(".tar")) return ArchiveFormat.TAR;
+        if (name.endsWith(".tar.gz") || name.endsWith(".tgz")) return ArchiveFormat.TAR_GZIP;
+        return ArchiveFormat.ZIP;
+    }
+
+    /**
+     * Downloads a remote directory tree into a local archive, replacing it
+     *
+     * @param directoryName - absolute path of the remote directory
+     * @param local - local file to write the archive to
+     * @throws IOException
+     */
+    void download(String directoryName, File local) throws IOException {
+        long start = System.nanoTime();
+        bytes = 0;
+
+        long id = p.openArchive(directoryName, formatFor(local));
+        if (id == -1) throw new IOException("Could not archive " + directoryName);
+
+        try (OutputStream out = new FileOutputStream(local)) {
+            FileChunk chunk;
+            do {
+                chunk = read(id, bytes);
+                out.write(chunk.getData(), 0, chunk.getLength());
+                bytes += chunk.getLength();
+            } while (!chunk.isLast());
+        }
+        finally {
+            nanos = System.nanoTime() - start;
+            p.closeArchive(id);
+        }
+    }
+
+    /**
+     * Reads the next chunk of an archive, asking for it again if the call fails
+     *
+     * @param id - id of the archive
+     * @param offset - position of the chunk in the archive
+     * @return the chunk
+     * @throws IOException
+     */
+    private FileChunk read(long id, long offset) throws IOException {
+        for (int attempt = 0;; attempt++) {
+            try {
+                FileChunk chunk = p.readArchive(id, offset, chunkSize);
+                if (chunk == null) throw new IOException("Archive " + id + " could not be made by the server");
+                return chunk;
+            }
+            catch(RemoteException e) {
+                // Includes a busy server, which is given time to catch up
+                if (attempt == MAX_RETRIES) throw e;
+                backOff(attempt);
+            }
+        }
+    }
+
+    /**
+     * Waits before a failed call is retried, twice as long after each failure
+     *
+     * @param attempt - number of the attempt that failed, from 0
+     * @throws IOException if interrupted
+     */
+    private static void backOff(int attempt) throws IOException {
+        long delay = RETRY_DELAY << attempt;
+        try {
+            Thread.sleep(delay / 2 + ThreadLocalRandom.current().nextLong(delay));
+        }
+        catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+    }
+
+    /**
+     * @return number of bytes of the last archive downloaded
+     */
+    long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * @return throughput of the last download in MB/s
+     */
+    double getThroughput() {
+        if (nanos == 0) return 0;
+        return bytes / 1e6 / (nanos / 1e9);
+    }
+}
@@ -0,0 +1,14 @@
+/**
+ * Formats a directory tree can be downloaded as
+ *
+ * @author Bernardo Lopes - a32040
+ * @author Tiago Padrão - a33061
+ */
+public enum ArchiveFormat {
+    /** ZIP archive with compressed entries, without symbolic links */
+    ZIP,
+    /** Uncompressed POSIX tar archive */
+    TAR,
+    /** POSIX tar archive compressed with gzip */
+    TAR_GZIP
+}
@@ -0,0 +1,71 @@
+import java.io.Serializable;
+
+/**
+ * Blocks of the current version of a file to copy into its upload, in
+ * place of sending their bytes again
+ *
+ * The copies are only made if the file is still the version the blocks
+ * were signed from.
+ *
+ * @author Bernardo Lopes - a32040
+ * @author Tiago Padrão - a33061
+ */
+public class BlockCopies implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final long basisLength;
+    private final long basisModified;
+    private final int blockSize;
+    private final int[] blocks;
+    private final long[] offsets;
+
+    /**
+     * Creates new copies
+     *
+     * @param basis - signatures of the current version of the file
+     * @param blocks - index of each block to copy
+     * @param offsets - position in the new version each block is copied to
+     */
+    BlockCopies(BlockSignatures basis, int[] blocks, long[] offsets) {
+        this.basisLength = basis.getLength();
+        this.basisModified = basis.getLastModified();
+        this.blockSize = basis.getBlockSize();
+        this.blocks = blocks;
+        this.offsets = offsets;
+    }
+
+    /**
+     * @return length of the version the blocks were signed from
+     */
+    public long getBasisLength() {
+        return basisLength;
+    }
+
+    /**
+     * @return modification date of the version the blocks were signed from
+     */
+    public long getBasisModified() {
+        return basisModified;
+    }
+
+    /**
+     * @return length of every block but the last
+     */
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    /**
+     * @return index of each block to copy
+     */
+    public int[] getBlocks() {
+        return blocks;
+    }
+
+    /**
+     * @return position in the new version each block is copied to
+     */
+    public long[] getOffsets() {
+        return offsets;
+    }
+}
@@ -0,0 +1,98 @@
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * Checksums of the blocks of a file, used to send only the parts of a new
+ * version of it that changed
+ *
+ * Every block has a weak rolling checksum, cheap to look for at every
+ * offset of the new version, and an MD5 digest that confirms a match. The
+ * file's length and modification date identify the version they were
+ * computed from.
+ *
+ * @author Bernardo Lopes - a32040
+ * @author Tiago Padrão - a33061
+ */
+public class BlockSignatures implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    /** Length of each strong digest in bytes */
+    public static final int STRONG_LENGTH = 16;
+
+    private final long length;
+    private final long lastModified;
+    private final int blockSize;
+    private final int[] weak;
+    private final byte[] strong;
+
+    /**
+     * Creates new signatures
+     *
+     * @param length - length of the file in bytes
+     * @param lastModified - modification date of the file, in milliseconds since epoch
+     * @param blockSize - length of every block but the last
+     * @param weak - rolling checksum of each block
+     * @param strong - MD5 digest of each block, one after the other
+     */
+    BlockSignatures(long length, long lastModified, int blockSize, int[] weak, byte[] strong) {
+        this.length = length;
+        this.lastModified = lastModified;
+        this.blockSize = blockSize;
+        this.weak = weak;
+        this.strong = strong;
+    }
+
+    /**
+     * @return length of the file in bytes
+     */
+    public long getLength() {
+        return length;
+    }
+
+    /**
+     * @return modification date of the file, in milliseconds since epoch
+     */
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    /**
+     * @return length of every block but the last
+     */
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    /**
+     * @return number of blocks
+     */
+    public int getBlockCount() {
+        return weak.length;
+    }
+
+    /**
+     * @param block - index of a block
+     * @return length of the block, which is shorter than the others if it's the last
+     */
+    public int getBlockLength(int block) {
+        return (int) Math.min(blockSize, length - (long) block * blockSize);
+    }
+
+    /**
+     * @param block - index of a block
+     * @return rolling checksum of the block
+     */
+    public int getWeak(int block) {
+        return weak[block];
+    }
+
+    /**
+     * @param block - index of a block
+     * @param digest - MD5 digest of some data
+     * @return true if the block has the same digest
+     */
+    public boolean matchesStrong(int block, byte[] digest) {
+        int offset = block * STRONG_LENGTH;
+        return Arrays.equals(Arrays.copyOfRange(strong, offset, offset + STRONG_LENGTH), digest);
+    }
+}
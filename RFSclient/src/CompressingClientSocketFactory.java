@@ -0,0 +1,53 @@
+import java.io.IOException;
+import java.io.Serializable;
+import java.net.Socket;
+import java.rmi.server.RMIClientSocketFactory;
+
+/**
+ * Creates the client side of compressed connections to the server
+ *
+ * The factory travels to the client inside the server's stub with the
+ * server's settings, which the client can override with its own
+ * rfs.compression.level (0 to turn compression off) and
+ * rfs.compression.threshold system properties.
+ *
+ * @author Bernardo Lopes - a32040
+ * @author Tiago Padrão - a33061
+ */
+class CompressingClientSocketFactory implements RMIClientSocketFactory, Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final int level;
+    private final int threshold;
+
+    /**
+     * Creates a new factory
+     *
+     * @param level - Deflater level from 0 (no compression) to 9
+     * @param threshold - smallest frame, in bytes, that is deflated
+     */
+    CompressingClientSocketFactory(int level, int threshold) {
+        this.level = level;
+        this.threshold = threshold;
+    }
+
+    @Override
+    public Socket createSocket(String host, int port) throws IOException {
+        return new CompressingSocket(host, port, Integer.getInteger("rfs.compression.level", level),
+                Integer.getInteger("rfs.compression.threshold", threshold));
+    }
+
+    // RMI reuses connections made by equal factories
+
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof CompressingClientSocketFactory)) return false;
+        CompressingClientSocketFactory other = (CompressingClientSocketFactory) obj;
+        return level == other.level && threshold == other.threshold;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * level + threshold;
+    }
+}
@@ -0,0 +1,329 @@
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Socket that sends its data in frames, deflating the frames large enough to be worth it
+ *
+ * Written bytes are collected until the stream is flushed or the buffer is
+ * full and then sent as one frame. Frames of at least the threshold size
+ * are deflated, unless that doesn't make them smaller. Every frame says
+ * whether it's deflated, so each side only needs to agree on the framing.
+ * When connecting, the client sends the compression level it wants the
+ * server to reply with, which the server limits to its own level.
+ *
+ * @author Bernardo Lopes - a32040
+ * @author Tiago Padrão - a33061
+ */
+class CompressingSocket extends Socket {
+    private static final int FRAME_SIZE = 64 * 1024;
+    private static final int HEADER_SIZE = 5;
+    private static final int RAW = 0;
+    private static final int DEFLATED = 1;
+
+    private int level;
+    private final int threshold;
+    private boolean negotiated;
+    private InputStream in;
+    private OutputStream out;
+
+    /**
+     * Connects to a server, asking it to reply at the same compression level
+     *
+     * @param host - host of the server
+     * @param port - port of the server
+     * @param level - Deflater level from 0 (no compression) to 9
+     * @param threshold - smallest frame, in bytes, that is deflated
+     * @throws IOException
+     */
+    CompressingSocket(String host, int port, int level, int threshold) throws IOException {
+        super(host, port);
+        this.level = Math.max(0, Math.min(level, Deflater.BEST_COMPRESSION));
+        this.threshold = threshold;
+        this.negotiated = true;
+
+        super.getOutputStream().write(this.level);
+    }
+
+    /**
+     * Creates an unconnected socket for a server socket to accept a connection into
+     *
+     * @param maxLevel - highest compression level the server replies with
+     * @param threshold - smallest frame, in bytes, that is deflated
+     */
+    CompressingSocket(int maxLevel, int threshold) {
+        this.level = maxLevel;
+        this.threshold = threshold;
+    }
+
+    /**
+     * Reads the compression level the client asked for. It's read lazily, on
+     * the connection's own thread, so a slow client can't hold up accept()
+     *
+     * @throws IOException
+     */
+    private void negotiate() throws IOException {
+        if (negotiated) return;
+
+        int requested = super.getInputStream().read();
+        if (requested < 0) throw new EOFException("Connection closed before the compression level was sent");
+
+        level = Math.max(0, Math.min(level, requested));
+        negotiated = true;
+    }
+
+    @Override
+    public synchronized InputStream getInputStream() throws IOException {
+        if (in == null) {
+            negotiate();
+            in = new InflatingInputStream(super.getInputStream());
+        }
+        return in;
+    }
+
+    @Override
+    public synchronized OutputStream getOutputStream() throws IOException {
+        if (out == null) {
+            negotiate();
+            out = new DeflatingOutputStream(super.getOutputStream(), level, threshold);
+        }
+        return out;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            if (out instanceof DeflatingOutputStream) ((DeflatingOutputStream) out).end();
+            if (in instanceof InflatingInputStream) ((InflatingInputStream) in).end();
+        }
+        finally {
+            super.close();
+        }
+    }
+
+    /**
+     * Collects written bytes into frames and deflates the large ones. Both
+     * buffers leave room for the frame's header in front, so every frame is
+     * sent with a single write
+     */
+    private static class DeflatingOutputStream extends FilterOutputStream {
+        private final Deflater deflater;
+        private final int threshold;
+        private final byte[] buffer = new byte[HEADER_SIZE + FRAME_SIZE];
+        private final byte[] compressed = new byte[HEADER_SIZE + 4 + FRAME_SIZE];
+        private int count;
+
+        DeflatingOutputStream(OutputStream out, int level, int threshold) {
+            super(out);
+            this.deflater = level > 0 ? new Deflater(level, true) : null;
+            this.threshold = threshold;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (count == FRAME_SIZE) writeFrame();
+            buffer[HEADER_SIZE + count++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if (count == FRAME_SIZE) writeFrame();
+
+                int n = Math.min(len, FRAME_SIZE - count);
+                System.arraycopy(b, off, buffer, HEADER_SIZE + count, n);
+                count += n;
+                off += n;
+                len -= n;
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            writeFrame();
+            out.flush();
+        }
+
+        /**
+         * Sends the collected bytes as one frame
+         *
+         * @throws IOException
+         */
+        private void writeFrame() throws IOException {
+            if (count == 0) return;
+
+            if (deflater != null && count >= threshold) {
+                deflater.reset();
+                deflater.setInput(buffer, HEADER_SIZE, count);
+                deflater.finish();
+
+                // Gives up as soon as the output gets as large as the input
+                int start = HEADER_SIZE + 4;
+                int length = 0;
+                while (!deflater.finished() && length < count) {
+                    length += deflater.deflate(compressed, start + length, count - length);
+                }
+
+                // Data that doesn't compress is sent as it is
+                if (deflater.finished() && length < count) {
+                    compressed[0] = DEFLATED;
+                    putInt(compressed, 1, length);
+                    putInt(compressed, HEADER_SIZE, count);
+                    out.write(compressed, 0, start + length);
+                    count = 0;
+                    return;
+                }
+            }
+
+            buffer[0] = RAW;
+            putInt(buffer, 1, count);
+            out.write(buffer, 0, HEADER_SIZE + count);
+            count = 0;
+        }
+
+        private static void putInt(byte[] b, int offset, int value) {
+            b[offset] = (byte) (value >>> 24);
+            b[offset + 1] = (byte) (value >>> 16);
+            b[offset + 2] = (byte) (value >>> 8);
+            b[offset + 3] = (byte) value;
+        }
+
+        /**
+         * Releases the deflater
+         */
+        void end() {
+            if (deflater != null) deflater.end();
+        }
+    }
+
+    /**
+     * Reads frames, inflating the deflated ones
+     */
+    private static class InflatingInputStream extends FilterInputStream {
+        private final Inflater inflater = new Inflater(true);
+        private final byte[] buffer = new byte[FRAME_SIZE + 4];
+        private final byte[] compressed = new byte[FRAME_SIZE + 4];
+        private int position, count;
+
+        InflatingInputStream(InputStream in) {
+            // Frame headers are read a byte at a time, so they come from a buffer rather than the socket
+            super(new BufferedInputStream(in, FRAME_SIZE));
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (position == count && !readFrame()) return -1;
+            return buffer[position++] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) return 0;
+            if (position == count && !readFrame()) return -1;
+
+            int n = Math.min(len, count - position);
+            System.arraycopy(buffer, position, b, off, n);
+            position += n;
+            return n;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return count - position;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = 0;
+            while (skipped < n && (position < count || readFrame())) {
+                int step = (int) Math.min(n - skipped, count - position);
+                position += step;
+                skipped += step;
+            }
+            return skipped;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        /**
+         * Reads the next frame into the buffer
+         *
+         * @return false if the connection was closed between frames
+         * @throws IOException
+         */
+        private boolean readFrame() throws IOException {
+            int type = in.read();
+            if (type < 0) return false;
+
+            int length = readInt();
+            position = 0;
+
+            // Frames are never longer than a frame of the other side, so anything else is rejected before it's read
+            if (length < 0 || length > FRAME_SIZE + 4) throw new IOException("Invalid frame length " + length);
+
+            if (type == RAW) {
+                readFully(buffer, length);
+                count = length;
+                return true;
+            }
+
+            if (type != DEFLATED) throw new IOException("Invalid frame type " + type);
+            int original = readInt();
+            if (original < 0 || original > FRAME_SIZE + 4) throw new IOException("Invalid frame length " + original);
+            readFully(compressed, length);
+
+            inflater.reset();
+            inflater.setInput(compressed, 0, length);
+            try {
+                count = 0;
+                while (count < original) {
+                    int n = inflater.inflate(buffer, count, original - count);
+                    if (n == 0 && (inflater.finished() || inflater.needsInput())) throw new IOException("Truncated compressed frame");
+                    count += n;
+                }
+            }
+            catch(DataFormatException e) {
+                throw new IOException("Corrupt compressed frame", e);
+            }
+
+            return true;
+        }
+
+        private int readInt() throws IOException {
+            int value = 0;
+            for (int i = 0; i < 4; i++) {
+                int b = in.read();
+                if (b < 0) throw new EOFException("Connection closed in the middle of a frame");
+                value = value << 8 | b;
+            }
+            return value;
+        }
+
+        private void readFully(byte[] b, int length) throws IOException {
+            int read = 0;
+            while (read < length) {
+                int n = in.read(b, read, length - read);
+                if (n < 0) throw new EOFException("Connection closed in the middle of a frame");
+                read += n;
+            }
+        }
+
+        /**
+         * Releases the inflater
+         */
+        void end() {
+            inflater.end();
+        }
+    }
+}
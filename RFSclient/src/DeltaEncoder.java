@@ -0,0 +1,285 @@
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Uploads a new version of a file as the differences from the version on the server
+ *
+ * The local file is scanned with a window the size of a block, moved a
+ * byte at a time. Where the window's rolling checksum, and then its MD5,
+ * match a block of the server's version, that block is copied on the
+ * server instead of being sent. The bytes between matches are sent as
+ * chunks of the upload, like any other upload.
+ *
+ * @author Bernardo Lopes - a32040
+ * @author Tiago Padrão - a33061
+ */
+class DeltaEncoder {
+    // Blocks copied per call
+    private static final int MAX_COPIES = 4096;
+    private static final int FILTER_BITS = 20;
+
+    private final Protocol p;
+    private final int chunkSize;
+
+    private BlockSignatures basis;
+    private Map<Integer, List<Integer>> blocksByWeak;
+    private long[] filter;
+    private MessageDigest md5;
+    private long id;
+    private long length;
+    private boolean committed;
+    private long sent;
+
+    // The part of the file that's in the buffer
+    private FileChannel channel;
+    private byte[] buffer;
+    private long bufferStart;
+    private long bufferEnd;
+
+    private int[] copyBlocks = new int[MAX_COPIES];
+    private long[] copyOffsets = new long[MAX_COPIES];
+    private int copies;
+
+    /**
+     * Creates a new encoder
+     *
+     * @param p - remote protocol
+     * @param chunkSize - largest number of changed bytes sent per call
+     */
+    DeltaEncoder(Protocol p, int chunkSize) {
+        this.p = p;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Sends a local file to an upload as the differences from the version on the server
+     *
+     * @param local - local file to read
+     * @param uploadId - id of the upload, which must not have received anything yet
+     * @param signatures - checksums of the blocks of the version on the server
+     * @return number of bytes sent, or -1 if the upload wasn't completed,
+     * because the version on the server changed
+     * @throws IOException
+     */
+    long send(File local, long uploadId, BlockSignatures signatures) throws IOException {
+        basis = signatures;
+        id = uploadId;
+        length = local.length();
+        committed = false;
+        sent = 0;
+        copies = 0;
+        index();
+
+        int blockSize = basis.getBlockSize();
+        buffer = new byte[2 * (chunkSize + blockSize + 1)];
+        bufferStart = 0;
+        bufferEnd = 0;
+
+        try (FileChannel file = FileChannel.open(local.toPath(), StandardOpenOption.READ)) {
+            channel = file;
+
+            RollingChecksum rolling = new RollingChecksum();
+            long position = 0;
+            long literal = 0;
+            boolean fresh = true;
+
+            while (position + blockSize <= length) {
+                // Holds the bytes not sent yet, the window and the byte after it
+                load(literal, Math.min(position + blockSize + 1, length));
+                int offset = (int) (position - bufferStart);
+
+                if (fresh) {
+                    rolling.reset(buffer, offset, blockSize);
+                    fresh = false;
+                }
+
+                int block = find(rolling.getValue(), offset, blockSize);
+                if (block != -1) {
+                    sendLiteral(literal, position);
+                    copy(block, position);
+                    position += blockSize;
+                    literal = position;
+                    fresh = true;
+                    continue;
+                }
+
+                if (position - literal >= chunkSize) {
+                    sendLiteral(literal, position);
+                    literal = position;
+                }
+
+                if (position + blockSize < length) rolling.roll(buffer[offset], buffer[offset + blockSize]);
+                position++;
+            }
+
+            // The server's last block may be shorter than the others, and can only match the end of the file
+            int last = basis.getBlockCount() - 1;
+            if (last >= 0 && position < length && length - position == basis.getBlockLength(last)) {
+                load(literal, length);
+                int offset = (int) (position - bufferStart);
+                int n = (int) (length - position);
+
+                if (RollingChecksum.of(buffer, offset, n) == basis.getWeak(last) && basis.matchesStrong(last, digest(offset, n))) {
+                    sendLiteral(literal, position);
+                    copy(last, position);
+                    literal = length;
+                }
+            }
+
+            load(literal, length);
+            sendLiteral(literal, length);
+            sendCopies();
+        }
+        finally {
+            channel = null;
+            buffer = null;
+            blocksByWeak = null;
+            filter = null;
+        }
+
+        return committed ? sent : -1;
+    }
+
+    /**
+     * Indexes the full-size blocks of the server's version by their rolling checksum
+     *
+     * @throws IOException
+     */
+    private void index() throws IOException {
+        try {
+            md5 = MessageDigest.getInstance("MD5");
+        }
+        catch(NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+
+        blocksByWeak = new HashMap<>();
+        filter = new long[(1 << FILTER_BITS) / 64];
+        for (int block = 0; block < basis.getBlockCount(); block++) {
+            if (basis.getBlockLength(block) != basis.getBlockSize()) continue;
+            blocksByWeak.computeIfAbsent(basis.getWeak(block), key -> new ArrayList<>(1)).add(block);
+
+            int bit = filterBit(basis.getWeak(block));
+            filter[bit >>> 6] |= 1L << bit;
+        }
+    }
+
+    /**
+     * @param weak - rolling checksum
+     * @return bit of the filter the checksum sets
+     */
+    private static int filterBit(int weak) {
+        return (weak * 0x9E3779B9) >>> (32 - FILTER_BITS);
+    }
+
+    /**
+     * Finds a block of the server's version with the same bytes as the window
+     *
+     * @param weak - rolling checksum of the window
+     * @param offset - position of the window in the buffer
+     * @param length - length of the window
+     * @return index of the block, or -1 if there is none
+     */
+    private int find(int weak, int offset, int length) {
+        // Most offsets match no block, which the filter tells without a map lookup
+        int bit = filterBit(weak);
+        if ((filter[bit >>> 6] & 1L << bit) == 0) return -1;
+
+        List<Integer> candidates = blocksByWeak.get(weak);
+        if (candidates == null) return -1;
+
+        // The digest is only computed when the cheap checksum already matches
+        byte[] digest = digest(offset, length);
+        for (int block:candidates) {
+            if (basis.matchesStrong(block, digest)) return block;
+        }
+        return -1;
+    }
+
+    /**
+     * @param offset - position of the bytes in the buffer
+     * @param length - number of bytes
+     * @return MD5 digest of the bytes
+     */
+    private byte[] digest(int offset, int length) {
+        md5.update(buffer, offset, length);
+        return md5.digest();
+    }
+
+    /**
+     * Makes sure a range of the file is in the buffer, dropping what's before it
+     *
+     * @param from - first byte that must be kept
+     * @param to - byte after the last one that must be in the buffer
+     * @throws IOException
+     */
+    private void load(long from, long to) throws IOException {
+        if (to <= bufferEnd) return;
+
+        int kept = (int) (bufferEnd - from);
+        System.arraycopy(buffer, (int) (from - bufferStart), buffer, 0, kept);
+        bufferStart = from;
+
+        // Fills the whole buffer, so it's only moved again once the window has crossed it
+        ByteBuffer free = ByteBuffer.wrap(buffer, kept, (int) Math.min(buffer.length - kept, length - bufferEnd));
+        while (free.hasRemaining()) {
+            if (channel.read(free, bufferStart + free.position()) < 0) throw new EOFException("The file changed while it was read");
+        }
+        bufferEnd = bufferStart + free.position();
+    }
+
+    /**
+     * Sends the bytes that matched no block, a chunk at a time
+     *
+     * @param from - first byte to send
+     * @param to - byte after the last one to send
+     * @throws IOException
+     */
+    private void sendLiteral(long from, long to) throws IOException {
+        while (from < to) {
+            int n = (int) Math.min(chunkSize, to - from);
+            ByteBuffer data = ByteBuffer.wrap(buffer, (int) (from - bufferStart), n);
+
+            committed |= p.writeFile(id, new FileChunk(from, length, data, null));
+            sent += n;
+            from += n;
+        }
+    }
+
+    /**
+     * Queues a block to be copied on the server, sending the queue once it's full
+     *
+     * @param block - index of the block in the server's version
+     * @param offset - position of the block in the new version
+     * @throws IOException
+     */
+    private void copy(int block, long offset) throws IOException {
+        copyBlocks[copies] = block;
+        copyOffsets[copies] = offset;
+        if (++copies == MAX_COPIES) sendCopies();
+    }
+
+    /**
+     * Sends the queued block copies
+     *
+     * @throws IOException
+     */
+    private void sendCopies() throws IOException {
+        if (copies == 0) return;
+
+        BlockCopies batch = new BlockCopies(basis, Arrays.copyOf(copyBlocks, copies), Arrays.copyOf(copyOffsets, copies));
+        committed |= p.copyBlocks(id, batch);
+        copies = 0;
+    }
+}
@@ -0,0 +1,78 @@
+import java.io.Serializable;
+
+/**
+ * Digests of the contents of a file
+ *
+ * The SHA-256 digest identifies the contents for certain, while the 64-bit
+ * xxHash is much cheaper to compare and enough to tell that two files
+ * differ. The file's length and modification date identify the version
+ * they were computed from.
+ *
+ * @author Bernardo Lopes - a32040
+ * @author Tiago Padrão - a33061
+ */
+public class FileDigest implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final long length;
+    private final long lastModified;
+    private final byte[] sha256;
+    private final long xxHash;
+
+    /**
+     * Creates new digests
+     *
+     * @param length - length of the file in bytes
+     * @param lastModified - modification date of the file, in milliseconds since epoch
+     * @param sha256 - SHA-256 digest of the contents
+     * @param xxHash - 64-bit xxHash of the contents
+     */
+    FileDigest(long length, long lastModified, byte[] sha256, long xxHash) {
+        this.length = length;
+        this.lastModified = lastModified;
+        this.sha256 = sha256;
+        this.xxHash = xxHash;
+    }
+
+    /**
+     * @return length of the file in bytes
+     */
+    public long getLength() {
+        return length;
+    }
+
+    /**
+     * @return modification date of the file, in milliseconds since epoch
+     */
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    /**
+     * @return SHA-256 digest of the contents, 32 bytes long
+     */
+    public byte[] getSha256() {
+        return sha256;
+    }
+
+    /**
+     * @return SHA-256 digest of the contents in hexadecimal, as printed by sha256sum
+     */
+    public String getSha256Hex() {
+        char[] hex = new char[sha256.length * 2];
+        for (int i = 0; i < sha256.length; i++) {
+            hex[2 * i] = HEX[(sha256[i] >> 4) & 0xF];
+            hex[2 * i + 1] = HEX[sha256[i] & 0xF];
+        }
+        return new String(hex);
+    }
+
+    /**
+     * @return 64-bit xxHash of the contents
+     */
+    public long getXxHash() {
+        return xxHash;
+    }
+}
@@ -0,0 +1,503 @@
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.rmi.RemoteException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Downloads remote files a range at a time, several ranges at once,
+ * resuming partial downloads
+ *
+ * The file is split into ranges of one chunk each, which workers fetch
+ * concurrently and write straight into their place in the local file. RMI
+ * opens a connection for each call in flight, so every worker has a
+ * connection of its own. The download starts with one worker and adds
+ * another while that keeps raising the throughput, dropping one when it
+ * falls. Every chunk carries a checksum, and a damaged or failed range is
+ * requested again a few times before the download gives up.
+ *
+ * The file is downloaded next to the target, into a .part file, and only
+ * replaces the target once its SHA-256 digest matches the remote file's.
+ * The digest is only asked for once every range has arrived, so the server
+ * hashes the file after sending it rather than before. A .part.state file
+ * records the remote file's length and modification date and how much of
+ * it was fetched without a gap, so an interrupted download, even one that
+ * was killed, resumes from there, and one of an older version of the file
+ * starts over.
+ *
+ * @author Bernardo Lopes - a32040
+ * @author Tiago Padrão - a33061
+ */
+class FileDownloader {
+    private static final long SAMPLE_INTERVAL = 500;
+    private static final int ATTEMPTS = 3;
+    // Milliseconds waited before the first retry, doubled for each one after it
+    private static final long RETRY_DELAY = 200;
+    private static final int STATE_LENGTH = 8 + 8 + 8;
+
+    private final Protocol p;
+    private final int chunkSize;
+    private final int maxParallelism;
+    private long bytes;
+    private long nanos;
+    private int parallelism;
+
+    /**
+     * Creates a new downloader
+     *
+     * @param p - remote protocol
+     * @param chunkSize - number of bytes requested per call
+     * @param maxParallelism - maximum number of ranges fetched at once
+     */
+    FileDownloader(Protocol p, int chunkSize, int maxParallelism) {
+        this.p = p;
+        this.chunkSize = chunkSize;
+        this.maxParallelism = Math.max(1, maxParallelism);
+    }
+
+    /**
+     * @param local - local file a download replaces
+     * @return true if an earlier download into it was interrupted and can be resumed
+     */
+    static boolean isPartial(File local) {
+        return new File(local.getPath() + ".part.state").exists();
+    }
+
+    /**
+     * Downloads a remote file, replacing the local file once all of it has
+     * been fetched and checked. An interrupted download of the same version
+     * of the remote file resumes where it stopped
+     *
+     * @param name - absolute path of the remote file
+     * @param local - local file to write
+     * @throws IOException
+     */
+    void download(String name, File local) throws IOException {
+        long start = System.nanoTime();
+        AtomicLong transferred = new AtomicLong();
+        parallelism = 1;
+
+        Path part = Paths.get(local.getPath() + ".part");
+        Path statePath = Paths.get(local.getPath() + ".part.state");
+
+        try {
+            // The version of the file, told apart by its length and modification date
+            File remote = new File(name);
+            long modified = p.getLastModifiedDate(remote);
+            long length = p.getLength(remote);
+            if (modified == 0) throw new IOException("Could not read " + name);
+
+            try (FileChannel channel = FileChannel.open(part, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                    FileChannel state = FileChannel.open(statePath, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                // Only the part fetched of the same version of the file is kept
+                long offset = Math.min(resumeOffset(state, length, modified), channel.size());
+                if (offset == 0) channel.truncate(0);
+                saveState(state, length, modified, offset);
+
+                FileChunk first = p.readFile(name, offset, chunkSize);
+                if (first == null) throw new IOException("Could not read " + name);
+                if (first.getFileLength() != length) throw new IOException(name + " changed during the download");
+
+                if (length > offset) {
+                    // Gives the file its full length up front, so every range is written into place
+                    channel.write(ByteBuffer.wrap(new byte[1]), length - 1);
+                }
+
+                write(channel, first);
+                transferred.addAndGet(first.getLength());
+                saveState(state, length, modified, offset + first.getLength());
+
+                if (!first.isLast() && first.getLength() > 0) {
+                    Transfer transfer = new Transfer(name, channel, offset + first.getLength(), length, transferred, state, modified);
+                    transfer.run();
+                }
+
+                channel.truncate(length);
+                channel.force(false);
+            }
+
+            // Catches gaps, and data from another version of the file, which the checksums of the chunks can't
+            FileDigest digest = p.getFileDigest(name);
+            if (digest == null) throw new IOException("Could not check " + name);
+            if (!Arrays.equals(sha256(part), digest.getSha256())) {
+                Files.deleteIfExists(part);
+                Files.deleteIfExists(statePath);
+                throw new IOException(name + " does not match its digest after the download");
+            }
+
+            try {
+                Files.move(part, local.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+            catch(AtomicMoveNotSupportedException e) {
+                Files.move(part, local.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+            Files.deleteIfExists(statePath);
+        }
+        finally {
+            bytes = transferred.get();
+            nanos = System.nanoTime() - start;
+        }
+    }
+
+    /**
+     * Reads how much of the remote file an earlier download fetched
+     *
+     * @param state - state of the download
+     * @param length - length of the remote file
+     * @param modified - modification date of the remote file
+     * @return number of bytes fetched without a gap, or 0 if they were of another version of the file
+     * @throws IOException
+     */
+    private static long resumeOffset(FileChannel state, long length, long modified) throws IOException {
+        if (state.size() != STATE_LENGTH) return 0;
+
+        ByteBuffer buffer = ByteBuffer.allocate(STATE_LENGTH);
+        while (buffer.hasRemaining()) {
+            if (state.read(buffer, buffer.position()) < 0) return 0;
+        }
+        buffer.flip();
+
+        long savedLength = buffer.getLong();
+        long savedModified = buffer.getLong();
+        long fetched = buffer.getLong();
+
+        if (savedLength != length || savedModified != modified) return 0;
+        return Math.max(0, Math.min(fetched, length));
+    }
+
+    /**
+     * Records how much of the remote file has been fetched
+     *
+     * It's only called once the bytes have been written to the local file,
+     * so a download killed at any point resumes after bytes it really has.
+     *
+     * @param state - state of the download
+     * @param length - length of the remote file
+     * @param modified - modification date of the remote file
+     * @param fetched - number of bytes fetched without a gap
+     * @throws IOException
+     */
+    private static void saveState(FileChannel state, long length, long modified, long fetched) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(STATE_LENGTH);
+        buffer.putLong(length).putLong(modified).putLong(fetched).flip();
+        while (buffer.hasRemaining()) {
+            state.write(buffer, buffer.position());
+        }
+    }
+
+    /**
+     * @param file - local file
+     * @return SHA-256 digest of the file
+     * @throws IOException
+     */
+    private static byte[] sha256(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MessageDigest sha256 = MessageDigest.getInstance("SHA-256");
+            ByteBuffer buffer = ByteBuffer.allocate(1 << 20);
+            while (channel.read(buffer) >= 0) {
+                buffer.flip();
+                sha256.update(buffer);
+                buffer.clear();
+            }
+            return sha256.digest();
+        }
+        catch(NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Writes a chunk into its place in the local file
+     *
+     * @param channel - local file
+     * @param chunk - chunk to write
+     * @throws IOException
+     */
+    private static void write(FileChannel channel, FileChunk chunk) throws IOException {
+        ByteBuffer data = ByteBuffer.wrap(chunk.getData(), 0, chunk.getLength());
+        long position = chunk.getOffset();
+        while (data.hasRemaining()) {
+            position += channel.write(data, position);
+        }
+    }
+
+    /**
+     * @return number of bytes transferred by the last download
+     */
+    long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * @return throughput of the last download in MB/s
+     */
+    double getThroughput() {
+        if (nanos == 0) return 0;
+        return bytes / 1e6 / (nanos / 1e9);
+    }
+
+    /**
+     * @return largest number of ranges the last download fetched at once
+     */
+    int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * The ranges of a download after its first chunk and the workers fetching them
+     */
+    private class Transfer {
+        private final String name;
+        private final FileChannel channel;
+        private final long start;
+        private final long length;
+        private final int ranges;
+        private final boolean[] done;
+        private final AtomicInteger next = new AtomicInteger();
+        private final AtomicLong transferred;
+        private final FileChannel state;
+        private final long modified;
+        private long saved;
+        private int contiguous;
+        private int running;
+        private int target;
+        private IOException failure;
+
+        /**
+         * Creates a new transfer
+         *
+         * @param name - absolute path of the remote file
+         * @param channel - local file, already as long as the remote one
+         * @param start - first byte to fetch
+         * @param length - length of the remote file
+         * @param transferred - counter of the bytes transferred
+         * @param state - state of the download, updated as the ranges are fetched
+         * @param modified - modification date of the remote file
+         */
+        Transfer(String name, FileChannel channel, long start, long length, AtomicLong transferred, FileChannel state, long modified) {
+            this.name = name;
+            this.channel = channel;
+            this.start = start;
+            this.length = length;
+            this.ranges = (int) ((length - start + chunkSize - 1) / chunkSize);
+            this.done = new boolean[ranges];
+            this.transferred = transferred;
+            this.state = state;
+            this.modified = modified;
+            this.saved = start;
+        }
+
+        /**
+         * Fetches every range, adding and dropping workers as the throughput changes
+         *
+         * If it fails, the local file is cut after the ranges that were fetched
+         * without a gap, so it can still be resumed
+         *
+         * @throws IOException if a range could not be fetched
+         */
+        void run() throws IOException {
+            int max = Math.min(maxParallelism, ranges);
+            ExecutorService executor = Executors.newFixedThreadPool(max);
+            boolean complete = false;
+
+            try {
+                synchronized (this) {
+                    target = 1;
+                    startWorker(executor);
+
+                    double best = 0;
+                    long lastBytes = transferred.get();
+                    long lastTime = System.nanoTime();
+
+                    while (running > 0) {
+                        wait(SAMPLE_INTERVAL);
+
+                        long now = System.nanoTime();
+                        if (now - lastTime < SAMPLE_INTERVAL * 1000000 / 2) continue;
+                        double rate = (transferred.get() - lastBytes) / (double) (now - lastTime);
+                        lastBytes = transferred.get();
+                        lastTime = now;
+
+                        // Another connection is added while the last one paid off and one is dropped when they slow each other down
+                        if (rate > best * 1.1) {
+                            best = rate;
+                            if (target < max && next.get() < ranges && failure == null) {
+                                target++;
+                                startWorker(executor);
+                            }
+                        }
+                        else if (rate < best * 0.7 && target > 1) {
+                            target--;
+                            best = rate;
+                        }
+                    }
+
+                    if (failure != null) throw failure;
+                    complete = true;
+                }
+            }
+            catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException(e);
+            }
+            finally {
+                executor.shutdownNow();
+                if (!complete) channel.truncate(fetchedPrefix());
+            }
+        }
+
+        /**
+         * Starts another worker
+         *
+         * @param executor - executor to run it on
+         */
+        private synchronized void startWorker(ExecutorService executor) {
+            running++;
+            parallelism = Math.max(parallelism, running);
+            executor.execute(this::work);
+        }
+
+        /**
+         * Fetches ranges until there are none left, the download failed or
+         * there are more workers than wanted
+         */
+        private void work() {
+            boolean retired = false;
+            try {
+                int range;
+                while (!(retired = shouldStop()) && (range = next.getAndIncrement()) < ranges) {
+                    fetch(range);
+                    markDone(range);
+                }
+            }
+            catch(IOException e) {
+                fail(e);
+            }
+            catch(RuntimeException e) {
+                fail(new IOException(e));
+            }
+            finally {
+                synchronized (this) {
+                    if (!retired) running--;
+                    notifyAll();
+                }
+            }
+        }
+
+        /**
+         * Retires the worker if the download failed or there are more workers
+         * than wanted. It's counted out at once, so the others see it's gone
+         * before they decide whether to stop too
+         *
+         * @return true if this worker was retired and should stop
+         */
+        private synchronized boolean shouldStop() {
+            if (failure == null && running <= target) return false;
+
+            running--;
+            return true;
+        }
+
+        /**
+         * @param e - error that stopped a worker, only the first one is kept
+         */
+        private synchronized void fail(IOException e) {
+            if (failure == null) failure = e;
+            notifyAll();
+        }
+
+        /**
+         * Fetches a range and writes it into the local file, retrying failed calls
+         *
+         * @param range - index of the range
+         * @throws IOException if the range could not be fetched
+         */
+        private void fetch(int range) throws IOException {
+            long position = start + (long) range * chunkSize;
+            long end = Math.min(position + chunkSize, length);
+            int attempts = 0;
+
+            while (position < end) {
+                FileChunk chunk;
+                try {
+                    chunk = p.readFile(name, position, (int) (end - position));
+                }
+                catch(RemoteException e) {
+                    // Includes chunks whose checksum didn't match and a busy server, which is given time to catch up
+                    if (++attempts >= ATTEMPTS) throw e;
+                    backOff(attempts);
+                    continue;
+                }
+
+                if (chunk == null) throw new IOException("Could not read " + name);
+                if (chunk.getFileLength() != length) throw new IOException(name + " changed during the download");
+                if (chunk.getLength() == 0) throw new EOFException(name + " ended at " + position);
+
+                write(channel, chunk);
+                position += chunk.getLength();
+                transferred.addAndGet(chunk.getLength());
+            }
+        }
+
+        /**
+         * Marks a range as fetched, recording how much of the file has been
+         * fetched without a gap when that grows
+         *
+         * @param range - index of the range
+         * @throws IOException
+         */
+        private synchronized void markDone(int range) throws IOException {
+            done[range] = true;
+
+            long prefix = fetchedPrefix();
+            if (prefix > saved) {
+                saveState(state, length, modified, prefix);
+                saved = prefix;
+            }
+        }
+
+        /**
+         * Waits before a failed call is retried, twice as long after each
+         * failure, with some randomness so workers don't retry together
+         *
+         * @param attempts - number of failed attempts so far
+         * @throws IOException if interrupted
+         */
+        private void backOff(int attempts) throws IOException {
+            long delay = RETRY_DELAY << (attempts - 1);
+            try {
+                Thread.sleep(delay / 2 + ThreadLocalRandom.current().nextLong(delay));
+            }
+            catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+        }
+
+        /**
+         * @return end of the ranges fetched without a gap from the start of the file
+         */
+        private synchronized long fetchedPrefix() {
+            while (contiguous < ranges && done[contiguous]) {
+                contiguous++;
+            }
+            return Math.min(start + (long) contiguous * chunkSize, length);
+        }
+    }
+}
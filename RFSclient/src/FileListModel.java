@@ -0,0 +1,426 @@
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import javax.swing.AbstractListModel;
+
+/**
+ * List model holding the entries of the current directory
+ *
+ * The attributes of the entries are kept in one array per attribute, with
+ * the names and permissions interned, so a directory of a million entries
+ * takes a few arrays rather than a million objects. Entries are only built
+ * when one is asked for. A map from each name to its index finds an entry
+ * by name without scanning the list. Changes fire events for the rows they
+ * affect only, so the list doesn't have to be rebuilt when a single entry
+ * is added, removed or modified. Removing an entry moves the ones after it,
+ * whose indexes are only updated the next time one of them is looked up.
+ *
+ * The entries can be sorted by name, size or date, and entries added later
+ * are merged into place, so sorting never needs the server.
+ *
+ * @author Bernardo Lopes - a32040
+ * @author Tiago Padrão - a33061
+ */
+class FileListModel extends AbstractListModel<String> {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Orders the entries can be sorted in
+     */
+    enum Order {
+        /** The order the server listed them in */
+        UNSORTED,
+        /** By name, ignoring case */
+        NAME,
+        /** Largest first */
+        SIZE,
+        /** Most recently modified first */
+        DATE
+    }
+
+    private String[] names = new String[16];
+    private boolean[] directories = new boolean[16];
+    private long[] lengths = new long[16];
+    private long[] modified = new long[16];
+    private String[] permissions = new String[16];
+    private int size;
+
+    private final Map<String, Integer> indexes = new HashMap<>();
+    private int staleFrom = Integer.MAX_VALUE;
+    private Order order = Order.UNSORTED;
+
+    @Override
+    public int getSize() {
+        return size;
+    }
+
+    @Override
+    public String getElementAt(int index) {
+        return names[index];
+    }
+
+    /**
+     * @param index - index of an entry
+     * @return the entry at the index
+     */
+    FileEntry getEntry(int index) {
+        return new FileEntry(names[index], directories[index], lengths[index], modified[index], permissions[index]);
+    }
+
+    /**
+     * @param name - name of an entry
+     * @return the entry with the name, or null if there is none
+     */
+    FileEntry getEntry(String name) {
+        int index = indexOf(name);
+        return index == -1 ? null : getEntry(index);
+    }
+
+    /**
+     * @param name - name of an entry
+     * @return index of the entry with the name, or -1 if there is none
+     */
+    int indexOf(String name) {
+        Integer index = indexes.get(name);
+        if (index == null) return -1;
+
+        if (index >= staleFrom) {
+            updateIndexes();
+            index = indexes.get(name);
+        }
+        return index;
+    }
+
+    /**
+     * @return a copy of the entries, in the order they are shown
+     */
+    FileEntry[] getEntries() {
+        FileEntry[] entries = new FileEntry[size];
+        for (int i = 0; i < size; i++) {
+            entries[i] = getEntry(i);
+        }
+        return entries;
+    }
+
+    /**
+     * @return order the entries are sorted in
+     */
+    Order getOrder() {
+        return order;
+    }
+
+    /**
+     * Replaces every entry, keeping the current order
+     *
+     * @param entries - new entries
+     */
+    void setEntries(FileEntry[] entries) {
+        int oldSize = size;
+        size = 0;
+        indexes.clear();
+        staleFrom = Integer.MAX_VALUE;
+        allocate(Math.max(16, entries.length));
+        if (oldSize > 0) fireIntervalRemoved(this, 0, oldSize - 1);
+
+        addAll(entries);
+    }
+
+    /**
+     * Adds entries to the list, at the end or in their place if the list is sorted
+     *
+     * @param entries - entries to add
+     */
+    void addAll(FileEntry[] entries) {
+        if (entries.length == 0) return;
+
+        // Leaves room after the entries for the new ones to be sorted into
+        ensureCapacity(size + 2 * entries.length);
+        int first = size;
+        for (FileEntry entry:entries) {
+            set(size, entry);
+            indexes.put(names[size], size);
+            size++;
+        }
+
+        fireIntervalAdded(this, first, size - 1);
+        if (order == Order.UNSORTED) return;
+
+        // The new entries are sorted on their own, after the end of the list, and then merged with the rest
+        int count = size - first;
+        int[] sorted = new int[count];
+        for (int i = 0; i < count; i++) {
+            sorted[i] = first + i;
+        }
+        mergeSort(sorted, 0, count, new int[count]);
+        for (int i = 0; i < count; i++) {
+            shift(sorted[i], size + i, 1);
+        }
+
+        int changedFrom = merge(first, count);
+        staleFrom = Math.min(staleFrom, changedFrom);
+        fireContentsChanged(this, changedFrom, size - 1);
+    }
+
+    /**
+     * Adds a new entry, or replaces the entry with the same name
+     *
+     * @param entry - entry to add or replace
+     * @return index of the entry
+     */
+    int put(FileEntry entry) {
+        int index = indexOf(entry.getName());
+
+        // Entries that stay in order are updated where they are, the rest are moved to their new place
+        if (index != -1) {
+            set(index, entry);
+            if (order == Order.UNSORTED || ((index == 0 || compare(index - 1, index) <= 0)
+                    && (index == size - 1 || compare(index, index + 1) <= 0))) {
+                fireContentsChanged(this, index, index);
+                return index;
+            }
+            remove(entry.getName());
+        }
+
+        ensureCapacity(size + 1);
+        set(size, entry);
+        index = order == Order.UNSORTED ? size : insertionPoint(size, size);
+
+        shift(index, index + 1, size - index);
+        set(index, entry);
+        size++;
+
+        // The entries after it moved, and their recorded indexes start from this one's
+        indexes.put(names[index], index);
+        if (index < size - 1) staleFrom = Math.min(staleFrom, index);
+
+        fireIntervalAdded(this, index, index);
+        return index;
+    }
+
+    /**
+     * Removes the entry with a name
+     *
+     * @param name - name of the entry
+     * @return index the entry had, or -1 if there was none
+     */
+    int remove(String name) {
+        int index = indexOf(name);
+        if (index == -1) return -1;
+
+        indexes.remove(name);
+        shift(index + 1, index, size - index - 1);
+        size--;
+        names[size] = null;
+        permissions[size] = null;
+
+        // Only the entries after the removed one moved
+        staleFrom = Math.min(staleFrom, index);
+
+        fireIntervalRemoved(this, index, index);
+        return index;
+    }
+
+    /**
+     * Sorts the entries
+     *
+     * @param newOrder - order to sort them in, UNSORTED leaves them as they are
+     */
+    void sort(Order newOrder) {
+        order = newOrder;
+        if (order == Order.UNSORTED || size < 2) return;
+
+        int[] sorted = identity(size);
+        mergeSort(sorted, 0, size, new int[size]);
+        permute(sorted);
+
+        staleFrom = 0;
+        fireContentsChanged(this, 0, size - 1);
+    }
+
+    /**
+     * Compares two entries in the current order
+     *
+     * @param a - index of an entry
+     * @param b - index of another entry
+     * @return negative if a comes first, positive if b comes first, 0 if either can
+     */
+    private int compare(int a, int b) {
+        int result = 0;
+        if (order == Order.SIZE) result = Long.compare(lengths[b], lengths[a]);
+        if (order == Order.DATE) result = Long.compare(modified[b], modified[a]);
+        return result != 0 ? result : String.CASE_INSENSITIVE_ORDER.compare(names[a], names[b]);
+    }
+
+    /**
+     * Finds where an entry goes among the sorted entries at the start of
+     * the list, after the entries equal to it
+     *
+     * @param index - index of the entry
+     * @param end - number of sorted entries
+     * @return position the entry goes to
+     */
+    private int insertionPoint(int index, int end) {
+        int low = 0, high = end;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (compare(middle, index) <= 0) low = middle + 1;
+            else high = middle;
+        }
+        return low;
+    }
+
+    /**
+     * @param length - number of indexes
+     * @return the indexes from 0 to length - 1, in order
+     */
+    private static int[] identity(int length) {
+        int[] indexes = new int[length];
+        for (int i = 0; i < length; i++) {
+            indexes[i] = i;
+        }
+        return indexes;
+    }
+
+    /**
+     * Sorts a range of indexes by the entries they point to, keeping equal entries in order
+     *
+     * @param indexes - indexes of entries
+     * @param from - start of the range, inclusive
+     * @param to - end of the range, exclusive
+     * @param buffer - scratch array at least as long as the range's end
+     */
+    private void mergeSort(int[] indexes, int from, int to, int[] buffer) {
+        if (to - from < 2) return;
+
+        int middle = (from + to) >>> 1;
+        mergeSort(indexes, from, middle, buffer);
+        mergeSort(indexes, middle, to, buffer);
+        if (compare(indexes[middle - 1], indexes[middle]) <= 0) return;
+
+        System.arraycopy(indexes, from, buffer, from, to - from);
+        int left = from, right = middle;
+        for (int i = from; i < to; i++) {
+            if (right >= to || (left < middle && compare(buffer[left], buffer[right]) <= 0)) indexes[i] = buffer[left++];
+            else indexes[i] = buffer[right++];
+        }
+    }
+
+    /**
+     * Merges the sorted new entries kept after the end of the list with the
+     * ones before them, starting from the last, so each run of entries is
+     * moved once
+     *
+     * @param end - number of entries already in the list
+     * @param count - number of new entries
+     * @return first position whose entry changed
+     */
+    private int merge(int end, int count) {
+        for (int i = count - 1; i >= 0; i--) {
+            int point = insertionPoint(size + i, end);
+            shift(point, point + i + 1, end - point);
+            shift(size + i, point + i, 1);
+            end = point;
+        }
+
+        // Clears the copies of the new entries
+        Arrays.fill(names, size, size + count, null);
+        Arrays.fill(permissions, size, size + count, null);
+        return end;
+    }
+
+    /**
+     * Puts the entries in a new order
+     *
+     * @param sorted - index each position takes its entry from
+     */
+    private void permute(int[] sorted) {
+        String[] newNames = new String[names.length];
+        boolean[] newDirectories = new boolean[names.length];
+        long[] newLengths = new long[names.length];
+        long[] newModified = new long[names.length];
+        String[] newPermissions = new String[names.length];
+
+        for (int i = 0; i < size; i++) {
+            int from = sorted[i];
+            newNames[i] = names[from];
+            newDirectories[i] = directories[from];
+            newLengths[i] = lengths[from];
+            newModified[i] = modified[from];
+            newPermissions[i] = permissions[from];
+        }
+
+        names = newNames;
+        directories = newDirectories;
+        lengths = newLengths;
+        modified = newModified;
+        permissions = newPermissions;
+    }
+
+    /**
+     * Stores an entry's attributes at an index
+     *
+     * @param index - index to store them at
+     * @param entry - entry to store
+     */
+    private void set(int index, FileEntry entry) {
+        names[index] = entry.getName().intern();
+        directories[index] = entry.isDirectory();
+        lengths[index] = entry.getLength();
+        modified[index] = entry.getLastModified();
+        permissions[index] = entry.getPermissions() == null ? null : entry.getPermissions().intern();
+    }
+
+    /**
+     * Moves a range of entries within the arrays
+     *
+     * @param from - first index of the range
+     * @param to - index to move it to
+     * @param length - number of entries
+     */
+    private void shift(int from, int to, int length) {
+        System.arraycopy(names, from, names, to, length);
+        System.arraycopy(directories, from, directories, to, length);
+        System.arraycopy(lengths, from, lengths, to, length);
+        System.arraycopy(modified, from, modified, to, length);
+        System.arraycopy(permissions, from, permissions, to, length);
+    }
+
+    /**
+     * Updates the indexes of the entries that moved since the last update
+     */
+    private void updateIndexes() {
+        for (int i = staleFrom; i < size; i++) {
+            indexes.put(names[i], i);
+        }
+        staleFrom = Integer.MAX_VALUE;
+    }
+
+    /**
+     * Replaces the arrays with empty ones
+     *
+     * @param capacity - number of entries they can hold
+     */
+    private void allocate(int capacity) {
+        names = new String[capacity];
+        directories = new boolean[capacity];
+        lengths = new long[capacity];
+        modified = new long[capacity];
+        permissions = new String[capacity];
+    }
+
+    /**
+     * Grows the arrays so they hold at least a number of entries
+     *
+     * @param capacity - number of entries
+     */
+    private void ensureCapacity(int capacity) {
+        if (capacity <= names.length) return;
+
+        int newCapacity = Math.max(capacity, names.length * 2);
+        names = Arrays.copyOf(names, newCapacity);
+        directories = Arrays.copyOf(directories, newCapacity);
+        lengths = Arrays.copyOf(lengths, newCapacity);
+        modified = Arrays.copyOf(modified, newCapacity);
+        permissions = Arrays.copyOf(permissions, newCapacity);
+    }
+}
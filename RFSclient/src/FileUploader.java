@@ -0,0 +1,204 @@
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Uploads local files a chunk at a time, with several chunks in flight and
+ * resuming uploads the server has already started
+ *
+ * The id of an upload that didn't finish is kept, with the local file, its
+ * version and the remote name it was sent to, and is given back to the
+ * server to resume it when the same file is sent again.
+ *
+ * A file that replaces one on the server is usually a new version of it,
+ * so only the blocks that changed are sent, and the rest are copied from
+ * the old version on the server.
+ *
+ * @author Bernardo Lopes - a32040
+ * @author Tiago Padrão - a33061
+ */
+class FileUploader {
+    // Smaller files are always sent in full
+    private static final long DELTA_MIN_LENGTH = 1 << 20;
+    // Ids of the uploads that didn't finish, by the file they were sending
+    private static final Map<String, Long> UNFINISHED = new ConcurrentHashMap<>();
+
+    private final Protocol p;
+    private final int chunkSize;
+    private final int parallelism;
+    private long bytes;
+    private long nanos;
+
+    /**
+     * Creates a new uploader
+     *
+     * @param p - remote protocol
+     * @param chunkSize - number of bytes sent per call
+     * @param parallelism - maximum number of chunks in flight
+     */
+    FileUploader(Protocol p, int chunkSize, int parallelism) {
+        this.p = p;
+        this.chunkSize = chunkSize;
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Uploads a local file, replacing the remote file once all of it has been sent
+     *
+     * @param local - local file to read
+     * @param name - absolute path of the remote file
+     * @throws IOException
+     */
+    void upload(File local, String name) throws IOException {
+        long start = System.nanoTime();
+        long length = local.length();
+        long transferred = 0;
+
+        String key = local.getAbsolutePath() + '\0' + local.lastModified() + '\0' + length + '\0' + name;
+        boolean completed = false;
+
+        // Continues after what the server already has from a previous attempt, if it still has it
+        Long previous = UNFINISHED.get(key);
+        long id = -1;
+        long offset = 0;
+        if (previous != null) {
+            offset = p.getUploadedLength(previous);
+            if (offset != -1) id = previous;
+        }
+
+        if (id == -1) {
+            id = p.beginUpload(name, length);
+            if (id == -1) throw new IOException("Could not create " + name);
+            offset = 0;
+        }
+
+        try {
+            // Empty files are created right away
+            if (length == 0) {
+                completed = true;
+                return;
+            }
+
+            UNFINISHED.put(key, id);
+
+            if (offset == 0 && length >= DELTA_MIN_LENGTH) {
+                BlockSignatures basis = p.getBlockSignatures(name, blockSizeFor(length));
+                if (basis != null) {
+                    transferred = new DeltaEncoder(p, chunkSize).send(local, id, basis);
+                    if (transferred != -1) {
+                        completed = true;
+                        return;
+                    }
+
+                    // The server's version changed in the meantime, so what's missing is sent in full
+                    offset = p.getUploadedLength(id);
+                    if (offset == -1) throw new IOException("Upload of " + name + " was discarded by the server");
+                }
+            }
+
+            transferred = send(local, id, offset, length);
+            completed = true;
+        }
+        finally {
+            if (completed) UNFINISHED.remove(key);
+            bytes = transferred;
+            nanos = System.nanoTime() - start;
+        }
+    }
+
+    /**
+     * Picks the block size a file is compared in, about the square root of
+     * its length, which balances the checksums sent against the unchanged
+     * bytes sent again around each change
+     *
+     * @param length - length of the file
+     * @return block size in bytes
+     */
+    private static int blockSizeFor(long length) {
+        int size = (int) Math.sqrt(length) / 1024 * 1024;
+        return Math.max(2048, Math.min(size, 128 << 10));
+    }
+
+    /**
+     * Sends the chunks of a file from the given offset, a few at a time
+     *
+     * @param local - local file to read
+     * @param id - id of the upload
+     * @param offset - first byte to send
+     * @param length - length of the whole file
+     * @return number of bytes sent
+     * @throws IOException
+     */
+    private long send(File local, long id, long offset, long length) throws IOException {
+        ExecutorService executor = Executors.newFixedThreadPool(parallelism);
+
+        // Each worker reads its chunks into the same buffer, which is free again once the call returns
+        ThreadLocal<ByteBuffer> buffers = ThreadLocal.withInitial(() -> ByteBuffer.allocate(chunkSize));
+
+        try (FileChannel channel = FileChannel.open(local.toPath(), StandardOpenOption.READ)) {
+            List<Future<Boolean>> results = new ArrayList<>();
+
+            for (long position = offset; position < length; position += chunkSize) {
+                final long chunkOffset = position;
+                final int size = (int) Math.min(chunkSize, length - position);
+
+                results.add(executor.submit(() -> {
+                    ByteBuffer buffer = buffers.get();
+                    buffer.clear().limit(size);
+
+                    while (buffer.hasRemaining()) {
+                        if (channel.read(buffer, chunkOffset + buffer.position()) < 0) throw new EOFException();
+                    }
+
+                    buffer.flip();
+                    return p.writeFile(id, new FileChunk(chunkOffset, length, buffer, null));
+                }));
+            }
+
+            boolean committed = false;
+            for (Future<Boolean> result:results) {
+                committed |= result.get();
+            }
+
+            if (!committed) throw new IOException("Upload " + id + " was not completed by the server");
+            return length - offset;
+        }
+        catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        }
+        catch(ExecutionException e) {
+            if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+            throw new IOException(e.getCause());
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * @return number of bytes sent by the last upload
+     */
+    long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * @return throughput of the last upload in MB/s
+     */
+    double getThroughput() {
+        if (nanos == 0) return 0;
+        return bytes / 1e6 / (nanos / 1e9);
+    }
+}
@@ -0,0 +1,78 @@
+import java.io.Serializable;
+
+/**
+ * Progress or result of a job the server runs in the background
+ *
+ * @author Bernardo Lopes - a32040
+ * @author Tiago Padrão - a33061
+ */
+class JobStatus implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * States of a job
+     */
+    enum State {
+        /** The job is still running */
+        RUNNING,
+        /** The job has finished */
+        COMPLETED,
+        /** The job was cancelled before it finished */
+        CANCELLED
+    }
+
+    private final State state;
+    private final long completed;
+    private final long failed;
+    private final long bytes;
+
+    /**
+     * Creates a new status
+     *
+     * @param state - state of the job
+     * @param completed - number of files and directories processed successfully
+     * @param failed - number of files and directories that could not be processed
+     * @param bytes - number of bytes processed
+     */
+    JobStatus(State state, long completed, long failed, long bytes) {
+        this.state = state;
+        this.completed = completed;
+        this.failed = failed;
+        this.bytes = bytes;
+    }
+
+    /**
+     * @return state of the job
+     */
+    public State getState() {
+        return state;
+    }
+
+    /**
+     * @return true if the job is no longer running
+     */
+    public boolean isDone() {
+        return state != State.RUNNING;
+    }
+
+    /**
+     * @return number of files and directories processed successfully
+     */
+    public long getCompleted() {
+        return completed;
+    }
+
+    /**
+     * @return number of files and directories that could not be processed
+     */
+    public long getFailed() {
+        return failed;
+    }
+
+    /**
+     * @return number of bytes processed
+     */
+    public long getBytes() {
+        return bytes;
+    }
+}
@@ -0,0 +1,131 @@
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Client-side cache of directory listings, keyed by absolute path
+ *
+ * Listings expire after a fixed time to live and the least recently used
+ * ones are evicted once the cache holds more than a maximum number of
+ * entries in total.
+ *
+ * @author Bernardo Lopes - a32040
+ * @author Tiago Padrão - a33061
+ */
+class MetadataCache {
+    private final long ttl;
+    private final int maxEntries;
+    private final LinkedHashMap<String, Listing> listings = new LinkedHashMap<>(16, 0.75f, true);
+    private int size;
+    private long hits, misses, evictions;
+
+    /**
+     * Creates a new cache
+     *
+     * @param ttl - milliseconds a listing stays valid after being read
+     * @param maxEntries - maximum number of files and directories held across all listings
+     */
+    MetadataCache(long ttl, int maxEntries) {
+        this.ttl = ttl;
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * Returns the cached listing of a directory
+     *
+     * @param directory - absolute path of the directory
+     * @return the directory's entries, or null if they are not cached or have expired
+     */
+    synchronized FileEntry[] getListing(String directory) {
+        Listing listing = listings.get(directory);
+
+        if (listing == null || System.currentTimeMillis() - listing.time > ttl) {
+            if (listing != null) remove(directory);
+            misses++;
+            return null;
+        }
+
+        hits++;
+        return listing.entries;
+    }
+
+    /**
+     * Stores the complete listing of a directory
+     *
+     * @param directory - absolute path of the directory
+     * @param entries - entries of the directory
+     */
+    synchronized void putListing(String directory, FileEntry[] entries) {
+        remove(directory);
+
+        // Listings that wouldn't fit on their own are not cached at all
+        if (entries.length > maxEntries) return;
+
+        listings.put(directory, new Listing(entries, System.currentTimeMillis()));
+        size += entries.length;
+
+        // Evicts the least recently used listings
+        Iterator<Listing> iterator = listings.values().iterator();
+        while (size > maxEntries && iterator.hasNext()) {
+            size -= iterator.next().entries.length;
+            iterator.remove();
+            evictions++;
+        }
+    }
+
+    /**
+     * Invalidates everything a change to the given path may have made stale:
+     * the listing of its parent directory, its own listing and the listings
+     * of everything below it
+     *
+     * @param path - absolute path of the created, renamed or deleted file or directory
+     */
+    synchronized void invalidate(String path) {
+        int separator = path.lastIndexOf('/');
+        if (separator > 0) remove(path.substring(0, separator));
+
+        String prefix = path + "/";
+        Iterator<Map.Entry<String, Listing>> iterator = listings.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, Listing> entry = iterator.next();
+            if (entry.getKey().equals(path) || entry.getKey().startsWith(prefix)) {
+                size -= entry.getValue().entries.length;
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Removes a single listing
+     *
+     * @param directory - absolute path of the directory
+     */
+    private void remove(String directory) {
+        Listing listing = listings.remove(directory);
+        if (listing != null) size -= listing.entries.length;
+    }
+
+    /**
+     * @return formatted string with the cache's hit, miss and eviction counts
+     */
+    @Override
+    public synchronized String toString() {
+        long lookups = hits + misses;
+        double ratio = lookups == 0 ? 0 : 100.0 * hits / lookups;
+        return String.format("%d hits, %d misses (%.1f%% hit ratio), %d evictions, %d listings with %d entries cached",
+                hits, misses, ratio, evictions, listings.size(), size);
+    }
+
+    /**
+     * A cached directory listing and the time it was read
+     */
+    private static class Listing {
+        final FileEntry[] entries;
+        final long time;
+
+        Listing(FileEntry[] entries, long time) {
+            this.entries = entries;
+            this.time = time;
+        }
+    }
+}
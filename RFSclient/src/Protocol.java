@@ -19,12 +19,94 @@ interface Protocol extends Remote{
     /** 
      * Read the contents of a given directory
      * 
+     * Every entry is sent as a java.io.File, with its full path, so 
+     * readDirectoryEntries is much more compact for large directories
+     * 
      * @param directoryName - absolute path of the chosen directory
      * @return an array with the list of files and directories
      * @throws RemoteException 
      */
     public File[] readDirectory(String directoryName) throws RemoteException; 
     
+    /** 
+     * Read the contents of a given directory together with the attributes of each entry
+     * 
+     * @param directoryName - absolute path of the chosen directory
+     * @param includePermissions - true to also read the permissions of each entry
+     * @return the name, type, size and modification date of each file and directory, 
+     * or null if the directory could not be read
+     * @throws RemoteException 
+     */
+    public DirectoryListing readDirectoryEntries(String directoryName, boolean includePermissions) throws RemoteException; 
+    
+    /** 
+     * Reads the contents of a given directory, sorted, filtered and trimmed by the server
+     * 
+     * Only the entries and attributes asked for are sent, so the most recent 
+     * files of a large directory can be listed without sending all of it
+     * 
+     * @param directoryName - absolute path of the chosen directory
+     * @param options - sort order, filters, attributes and maximum number of entries, 
+     * or null to list every entry with all of its attributes in the order it's read
+     * @return the matching entries, in order, or null if the directory could not be read
+     * or a glob is invalid
+     * @throws RemoteException 
+     */
+    public DirectoryListing listDirectory(String directoryName, ListingOptions options) throws RemoteException; 
+    
+    /** 
+     * Opens a cursor to read the contents of a given directory a page at a time
+     * 
+     * Cursors that are not used for a while expire and are closed by the server. 
+     * A client that has too many open loses its least recently used one
+     * 
+     * @param directoryName - absolute path of the chosen directory
+     * @param includePermissions - true to also read the permissions of each entry
+     * @return id of the new cursor, or -1 if the directory could not be read
+     * @throws RemoteException ServerBusyException if the server has too many cursors open
+     */
+    public long openDirectoryCursor(String directoryName, boolean includePermissions) throws RemoteException; 
+    
+    /** 
+     * Reads the next entries of a directory cursor
+     * 
+     * The cursor is closed after its last entry is read, which is signaled by
+     * the listing's isLast flag. A page can hold fewer entries than requested
+     * without being the last one, since the server caps the page size
+     * 
+     * @param cursorId - id of the cursor
+     * @param maxEntries - maximum number of entries to return
+     * @return the next entries, or null if the cursor doesn't exist or has expired
+     * @throws RemoteException 
+     */
+    public DirectoryListing fetchEntries(long cursorId, int maxEntries) throws RemoteException; 
+    
+    /** 
+     * Closes a directory cursor before all of its entries are read
+     * 
+     * @param cursorId - id of the cursor
+     * @throws RemoteException 
+     */
+    public void closeDirectoryCursor(long cursorId) throws RemoteException; 
+    
+    /** 
+     * Starts pushing the changes made to a given directory to a client callback
+     * 
+     * @param directoryName - absolute path of the directory to watch
+     * @param listener - callback exported by the client
+     * @throws RemoteException 
+     */
+    public void watchDirectory(String directoryName, DirectoryListener listener) throws RemoteException; 
+    
+    /** 
+     * Stops pushing the changes made to a given directory to a client callback
+     * 
+     * @param directoryName - absolute path of the watched directory
+     * @param listener - callback exported by the client
+     * @throws RemoteException 
+     */
+    public void unwatchDirectory(String directoryName, DirectoryListener listener) throws RemoteException; 
+    
     /** 
      * Creates a new directory with the given name
      * 
@@ -42,12 +124,118 @@ interface Protocol extends Remote{
     public void deleteFile(String name) throws RemoteException; 
     
     /** 
-     * Deletes the given directory
+     * Deletes the given directory and everything in it
+     * 
+     * Subdirectories are deleted in parallel and the call returns once the
+     * whole tree has been processed
+     * 
+     * @param name - absolute path of the directory to delete
+     * @return number of deleted and failed entries
+     * @throws RemoteException 
+     */
+    public JobStatus deleteDirectory(String name) throws RemoteException; 
+    
+    /** 
+     * Starts deleting the given directory and everything in it in the background
      * 
      * @param name - absolute path of the directory to delete
+     * @return id of the job, to be polled with getJobStatus
+     * @throws RemoteException 
+     */
+    public long startDeleteDirectory(String name) throws RemoteException; 
+    
+    /** 
+     * Starts copying a file, or a directory and everything in it, in the background
+     * 
+     * The data is copied on the server, without passing through the client, 
+     * and subdirectories are copied in parallel. The job's status counts the 
+     * files and directories copied and the bytes copied so far
+     * 
+     * @param name - absolute path of the file or directory to copy
+     * @param nameNew - absolute path of the copy, which must not exist yet
+     * @return id of the job, to be polled with getJobStatus, or -1 if the copy 
+     * could not be started
+     * @throws RemoteException 
+     */
+    public long startCopy(String name, String nameNew) throws RemoteException; 
+    
+    /** 
+     * Starts moving a file, or a directory and everything in it, in the background
+     * 
+     * Within a file system the move is a single rename. Across file systems
+     * it's copied, like startCopy, and the original is deleted once every 
+     * entry has been copied
+     * 
+     * @param name - absolute path of the file or directory to move
+     * @param nameNew - absolute path to move it to, which must not exist yet
+     * @return id of the job, to be polled with getJobStatus, or -1 if the move 
+     * could not be started
+     * @throws RemoteException 
+     */
+    public long startMove(String name, String nameNew) throws RemoteException; 
+    
+    /** 
+     * Returns the progress of a background job
+     * 
+     * @param jobId - id of the job
+     * @return status of the job, or null if it doesn't exist or finished long ago
      * @throws RemoteException 
      */
-    public void deleteDirectory(String name) throws RemoteException; 
+    public JobStatus getJobStatus(long jobId) throws RemoteException; 
+    
+    /** 
+     * Asks a background job to stop. What it already did is not undone
+     * 
+     * @param jobId - id of the job
+     * @throws RemoteException 
+     */
+    public void cancelJob(long jobId) throws RemoteException; 
+    
+    /** 
+     * Adds up the total size and number of files and directories of a directory tree
+     * 
+     * Subdirectories are read in parallel and the direct contents of each 
+     * directory are cached on the server until its modification time changes
+     * 
+     * @param directoryName - absolute path of the directory
+     * @param maxDepth - number of levels of subdirectories to read, or a negative number for no limit
+     * @param timeout - milliseconds to stop reading after, or 0 for no limit
+     * @return totals of the tree, which are incomplete if a limit was reached, 
+     * or null if it's not a directory
+     * @throws RemoteException 
+     */
+    public DirectorySize getDirectorySize(String directoryName, int maxDepth, long timeout) throws RemoteException; 
+    
+    /** 
+     * Searches a directory and everything below it for names matching a pattern
+     * 
+     * Searches use an index of the shared directory kept in memory by the server,
+     * so they don't read the disk. Plain patterns match names containing them, 
+     * ignoring case. Patterns starting with "glob:" or "regex:" must match the 
+     * whole name, as in FileSystem.getPathMatcher
+     * 
+     * @param directoryName - absolute path of the directory to search in
+     * @param pattern - pattern the names must match
+     * @param offset - number of matches to skip, to read the following pages
+     * @param maxResults - maximum number of matches to return
+     * @return absolute paths of the matches, sorted by directory and name, with 
+     * fewer than requested once there are no more, or null if the pattern is not valid
+     * @throws RemoteException 
+     */
+    public String[] searchFiles(String directoryName, String pattern, int offset, int maxResults) throws RemoteException; 
+    
+    /** 
+     * Checks if searching a directory sees every change made below it
+     * 
+     * While the index is being built, or when the server can't watch some of 
+     * the directories below it, searches may miss recent changes. Directories 
+     * that can't be watched are read again every minute or so
+     * 
+     * @param directoryName - absolute path of the directory to search in
+     * @return true if the index of the directory is complete and up to date
+     * @throws RemoteException 
+     */
+    public boolean isSearchComplete(String directoryName) throws RemoteException; 
     
     /** 
      * Creates a new file with the given name
@@ -66,6 +254,190 @@ interface Protocol extends Remote{
      */
     public void rename(String name, String nameNew) throws RemoteException; 
     
+    /** 
+     * Creates a new file or directory, adding a copy number to its name if 
+     * the name is taken (e.g. "New File (2).txt")
+     * 
+     * Each name is claimed by creating it, so concurrent clients never get 
+     * the same one
+     * 
+     * @param directoryName - absolute path of the directory to create it in
+     * @param name - name without the file extension
+     * @param extension - file extension, including the dot, or an empty string
+     * @param directory - true to create a directory, false to create an empty file
+     * @return name of the created file or directory, or null if it could not be created
+     * @throws RemoteException 
+     */
+    public String createUnique(String directoryName, String name, String extension, boolean directory) throws RemoteException; 
+    
+    /** 
+     * Renames a file or directory, adding a copy number to the new name if 
+     * the name is taken (e.g. "Report (2).txt")
+     * 
+     * @param name - absolute path of the file/directory to rename
+     * @param nameNew - new name without the file extension
+     * @param extension - file extension, including the dot, or an empty string
+     * @return new name of the file or directory, or null if it could not be renamed
+     * @throws RemoteException 
+     */
+    public String renameUnique(String name, String nameNew, String extension) throws RemoteException; 
+    
+    /** 
+     * Creates, renames and deletes files and directories in a single call
+     * 
+     * The batch has the same effect as running its operations in order, but
+     * operations on unrelated paths may run in parallel. Every operation is
+     * run, even if an earlier one failed
+     * 
+     * @param operations - operations to run, in order
+     * @return outcome of each operation, in the same order
+     * @throws RemoteException 
+     */
+    public BatchResult[] executeBatch(BatchOperation[] operations) throws RemoteException; 
+    
+    /** 
+     * Reads a range of bytes from a file
+     * 
+     * Files are downloaded by reading consecutive chunks, and an interrupted 
+     * download can be resumed from the offset of the first missing byte
+     * 
+     * @param name - absolute path of the file to read
+     * @param offset - position of the first byte to read
+     * @param length - maximum number of bytes to read, capped by the server
+     * @return the bytes read, or null if the file could not be read
+     * @throws RemoteException 
+     */
+    public FileChunk readFile(String name, long offset, int length) throws RemoteException; 
+    
+    /** 
+     * Starts uploading a file
+     * 
+     * The file is written to a temporary file and only replaces the target 
+     * once all of its bytes have been received. Every call starts a new 
+     * upload; an unfinished one is resumed by passing its id back to 
+     * getUploadedLength, so only the client that started it can resume it.
+     * 
+     * @param name - absolute path of the file to create or replace
+     * @param length - length of the whole file in bytes
+     * @return id of the upload, unguessable by other clients, or -1 if the 
+     * file could not be created
+     * @throws RemoteException 
+     */
+    public long beginUpload(String name, long length) throws RemoteException; 
+    
+    /** 
+     * Returns where an interrupted upload should be resumed from
+     * 
+     * @param uploadId - id of the upload
+     * @return number of contiguous bytes received from the start of the file, 
+     * or -1 if the upload doesn't exist
+     * @throws RemoteException 
+     */
+    public long getUploadedLength(long uploadId) throws RemoteException; 
+    
+    /** 
+     * Writes a chunk of an upload. Chunks may be sent in any order and 
+     * several at a time
+     * 
+     * @param uploadId - id of the upload
+     * @param chunk - bytes to write and their offset in the file
+     * @return true if this was the last missing chunk and the file was moved into place
+     * @throws RemoteException 
+     */
+    public boolean writeFile(long uploadId, FileChunk chunk) throws RemoteException; 
+    
+    /** 
+     * Returns the checksums of the blocks of a file, so a new version of it 
+     * can be uploaded by sending only the blocks that changed
+     * 
+     * @param name - absolute path of the file
+     * @param blockSize - length of each block in bytes
+     * @return checksums of each block, or null if the file could not be read
+     * @throws RemoteException 
+     */
+    public BlockSignatures getBlockSignatures(String name, int blockSize) throws RemoteException; 
+    
+    /** 
+     * Writes blocks of the file an upload replaces into the upload, in place
+     * of sending their bytes with writeFile
+     * 
+     * @param uploadId - id of the upload
+     * @param copies - blocks to copy and where they go in the new version
+     * @return true if these were the last missing bytes and the file was moved into place, 
+     * false if not or if the file changed since its blocks were signed
+     * @throws RemoteException 
+     */
+    public boolean copyBlocks(long uploadId, BlockCopies copies) throws RemoteException; 
+    
+    /** 
+     * Discards an upload and its temporary file
+     * 
+     * @param uploadId - id of the upload
+     * @throws RemoteException 
+     */
+    public void cancelUpload(long uploadId) throws RemoteException; 
+    
+    /** 
+     * Returns the SHA-256 digest and the 64-bit xxHash of a file's contents
+     * 
+     * Digests are cached on the server until the file's length or
+     * modification time change, so asking again for an unchanged file
+     * doesn't read it again.
+     * 
+     * @param name - absolute path of the file
+     * @return digests of the file, or null if it isn't a regular file or could not be read
+     * @throws RemoteException 
+     */
+    public FileDigest getFileDigest(String name) throws RemoteException; 
+    
+    /** 
+     * Returns the digests of several files, which are read in parallel
+     * 
+     * @param names - absolute paths of the files
+     * @return digests of each file, in the same order, with null for the ones 
+     * that aren't regular files or could not be read
+     * @throws RemoteException 
+     */
+    public FileDigest[] getFileDigests(String[] names) throws RemoteException; 
+    
+    /** 
+     * Starts archiving a directory tree, so it can be downloaded as a single file
+     * 
+     * The archive is made on the server while it's read with readArchive, and
+     * is never stored whole. It holds the directory itself and everything
+     * inside it. Archives that are not read for a while are discarded.
+     * 
+     * @param directoryName - absolute path of the directory
+     * @param format - format of the archive
+     * @return id of the archive, or -1 if the directory could not be read
+     * @throws RemoteException 
+     */
+    public long openArchive(String directoryName, ArchiveFormat format) throws RemoteException; 
+    
+    /** 
+     * Reads the next bytes of an archive, waiting until some are ready
+     * 
+     * The length of the whole archive is only known once it has all been
+     * made, so only the last chunk reports it and has isLast set. A chunk
+     * can be read again by asking for its offset until the next one is read.
+     * 
+     * @param archiveId - id of the archive
+     * @param offset - position of the bytes in the archive, the end of the last chunk read
+     * @param maxLength - maximum number of bytes to read
+     * @return the bytes read, possibly none, or null if the archive doesn't exist, 
+     * could not be made or the offset is wrong
+     * @throws RemoteException 
+     */
+    public FileChunk readArchive(long archiveId, long offset, int maxLength) throws RemoteException; 
+    
+    /** 
+     * Stops archiving a directory tree and discards what wasn't read
+     * 
+     * @param archiveId - id of the archive
+     * @throws RemoteException 
+     */
+    public void closeArchive(long archiveId) throws RemoteException; 
+    
     /** 
      * Checks if a file is a directory
      * 
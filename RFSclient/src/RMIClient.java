@@ -2,15 +2,25 @@ import java.io.File;
 import static java.lang.System.exit;
 import java.rmi.NotBoundException;
 import java.rmi.RemoteException;
+import java.rmi.ServerException;
 import java.rmi.registry.LocateRegistry;
 import java.rmi.registry.Registry;
+import java.rmi.server.UnicastRemoteObject;
 import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.function.Consumer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import javax.swing.DefaultListModel;
+import javax.swing.JFileChooser;
 import javax.swing.JFrame;
 import javax.swing.JOptionPane;
+import javax.swing.ProgressMonitor;
+import javax.swing.SwingWorker;
 import javax.swing.table.DefaultTableModel;
 
 /**
@@ -18,12 +28,35 @@ import javax.swing.table.DefaultTableModel;
  * @author Tiago Padrão - a33061
  */
 public class RMIClient extends javax.swing.JFrame {
+    private static final int PAGE_SIZE = Integer.getInteger("rfs.pageSize", 500);
+    private static final int CHUNK_SIZE = Integer.getInteger("rfs.download.chunkSize", 4 << 20);
+    private static final int DOWNLOAD_PARALLELISM = Integer.getInteger("rfs.download.parallelism", 8);
+    private static final int UPLOAD_CHUNK_SIZE = Integer.getInteger("rfs.upload.chunkSize", 4 << 20);
+    private static final int UPLOAD_PARALLELISM = Integer.getInteger("rfs.upload.parallelism", 4);
+    private static final long SIZE_TIMEOUT = Long.getLong("rfs.size.timeout", 5000);
+    private static final int SEARCH_RESULTS = Integer.getInteger("rfs.search.results", 1000);
+    
     private final Registry registry;
     private final Protocol p;
-    private File[] files;
+    private final FileListModel fileModel = new FileListModel();
     private File currentDir;
     private final File defaultDir;
     private final String address;
+    private long cursor = -1;
+    private final MetadataCache cache = new MetadataCache(Long.getLong("rfs.cache.ttl", 30000), Integer.getInteger("rfs.cache.size", 100000));
+    private final DirectoryListener listener = new ChangeListener();
+    private String watchedDir;
+    
+    // Remote calls run in the background so a slow server never freezes the user interface
+    private final ExecutorService executor = Executors.newFixedThreadPool(Integer.getInteger("rfs.client.threads", 4), daemonThreads("rfs-client"));
+    
+    // Directory reads run on their own thread, in order, so cursors and watches are switched in sequence
+    private final ExecutorService navigationExecutor = Executors.newSingleThreadExecutor(daemonThreads("rfs-navigation"));
+    private int navigation;
+    private int pendingTasks;
+    private boolean loadingPage;
+    private SwingWorker<?, ?> propertiesTask;
+    private String pendingSelection;
     
     /**
      * Creates new form RMIClient
@@ -38,12 +71,40 @@ public class RMIClient extends javax.swing.JFrame {
         
         p = (Protocol)registry.lookup("myProtocol");
         
-        // Reads the default directory
-        files = p.readDirectory(p.getDefaultDirectoryPath());
+        // Exports the callback the server uses to push changes to the current directory,
+        // compressing them if a compression level is set. The same property sets the level 
+        // of the server's replies, if the server offers compression
+        int level = Integer.getInteger("rfs.compression.level", 0);
+        int threshold = Integer.getInteger("rfs.compression.threshold", 1024);
+        if (level > 0) {
+            UnicastRemoteObject.exportObject(listener, 0, new CompressingClientSocketFactory(level, threshold), new CompressingServerSocketFactory(level, threshold));
+        }
+        else {
+            UnicastRemoteObject.exportObject(listener, 0);
+        }
+        
+        // Reports how well the metadata cache did, to help tune its TTL and size
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> Logger.getLogger(RMIClient.class.getName()).log(Level.INFO, "Metadata cache: {0}", cache)));
+        
         currentDir = new File(p.getDefaultDirectoryPath());
         defaultDir = currentDir;
         
         initComponents();
+        
+        // Every row has the same height and width, so the list never measures its rows
+        // and only renders the ones that are visible, however many entries there are
+        fileList.setPrototypeCellValue("XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX");
+        
+        // Reads the default directory
+        showDirectory(defaultDir.getAbsolutePath());
+        
+        // Fetches the next page of the current directory when the list is scrolled near its end
+        jScrollPane1.getVerticalScrollBar().addAdjustmentListener(new java.awt.event.AdjustmentListener() {
+            @Override
+            public void adjustmentValueChanged(java.awt.event.AdjustmentEvent evt) {
+                fileListScrolled(evt);
+            }
+        });
     }
     
     /**
@@ -72,6 +133,511 @@ public class RMIClient extends javax.swing.JFrame {
         return String.format("%.1f %sB", bytes / Math.pow(1000, exp), pre);
     }
     
+    /**
+     * Reads the contents of a directory, with the attributes of each entry, in a single call
+     * 
+     * @param directory - absolute path of the directory to read
+     * @return entries of the directory, or an empty array if it could not be read
+     * @throws RemoteException 
+     */
+    private FileEntry[] readEntries(String directory) throws RemoteException {
+        FileEntry[] entries = cache.getListing(directory);
+        if (entries != null) return entries;
+        
+        DirectoryListing listing = p.readDirectoryEntries(directory, true);
+        if (listing == null) return new FileEntry[0];
+        
+        entries = listing.getEntries();
+        cache.putListing(directory, entries);
+        return entries;
+    }
+    
+    /**
+     * Creates threads that don't keep the client running once the window is closed
+     * 
+     * @param name - name of the threads
+     * @return thread factory
+     */
+    private static ThreadFactory daemonThreads(final String name) {
+        return new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, name);
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+    
+    /**
+     * Runs a remote call in the background and handles its result on the event dispatch thread
+     * 
+     * @param <T> - type of the result
+     * @param runner - executor to run the call on
+     * @param call - remote call, which must not touch the user interface
+     * @param done - handles the result, unless the task was cancelled
+     * @param failed - handles the exception thrown by the call
+     * @return the task, which can be cancelled to discard its result
+     */
+    private <T> SwingWorker<T, Void> runRemote(ExecutorService runner, final Callable<T> call, final Consumer<T> done, final Consumer<Exception> failed) {
+        SwingWorker<T, Void> task = new SwingWorker<T, Void>() {
+            @Override
+            protected T doInBackground() throws Exception {
+                return call.call();
+            }
+            
+            @Override
+            protected void done() {
+                setBusy(-1);
+                if (isCancelled()) return;
+                
+                try {
+                    done.accept(get());
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                } catch (ExecutionException ex) {
+                    failed.accept(ex.getCause() instanceof Exception ? (Exception) ex.getCause() : ex);
+                }
+            }
+        };
+        
+        setBusy(1);
+        runner.execute(task);
+        return task;
+    }
+    
+    /**
+     * Runs a remote call in the background, reporting it if it fails
+     * 
+     * @param <T> - type of the result
+     * @param call - remote call, which must not touch the user interface
+     * @param done - handles the result on the event dispatch thread
+     * @return the task, which can be cancelled to discard its result
+     */
+    private <T> SwingWorker<T, Void> runRemote(Callable<T> call, Consumer<T> done) {
+        return runRemote(executor, call, done, new Consumer<Exception>() {
+            @Override
+            public void accept(Exception ex) {
+                reportFailure(ex);
+            }
+        });
+    }
+    
+    /**
+     * Tells the user the server is busy when it turned a call away, or logs any other failure
+     * 
+     * @param ex - exception thrown by the call
+     */
+    private void reportFailure(Exception ex) {
+        // Exceptions thrown by the server arrive wrapped in a ServerException
+        if (ex instanceof ServerException && ex.getCause() instanceof ServerBusyException) {
+            JOptionPane.showMessageDialog(this, "The server is busy, please try again in a moment.", 
+                "Remote File System Browser", JOptionPane.WARNING_MESSAGE);
+            return;
+        }
+        
+        Logger.getLogger(RMIClient.class.getName()).log(Level.SEVERE, null, ex);
+    }
+    
+    /**
+     * Shows the progress bar while there are remote calls running
+     * 
+     * @param delta - number of calls started, or -1 when one finishes
+     */
+    private void setBusy(int delta) {
+        pendingTasks += delta;
+        progressBar.setIndeterminate(pendingTasks > 0);
+    }
+    
+    /**
+     * Reads the first page of a directory. Runs in the background
+     * 
+     * @param directory - absolute path of the directory to read
+     * @return first page of entries, and the cursor to read the rest or -1 if there's nothing left
+     * @throws RemoteException 
+     */
+    private Page readFirstPage(String directory) throws RemoteException {
+        // Directories that were fully read recently are served from the cache
+        FileEntry[] cached = cache.getListing(directory);
+        if (cached != null) return new Page(cached, -1);
+        
+        long newCursor = p.openDirectoryCursor(directory, true);
+        if (newCursor == -1) return new Page(new FileEntry[0], -1);
+        
+        DirectoryListing listing = p.fetchEntries(newCursor, PAGE_SIZE);
+        if (listing == null) return new Page(new FileEntry[0], -1);
+        
+        FileEntry[] page = listing.getEntries();
+        
+        // The server closes the cursor once it returns the last page
+        if (!listing.isLast()) return new Page(page, newCursor);
+        
+        cache.putListing(directory, page);
+        return new Page(page, -1);
+    }
+    
+    /**
+     * Switches to a directory, showing its first page as soon as it's read
+     * 
+     * @param directory - absolute path of the directory to show
+     */
+    private void showDirectory(final String directory) {
+        final long oldCursor = cursor;
+        final String oldWatched = watchedDir;
+        final int generation = ++navigation;
+        
+        cursor = -1;
+        watchedDir = directory;
+        loadingPage = false;
+        
+        runRemote(navigationExecutor, new Callable<Page>() {
+            @Override
+            public Page call() throws Exception {
+                // Releases the cursor of the previous directory, if it wasn't fully read
+                if (oldCursor != -1) p.closeDirectoryCursor(oldCursor);
+                
+                // Moves the change notifications over to the new directory
+                if (!directory.equals(oldWatched)) {
+                    if (oldWatched != null) p.unwatchDirectory(oldWatched, listener);
+                    p.watchDirectory(directory, listener);
+                }
+                
+                return readFirstPage(directory);
+            }
+        }, new Consumer<Page>() {
+            @Override
+            public void accept(final Page page) {
+                // The user has moved on to another directory in the meantime
+                if (generation != navigation) {
+                    if (page.cursor != -1) closeCursor(page.cursor);
+                    return;
+                }
+                
+                cursor = page.cursor;
+                currentDir = new File(directory);
+                
+                // Updates the list model
+                fileModel.setEntries(page.entries);
+                
+                // The Back button is disabled in the default directory
+                backButton.setEnabled(!currentDir.equals(defaultDir));
+                
+                // Selects the search result the user chose, or the entry just created or renamed, if it's on the first page
+                if (pendingSelection != null) {
+                    int index = fileModel.indexOf(pendingSelection);
+                    if (index != -1) {
+                        fileList.setSelectedIndex(index);
+                        fileList.ensureIndexIsVisible(index);
+                    }
+                    pendingSelection = null;
+                }
+            }
+        }, new Consumer<Exception>() {
+            @Override
+            public void accept(Exception ex) {
+                reportFailure(ex);
+            }
+        });
+    }
+    
+    /**
+     * Closes a directory cursor that is no longer needed
+     * 
+     * @param pageCursor - id of the cursor
+     */
+    private void closeCursor(final long pageCursor) {
+        runRemote(navigationExecutor, new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                p.closeDirectoryCursor(pageCursor);
+                return null;
+            }
+        }, new Consumer<Void>() {
+            @Override
+            public void accept(Void result) {
+            }
+        }, new Consumer<Exception>() {
+            @Override
+            public void accept(Exception ex) {
+                reportFailure(ex);
+            }
+        });
+    }
+    
+    /**
+     * Fetches the next page of the current directory in the background and appends it to the list
+     */
+    private void loadNextPage() {
+        if (cursor == -1 || loadingPage) return;
+        
+        final long pageCursor = cursor;
+        final int generation = navigation;
+        loadingPage = true;
+        
+        runRemote(navigationExecutor, new Callable<DirectoryListing>() {
+            @Override
+            public DirectoryListing call() throws Exception {
+                return p.fetchEntries(pageCursor, PAGE_SIZE);
+            }
+        }, new Consumer<DirectoryListing>() {
+            @Override
+            public void accept(DirectoryListing listing) {
+                if (generation != navigation) return;
+                loadingPage = false;
+                
+                FileEntry[] page = listing == null ? null : listing.getEntries();
+                if (page == null || listing.isLast()) cursor = -1;
+                if (page == null || page.length == 0) return;
+                
+                // Pages are merged into place when the list is sorted, which can move the selected entry
+                String selected = fileList.getSelectedValue();
+                fileModel.addAll(page);
+                restoreSelection(selected);
+                
+                // Once the whole directory is loaded it can be cached
+                if (cursor == -1) cache.putListing(currentDir.getAbsolutePath(), fileModel.getEntries());
+            }
+        }, new Consumer<Exception>() {
+            @Override
+            public void accept(Exception ex) {
+                if (generation == navigation) loadingPage = false;
+                reportFailure(ex);
+            }
+        });
+    }
+    
+    /**
+     * Patches the current directory's entries and list model with changes pushed by the server
+     * 
+     * @param directory - absolute path of the directory that changed
+     * @param changes - changes to the directory's entries
+     */
+    private void applyChanges(String directory, DirectoryChange[] changes) {
+        String current = currentDir.getAbsolutePath();
+        
+        // Ignores late notifications for a directory the user has already left
+        if (!new File(directory).getAbsolutePath().equals(current)) return;
+        
+        boolean selectedChanged = false;
+        
+        for (DirectoryChange change:changes) {
+            // Some changes were lost, so the directory is read and watched again, 
+            // since the server stops sending changes to clients that fall behind
+            if (change.getKind() == DirectoryChange.Kind.OVERFLOW) {
+                cache.invalidate(current);
+                watchedDir = null;
+                showDirectory(current);
+                return;
+            }
+            
+            cache.invalidate(current + "/" + change.getName());
+            
+            // The list keeps its selection in place as entries are removed before it
+            if (change.getKind() == DirectoryChange.Kind.DELETED) {
+                fileModel.remove(change.getName());
+            }
+            else if (fileModel.indexOf(change.getName()) != -1) {
+                // A modified entry moves if it no longer fits where it was in the sorted list
+                boolean selected = change.getName().equals(fileList.getSelectedValue());
+                fileModel.put(change.getEntry());
+                if (selected) {
+                    restoreSelection(change.getName());
+                    selectedChanged = true;
+                }
+            }
+            else if (cursor == -1) {
+                // New entries are only appended once the whole directory is loaded, 
+                // otherwise they'll arrive with a later page
+                fileModel.put(change.getEntry());
+            }
+        }
+        
+        if (cursor == -1) cache.putListing(current, fileModel.getEntries());
+        
+        // Shows the new properties of the selected item
+        if (selectedChanged) showProperties();
+    }
+    
+    /**
+     * Creates a new file or directory under a name that isn't taken yet, and 
+     * invalidates the cached listings it affects
+     * 
+     * @param directory - absolute path of the directory to create it in
+     * @param name - name without the file extension
+     * @param extension - file extension, including the dot, or an empty string
+     * @param isDirectory - true to create a directory, false to create a file
+     * @return name of the created file or directory, or null if it could not be created
+     * @throws RemoteException 
+     */
+    private String createUnique(String directory, String name, String extension, boolean isDirectory) throws RemoteException {
+        String created = p.createUnique(directory, name, extension, isDirectory);
+        if (created != null) cache.invalidate(directory + "/" + created);
+        return created;
+    }
+    
+    /**
+     * Deletes a file and invalidates the cached listings it affects
+     * 
+     * @param name - absolute path of the file to delete
+     * @throws RemoteException 
+     */
+    private void deleteFile(String name) throws RemoteException {
+        p.deleteFile(name);
+        cache.invalidate(name);
+    }
+    
+    /**
+     * Starts deleting a directory in a background job on the server and shows its 
+     * progress, refreshing the list and the cached listings once it finishes
+     * 
+     * @param name - absolute path of the directory to delete
+     */
+    private void deleteDirectory(final String name) {
+        runRemote(new Callable<Long>() {
+            @Override
+            public Long call() throws Exception {
+                long jobId = p.startDeleteDirectory(name);
+                cache.invalidate(name);
+                return jobId;
+            }
+        }, new Consumer<Long>() {
+            @Override
+            public void accept(Long jobId) {
+                pollDeleteJob(name, jobId);
+            }
+        });
+    }
+    
+    /**
+     * Polls a delete job until it finishes, without blocking the user interface
+     * 
+     * @param name - absolute path of the directory being deleted
+     * @param jobId - id of the job
+     */
+    private void pollDeleteJob(final String name, final long jobId) {
+        final ProgressMonitor monitor = new ProgressMonitor(this, "Deleting " + new File(name).getName(), "Starting...", 0, 100);
+        monitor.setMillisToDecideToPopup(500);
+        monitor.setMillisToPopup(500);
+        
+        final javax.swing.Timer timer = new javax.swing.Timer(250, null);
+        timer.addActionListener(new java.awt.event.ActionListener() {
+            private boolean polling;
+            
+            @Override
+            public void actionPerformed(java.awt.event.ActionEvent evt) {
+                // Skips a tick if the previous poll hasn't returned yet
+                if (polling) return;
+                polling = true;
+                
+                final boolean cancel = monitor.isCanceled();
+                
+                runRemote(executor, new Callable<JobStatus>() {
+                    @Override
+                    public JobStatus call() throws Exception {
+                        if (cancel) p.cancelJob(jobId);
+                        return p.getJobStatus(jobId);
+                    }
+                }, new Consumer<JobStatus>() {
+                    @Override
+                    public void accept(JobStatus status) {
+                        polling = false;
+                        
+                        if (status != null && !status.isDone()) {
+                            monitor.setNote(status.getCompleted() + " deleted, " + status.getFailed() + " failed");
+                            monitor.setProgress(0);
+                            return;
+                        }
+                        
+                        timer.stop();
+                        monitor.close();
+                        cache.invalidate(name);
+                        
+                        // Updates the list model if the user is still in the same directory
+                        String parent = new File(name).getParentFile().getAbsolutePath();
+                        if (parent.equals(currentDir.getAbsolutePath())) showDirectory(parent);
+                        
+                        if (status != null && status.getFailed() > 0) {
+                            JOptionPane.showMessageDialog(RMIClient.this, 
+                                status.getFailed() + " files or directories could not be deleted.", 
+                                "Delete", 
+                                JOptionPane.WARNING_MESSAGE);
+                        }
+                    }
+                }, new Consumer<Exception>() {
+                    @Override
+                    public void accept(Exception ex) {
+                        timer.stop();
+                        monitor.close();
+                        reportFailure(ex);
+                    }
+                });
+            }
+        });
+        timer.start();
+    }
+    
+    /**
+     * Uploads a local file to a directory in the background and refreshes the list once it's done
+     * 
+     * @param local - local file to upload
+     * @param parent - absolute path of the directory to upload to
+     */
+    private void upload(final File local, final String parent) {
+        final String name = parent + "/" + local.getName();
+        final FileUploader uploader = new FileUploader(p, UPLOAD_CHUNK_SIZE, UPLOAD_PARALLELISM);
+        
+        runRemote(executor, new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                uploader.upload(local, name);
+                cache.invalidate(name);
+                return null;
+            }
+        }, new Consumer<Void>() {
+            @Override
+            public void accept(Void result) {
+                Logger.getLogger(RMIClient.class.getName()).log(Level.INFO, "Uploaded {0} ({1}) at {2} MB/s using {3} byte chunks", 
+                        new Object[]{local.getName(), formatSize(uploader.getBytes()), String.format("%.1f", uploader.getThroughput()), UPLOAD_CHUNK_SIZE});
+                
+                // Updates the list model if the user is still in the same directory
+                if (parent.equals(currentDir.getAbsolutePath())) showDirectory(parent);
+            }
+        }, new Consumer<Exception>() {
+            @Override
+            public void accept(Exception ex) {
+                Logger.getLogger(RMIClient.class.getName()).log(Level.SEVERE, null, ex);
+                JOptionPane.showMessageDialog(RMIClient.this, "The file could not be uploaded. Uploading it again will resume the transfer.", "Upload", JOptionPane.ERROR_MESSAGE);
+            }
+        });
+    }
+    
+    /**
+     * Renames a file or directory to a name that isn't taken yet, and 
+     * invalidates the cached listings it affects
+     * 
+     * @param name - absolute path of the file/directory to rename
+     * @param nameNew - new name without the file extension
+     * @param extension - file extension, including the dot, or an empty string
+     * @return new name of the file or directory, or null if it could not be renamed
+     * @throws RemoteException 
+     */
+    private String renameUnique(String name, String nameNew, String extension) throws RemoteException {
+        String renamed = p.renameUnique(name, nameNew, extension);
+        cache.invalidate(name);
+        if (renamed != null) cache.invalidate(new File(name).getParent() + "/" + renamed);
+        return renamed;
+    }
+    
+    /**
+     * Returns the absolute path of an entry of the current directory
+     * 
+     * @param entry - entry of the current directory
+     * @return absolute path of the entry
+     */
+    private String getPath(FileEntry entry) {
+        return currentDir.getAbsolutePath() + "/" + entry.getName();
+    }
+    
     /**
      * Checks if a given file or directory exists in the chosen directory
      * 
@@ -80,17 +646,17 @@ public class RMIClient extends javax.swing.JFrame {
      * @return true if the file or directory exists, false otherwise
      */
     private boolean fileExists(String directory, String file) {
-        File[] contents = null;
+        FileEntry[] contents = new FileEntry[0];
         
         // Reads the directory
         try {
-            contents = p.readDirectory(directory);
+            contents = readEntries(directory);
         } catch (RemoteException ex) {
             Logger.getLogger(RMIClient.class.getName()).log(Level.SEVERE, null, ex);
         }
         
         // For each item in the directory, check if it corresponds to the given file or directory
-        for (File item:contents) {
+        for (FileEntry item:contents) {
             if (item.getName().equals(file)) return true;
         }
         
@@ -100,22 +666,22 @@ public class RMIClient extends javax.swing.JFrame {
     /**
      * Lists the number of directories and files in a given directory
      * 
-     * @param directory - directory to read
+     * @param directory - absolute path of the directory to read
      * @return formatted string with the number of files and directories
      */
-    private String directoryContents(File directory) throws RemoteException {
+    private String directoryContents(String directory) throws RemoteException {
         int directoryCount = 0, fileCount = 0;
         String directories = "directories", files = "files";
-        File[] contents = null;
+        FileEntry[] contents = new FileEntry[0];
         
         try {
-            contents = p.readDirectory(directory.getAbsolutePath());
+            contents = readEntries(directory);
         } catch (RemoteException ex) {
             Logger.getLogger(RMIClient.class.getName()).log(Level.SEVERE, null, ex);
         }
         
-        for (File item:contents) {
-            if (p.isDirectory(item)) {
+        for (FileEntry item:contents) {
+            if (item.isDirectory()) {
                 directoryCount++;
             }
             else {
@@ -131,37 +697,86 @@ public class RMIClient extends javax.swing.JFrame {
     }
     
     /**
-     * Updates the list model
+     * Adds up the total size of a directory tree on the server
      * 
-     * @return list model
+     * @param directory - absolute path of the directory
+     * @return formatted string with the total size and number of files and directories
+     * @throws RemoteException 
      */
-    private DefaultListModel refreshModel() {
-        DefaultListModel model = new DefaultListModel();
+    private String directorySize(String directory) throws RemoteException {
+        DirectorySize size = p.getDirectorySize(directory, -1, SIZE_TIMEOUT);
+        if (size == null) return "Unknown";
         
-        for (File file:files) {
-            model.addElement(file.getName());
-        }
+        // A tree that took too long to read is shown as a lower bound
+        String prefix = size.isComplete() ? "" : "At least ";
+        return prefix + formatSize(size.getBytes()) + " in " + size.getFiles() + (size.getFiles() == 1 ? " file" : " files") 
+                + " and " + size.getDirectories() + (size.getDirectories() == 1 ? " directory" : " directories");
+    }
+    
+    /**
+     * @return the selected file or directory, or null if nothing is selected
+     */
+    private FileEntry getSelectedEntry() {
+        int index = fileList.getSelectedIndex();
+        return index == -1 ? null : fileModel.getEntry(index);
+    }
+    
+    /**
+     * Selects an entry again after the list was reordered
+     *
+     * @param name - name of the entry that was selected, or null if none was
+     */
+    private void restoreSelection(String name) {
+        if (name == null) return;
+        
+        int index = fileModel.indexOf(name);
+        if (index == -1 || index == fileList.getSelectedIndex()) return;
+        
+        fileList.setSelectedIndex(index);
+        fileList.ensureIndexIsVisible(index);
+    }
 
-        return model;
+    /**
+     * Shows the properties of the selected item. The contents of a directory 
+     * are counted in the background and the table is updated when they arrive
+     */
+    private void showProperties() {
+        // Discards the contents of the previously selected directory if they haven't arrived yet
+        if (propertiesTask != null) propertiesTask.cancel(false);
+        propertiesTask = null;
+        
+        // Gets the selected file or directory
+        FileEntry selectedItem = getSelectedEntry();
+        
+        propertiesTable.setModel(refreshProperties(selectedItem, "Loading...", "Loading..."));
+        
+        if (selectedItem != null && selectedItem.isDirectory()) {
+            final FileEntry directory = selectedItem;
+            final String path = getPath(selectedItem);
+            
+            propertiesTask = runRemote(new Callable<String[]>() {
+                @Override
+                public String[] call() throws Exception {
+                    return new String[]{directoryContents(path), directorySize(path)};
+                }
+            }, new Consumer<String[]>() {
+                @Override
+                public void accept(String[] properties) {
+                    propertiesTable.setModel(refreshProperties(directory, properties[0], properties[1]));
+                }
+            });
+        }
     }
     
     /**
      * Updates the properties table
      * 
+     * @param selectedItem - selected file or directory, or null if nothing is selected
+     * @param contents - formatted contents of the selected directory
+     * @param size - formatted total size of the selected directory
      * @return table model
      */
-    private DefaultTableModel refreshProperties() throws RemoteException {
-        // Gets the selected value from the list
-        String selectedValue = fileList.getSelectedValue();
-        
-        // Gets the file corresponding to the selected value
-        File selectedItem = null;
-        for (File file:files)
-        {
-            selectedItem = file;
-            if (file.getName() == null ? selectedValue == null : file.getName().equals(selectedValue)) break;
-        }
-        
+    private DefaultTableModel refreshProperties(FileEntry selectedItem, String contents, String size) {
         // Creates a new table model with two columns
         DefaultTableModel model = new DefaultTableModel();
         model.addColumn("Property");
@@ -170,10 +785,11 @@ public class RMIClient extends javax.swing.JFrame {
         if (selectedItem == null) return model;
         
         // If the selected item is a directory creates rows with directory properties
-        if (p.isDirectory(selectedItem)) {
+        if (selectedItem.isDirectory()) {
             model.addRow(new String[]{"Type", "Directory"});
             model.addRow(new String[]{"Name", selectedItem.getName()});
-            model.addRow(new String[]{"Contents", directoryContents(selectedItem)});
+            model.addRow(new String[]{"Contents", contents});
+            model.addRow(new String[]{"Total size", size});
         }
         
         // If the selected item is a file creates rows with file properties
@@ -189,10 +805,14 @@ public class RMIClient extends javax.swing.JFrame {
                 model.addRow(new String[]{"Name", selectedItem.getName()});
                 model.addRow(new String[]{"File Extension", "Unknown"});
             }
-            model.addRow(new String[]{"Size", formatSize(p.getLength(selectedItem))});
+            model.addRow(new String[]{"Size", formatSize(selectedItem.getLength())});
         }
         
-        model.addRow(new Object[]{"Last modified", getDateString(p.getLastModifiedDate(selectedItem))});
+        model.addRow(new Object[]{"Last modified", getDateString(selectedItem.getLastModified())});
+        
+        if (selectedItem.getPermissions() != null) {
+            model.addRow(new String[]{"Permissions", selectedItem.getPermissions()});
+        }
         
         return model;
     }
@@ -218,6 +838,11 @@ public class RMIClient extends javax.swing.JFrame {
         renameButton = new javax.swing.JButton();
         newFolderButton = new javax.swing.JButton();
         newFileButton = new javax.swing.JButton();
+        downloadButton = new javax.swing.JButton();
+        uploadButton = new javax.swing.JButton();
+        progressBar = new javax.swing.JProgressBar();
+        searchButton = new javax.swing.JButton();
+        sortBox = new javax.swing.JComboBox<>();
 
         setDefaultCloseOperation(javax.swing.WindowConstants.EXIT_ON_CLOSE);
 
@@ -229,8 +854,7 @@ public class RMIClient extends javax.swing.JFrame {
             }
         });
 
-        DefaultListModel listModel = refreshModel();
-        fileList.setModel(listModel);
+        fileList.setModel(fileModel);
         fileList.addListSelectionListener(new javax.swing.event.ListSelectionListener() {
             public void valueChanged(javax.swing.event.ListSelectionEvent evt) {
                 fileListValueChanged(evt);
@@ -264,13 +888,7 @@ public class RMIClient extends javax.swing.JFrame {
         propertiesLabel.setHorizontalAlignment(javax.swing.SwingConstants.CENTER);
         propertiesLabel.setText("Properties ");
 
-        DefaultTableModel tableModel;
-        try {
-            tableModel = refreshProperties();
-            propertiesTable.setModel(tableModel);
-        } catch (RemoteException ex) {
-            Logger.getLogger(RMIClient.class.getName()).log(Level.SEVERE, null, ex);
-        }
+        propertiesTable.setModel(refreshProperties(null, null, null));
         jScrollPane4.setViewportView(propertiesTable);
 
         renameButton.setText("Rename");
@@ -296,6 +914,35 @@ public class RMIClient extends javax.swing.JFrame {
             }
         });
 
+        downloadButton.setText("Download");
+        downloadButton.setEnabled(false);
+        downloadButton.addMouseListener(new java.awt.event.MouseAdapter() {
+            public void mouseClicked(java.awt.event.MouseEvent evt) {
+                downloadButtonMouseClicked(evt);
+            }
+        });
+
+        uploadButton.setText("Upload");
+        uploadButton.addMouseListener(new java.awt.event.MouseAdapter() {
+            public void mouseClicked(java.awt.event.MouseEvent evt) {
+                uploadButtonMouseClicked(evt);
+            }
+        });
+
+        searchButton.setText("Search");
+        searchButton.addMouseListener(new java.awt.event.MouseAdapter() {
+            public void mouseClicked(java.awt.event.MouseEvent evt) {
+                searchButtonMouseClicked(evt);
+            }
+        });
+
+        sortBox.setModel(new javax.swing.DefaultComboBoxModel<>(new String[] { "Unsorted", "Name", "Size", "Date" }));
+        sortBox.addActionListener(new java.awt.event.ActionListener() {
+            public void actionPerformed(java.awt.event.ActionEvent evt) {
+                sortBoxActionPerformed(evt);
+            }
+        });
+
         javax.swing.GroupLayout layout = new javax.swing.GroupLayout(getContentPane());
         getContentPane().setLayout(layout);
         layout.setHorizontalGroup(
@@ -304,6 +951,7 @@ public class RMIClient extends javax.swing.JFrame {
                 .addGap(48, 48, 48)
                 .addGroup(layout.createParallelGroup(javax.swing.GroupLayout.Alignment.TRAILING)
                     .addComponent(titleLabel, javax.swing.GroupLayout.DEFAULT_SIZE, javax.swing.GroupLayout.DEFAULT_SIZE, Short.MAX_VALUE)
+                    .addComponent(progressBar, javax.swing.GroupLayout.DEFAULT_SIZE, javax.swing.GroupLayout.DEFAULT_SIZE, Short.MAX_VALUE)
                     .addGroup(layout.createSequentialGroup()
                         .addGroup(layout.createParallelGroup(javax.swing.GroupLayout.Alignment.LEADING)
                             .addGroup(layout.createSequentialGroup()
@@ -314,6 +962,10 @@ public class RMIClient extends javax.swing.JFrame {
                                 .addComponent(openFolderButton, javax.swing.GroupLayout.PREFERRED_SIZE, 73, javax.swing.GroupLayout.PREFERRED_SIZE)
                                 .addGap(18, 18, 18)
                                 .addComponent(backButton, javax.swing.GroupLayout.PREFERRED_SIZE, 73, javax.swing.GroupLayout.PREFERRED_SIZE)
+                                .addGap(18, 18, 18)
+                                .addComponent(searchButton)
+                                .addGap(18, 18, 18)
+                                .addComponent(sortBox, javax.swing.GroupLayout.PREFERRED_SIZE, javax.swing.GroupLayout.DEFAULT_SIZE, javax.swing.GroupLayout.PREFERRED_SIZE)
                                 .addGap(0, 0, Short.MAX_VALUE))
                             .addComponent(jScrollPane1))
                         .addGroup(layout.createParallelGroup(javax.swing.GroupLayout.Alignment.LEADING)
@@ -324,6 +976,10 @@ public class RMIClient extends javax.swing.JFrame {
                                     .addComponent(propertiesLabel, javax.swing.GroupLayout.DEFAULT_SIZE, javax.swing.GroupLayout.DEFAULT_SIZE, Short.MAX_VALUE)))
                             .addGroup(javax.swing.GroupLayout.Alignment.TRAILING, layout.createSequentialGroup()
                                 .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
+                                .addComponent(uploadButton)
+                                .addGap(18, 18, 18)
+                                .addComponent(downloadButton)
+                                .addGap(18, 18, 18)
                                 .addComponent(renameButton)
                                 .addGap(18, 18, 18)
                                 .addComponent(deleteButton, javax.swing.GroupLayout.PREFERRED_SIZE, 73, javax.swing.GroupLayout.PREFERRED_SIZE)))
@@ -335,7 +991,9 @@ public class RMIClient extends javax.swing.JFrame {
             .addGroup(layout.createSequentialGroup()
                 .addGap(24, 24, 24)
                 .addComponent(titleLabel, javax.swing.GroupLayout.PREFERRED_SIZE, 82, javax.swing.GroupLayout.PREFERRED_SIZE)
-                .addGap(30, 30, 30)
+                .addGap(12, 12, 12)
+                .addComponent(progressBar, javax.swing.GroupLayout.PREFERRED_SIZE, 6, javax.swing.GroupLayout.PREFERRED_SIZE)
+                .addGap(12, 12, 12)
                 .addGroup(layout.createParallelGroup(javax.swing.GroupLayout.Alignment.LEADING)
                     .addGroup(layout.createSequentialGroup()
                         .addComponent(propertiesLabel, javax.swing.GroupLayout.PREFERRED_SIZE, 37, javax.swing.GroupLayout.PREFERRED_SIZE)
@@ -350,7 +1008,11 @@ public class RMIClient extends javax.swing.JFrame {
                         .addComponent(renameButton)
                         .addComponent(newFolderButton)
                         .addComponent(newFileButton, javax.swing.GroupLayout.PREFERRED_SIZE, 32, javax.swing.GroupLayout.PREFERRED_SIZE)
-                        .addComponent(backButton)))
+                        .addComponent(backButton)
+                        .addComponent(downloadButton)
+                        .addComponent(uploadButton)
+                        .addComponent(searchButton)
+                        .addComponent(sortBox, javax.swing.GroupLayout.PREFERRED_SIZE, javax.swing.GroupLayout.DEFAULT_SIZE, javax.swing.GroupLayout.PREFERRED_SIZE)))
                 .addGap(24, 24, 24))
         );
 
@@ -366,32 +1028,11 @@ public class RMIClient extends javax.swing.JFrame {
         // Checks if the button state is set to enabled
         if (!openFolderButton.isEnabled()) return;
         
-        // Gets the selected value from the list
-        String selectedValue = fileList.getSelectedValue();
+        // Gets the selected file or directory
+        FileEntry selectedItem = getSelectedEntry();
         
-        // Gets the file corresponding to the selected value
-        File selectedItem = null;
-        for (File file:files)
-        {
-            selectedItem = file;
-            if (file.getName() == null ? selectedValue == null : file.getName().equals(selectedValue)) break;
-        }
-        
-        try {
-            // Reads the directory contents
-            files = p.readDirectory(selectedItem.getAbsolutePath());
-            
-            // Updates the current directory
-            currentDir = selectedItem;
-            
-            // Updates the list model
-            fileList.setModel(refreshModel());
-            
-            // Enables the back button
-            backButton.setEnabled(true);
-        } catch (RemoteException ex) {
-            Logger.getLogger(RMIClient.class.getName()).log(Level.SEVERE, null, ex);
-        }
+        // Reads the directory contents and updates the list model
+        showDirectory(getPath(selectedItem));
     }//GEN-LAST:event_openFolderButtonMouseClicked
     
     /**
@@ -403,25 +1044,8 @@ public class RMIClient extends javax.swing.JFrame {
         // Checks if the button state is set to enabled
         if (!backButton.isEnabled()) return;
         
-        else {
-            try {
-                // Gets the parent directory's path and reads its contents
-                files = p.readDirectory(currentDir.getParentFile().getAbsolutePath());
-
-                // Updates the current directory
-                currentDir = currentDir.getParentFile();
-
-                // Updates the list model
-                fileList.setModel(refreshModel());
-                
-                // If the the current directory is the default directory the button is disabled
-                if (currentDir.equals(defaultDir)) {
-                    backButton.setEnabled(false);
-        }
-            } catch (RemoteException ex) {
-                Logger.getLogger(RMIClient.class.getName()).log(Level.SEVERE, null, ex);
-            }
-        }
+        // Reads the parent directory's contents and updates the list model
+        showDirectory(currentDir.getParentFile().getAbsolutePath());
     }//GEN-LAST:event_backButtonMouseClicked
     
     /**
@@ -433,82 +1057,76 @@ public class RMIClient extends javax.swing.JFrame {
         // Checks if the button state is set to enabled
         if (!deleteButton.isEnabled()) return;
         
-        // Gets the selected value from the list
-        String selectedValue = fileList.getSelectedValue();
+        // Gets the selected file or directory
+        FileEntry selectedItem = getSelectedEntry();
         
-        // Gets the file corresponding to the selected value
-        File selectedItem = null;
-        for (File file:files)
-        {
-            selectedItem = file;
-            if (file.getName() == null ? selectedValue == null : file.getName().equals(selectedValue)) break;
-        }
+        // Gets the current directory's path
+        final String parent = currentDir.getAbsolutePath();
+        final String path = getPath(selectedItem);
         
-        try {
-            // Gets the current directory's path
-            String parent = currentDir.getAbsolutePath();
-            
-            if (selectedItem.isFile()) {
-                // Deletes the selected file
-                p.deleteFile(selectedItem.getAbsolutePath());
-            }
-            else {
-                // Recursively deletes the selected folder
-                p.deleteDirectory(selectedItem.getAbsolutePath());
-            }
-            
-            // Updates the list model
-            files = p.readDirectory(parent);
-            fileList.setModel(refreshModel());
-        } catch (RemoteException ex) {
-            Logger.getLogger(RMIClient.class.getName()).log(Level.SEVERE, null, ex);
+        if (!selectedItem.isDirectory()) {
+            // Deletes the selected file and updates the list model
+            runRemote(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    deleteFile(path);
+                    return null;
+                }
+            }, new Consumer<Void>() {
+                @Override
+                public void accept(Void result) {
+                    showDirectory(parent);
+                }
+            });
+        }
+        else {
+            // Recursively deletes the selected folder in the background
+            deleteDirectory(path);
         }
     }//GEN-LAST:event_deleteButtonMouseClicked
 
+    /**
+     * Loads more entries when the list is scrolled close to its last loaded entry
+     * 
+     * @param evt 
+     */
+    private void fileListScrolled(java.awt.event.AdjustmentEvent evt) {
+        if (cursor == -1 || evt.getValueIsAdjusting()) return;
+        
+        javax.swing.JScrollBar scrollBar = jScrollPane1.getVerticalScrollBar();
+        
+        // Loads the next page when less than one visible screen is left below the view
+        if (scrollBar.getValue() + 2 * scrollBar.getVisibleAmount() >= scrollBar.getMaximum()) {
+            loadNextPage();
+        }
+    }
+    
     /**
      * Checks if the selected list item has changed
      * 
      * @param evt 
      */
     private void fileListValueChanged(javax.swing.event.ListSelectionEvent evt) {//GEN-FIRST:event_fileListValueChanged
-        // Disables the Open, Rename and Delete buttons if nothing is selected
+        // Disables the Open, Download, Rename and Delete buttons if nothing is selected
         if (fileList.isSelectionEmpty()) {
             openFolderButton.setEnabled(false);
+            downloadButton.setEnabled(false);
             renameButton.setEnabled(false);
             deleteButton.setEnabled(false);
         }
         else {
-            // Gets the selected value from the list
-            String selectedValue = fileList.getSelectedValue();
-
-            // Gets the file corresponding to the selected value
-            File selectedItem = null;
-            for (File file:files)
-            {
-                selectedItem = file;
-                if (file.getName() == null ? selectedValue == null : file.getName().equals(selectedValue)) break;
-            }
+            // Gets the selected file or directory
+            FileEntry selectedItem = getSelectedEntry();
             
             // Cbecks if something is selected
             if (selectedItem != null) {
-                try {
-                    // Updates the properties table
-                    propertiesTable.setModel(refreshProperties());
-                } catch (RemoteException ex) {
-                    Logger.getLogger(RMIClient.class.getName()).log(Level.SEVERE, null, ex);
-                }
+                // Updates the properties table
+                showProperties();
                 
-                try {
-                    // Enables the Open button if the the selected item is a directory and disables it otherwise
-                    if (p.isDirectory(selectedItem)) {
-                        openFolderButton.setEnabled(true);
-                    }
-                    else {
-                        openFolderButton.setEnabled(false);
-                    }
-                } catch (RemoteException ex) {
-                    Logger.getLogger(RMIClient.class.getName()).log(Level.SEVERE, null, ex);
-                }
+                // Enables the Open button if the the selected item is a directory and disables it otherwise
+                // Directories are downloaded as an archive
+                openFolderButton.setEnabled(selectedItem.isDirectory());
+                downloadButton.setEnabled(true);
                 
                 // Enables the Rename and Delete buttons
                 renameButton.setEnabled(true);
@@ -517,6 +1135,145 @@ public class RMIClient extends javax.swing.JFrame {
         }
     }//GEN-LAST:event_fileListValueChanged
 
+    /**
+     * Downloads the selected file to a local file chosen by the user, or the 
+     * selected directory to a local archive
+     * 
+     * @param evt 
+     */
+    private void downloadButtonMouseClicked(java.awt.event.MouseEvent evt) {//GEN-FIRST:event_downloadButtonMouseClicked
+        // Checks if the button state is set to enabled
+        if (!downloadButton.isEnabled()) return;
+        
+        // Gets the selected file or directory
+        FileEntry selectedItem = getSelectedEntry();
+        if (selectedItem.isDirectory()) {
+            downloadArchive(selectedItem);
+            return;
+        }
+        
+        // Asks the user where to save the file
+        JFileChooser chooser = new JFileChooser();
+        chooser.setSelectedFile(new File(selectedItem.getName()));
+        if (chooser.showSaveDialog(this) != JFileChooser.APPROVE_OPTION) return;
+        
+        File local = chooser.getSelectedFile();
+        
+        // An interrupted download into the same file resumes on its own, and only replaces the file once it's complete
+        if (local.exists() && !FileDownloader.isPartial(local)) {
+            int option = JOptionPane.showConfirmDialog(this, "The file already exists. Replace it?", "Download", JOptionPane.YES_NO_OPTION);
+            if (option != JOptionPane.YES_OPTION) return;
+        }
+        
+        final String name = selectedItem.getName();
+        final String path = getPath(selectedItem);
+        final File target = local;
+        final FileDownloader downloader = new FileDownloader(p, CHUNK_SIZE, DOWNLOAD_PARALLELISM);
+        
+        runRemote(executor, new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                downloader.download(path, target);
+                return null;
+            }
+        }, new Consumer<Void>() {
+            @Override
+            public void accept(Void result) {
+                Logger.getLogger(RMIClient.class.getName()).log(Level.INFO, "Downloaded {0} ({1}) at {2} MB/s using {3} byte chunks over up to {4} connections", 
+                        new Object[]{name, formatSize(downloader.getBytes()), String.format("%.1f", downloader.getThroughput()), CHUNK_SIZE, downloader.getParallelism()});
+            }
+        }, new Consumer<Exception>() {
+            @Override
+            public void accept(Exception ex) {
+                Logger.getLogger(RMIClient.class.getName()).log(Level.SEVERE, null, ex);
+                JOptionPane.showMessageDialog(RMIClient.this, "The file could not be downloaded.", "Download", JOptionPane.ERROR_MESSAGE);
+            }
+        });
+    }//GEN-LAST:event_downloadButtonMouseClicked
+    
+    /**
+     * Downloads a directory tree as a ZIP or tar archive, picked by the extension 
+     * of the local file chosen by the user
+     * 
+     * @param directory - directory to download
+     */
+    private void downloadArchive(FileEntry directory) {
+        JFileChooser chooser = new JFileChooser();
+        chooser.setSelectedFile(new File(directory.getName() + ".zip"));
+        if (chooser.showSaveDialog(this) != JFileChooser.APPROVE_OPTION) return;
+        
+        final File target = chooser.getSelectedFile();
+        if (target.exists()) {
+            int option = JOptionPane.showConfirmDialog(this, "The file already exists. Replace it?", "Download", JOptionPane.YES_NO_OPTION);
+            if (option != JOptionPane.YES_OPTION) return;
+        }
+        
+        final String name = directory.getName();
+        final String path = getPath(directory);
+        final ArchiveDownloader downloader = new ArchiveDownloader(p, CHUNK_SIZE);
+        
+        runRemote(executor, new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                downloader.download(path, target);
+                return null;
+            }
+        }, new Consumer<Void>() {
+            @Override
+            public void accept(Void result) {
+                Logger.getLogger(RMIClient.class.getName()).log(Level.INFO, "Downloaded {0} as {1} ({2}) at {3} MB/s", 
+                        new Object[]{name, target.getName(), formatSize(downloader.getBytes()), String.format("%.1f", downloader.getThroughput())});
+            }
+        }, new Consumer<Exception>() {
+            @Override
+            public void accept(Exception ex) {
+                Logger.getLogger(RMIClient.class.getName()).log(Level.SEVERE, null, ex);
+                JOptionPane.showMessageDialog(RMIClient.this, "The folder could not be downloaded.", "Download", JOptionPane.ERROR_MESSAGE);
+            }
+        });
+    }
+
+    /**
+     * Uploads a local file chosen by the user to the current directory
+     * 
+     * @param evt 
+     */
+    private void uploadButtonMouseClicked(java.awt.event.MouseEvent evt) {//GEN-FIRST:event_uploadButtonMouseClicked
+        // Checks if the button state is set to enabled
+        if (!uploadButton.isEnabled()) return;
+        
+        // Asks the user which file to upload
+        JFileChooser chooser = new JFileChooser();
+        if (chooser.showOpenDialog(this) != JFileChooser.APPROVE_OPTION) return;
+        
+        final File local = chooser.getSelectedFile();
+        
+        // Gets the current directory's path
+        final String parent = currentDir.getAbsolutePath();
+        
+        // Checks for an existing remote file before asking the user anything
+        runRemote(new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                return fileExists(parent, local.getName());
+            }
+        }, new Consumer<Boolean>() {
+            @Override
+            public void accept(Boolean exists) {
+                // An existing remote file is only replaced if the user confirms it
+                if (exists) {
+                    int option = JOptionPane.showConfirmDialog(RMIClient.this, 
+                        "A file with the same name already exists. Replace it?", 
+                        "Upload", 
+                        JOptionPane.YES_NO_OPTION);
+                    if (option != JOptionPane.YES_OPTION) return;
+                }
+                
+                upload(local, parent);
+            }
+        });
+    }//GEN-LAST:event_uploadButtonMouseClicked
+
     /**
      * Renames the selected file or directory 
      * 
@@ -526,53 +1283,38 @@ public class RMIClient extends javax.swing.JFrame {
         // Checks if the button state is set to enabled
         if (!renameButton.isEnabled()) return;
 
-        // Gets the selected value from the list
-        String selectedValue = fileList.getSelectedValue();
+        // Gets the selected file or directory
+        FileEntry selectedItem = getSelectedEntry();
         
-        // Gets the file corresponding to the selected value
-        File selectedItem = null;
-        for (File file:files)
-        {
-            selectedItem = file;
-            if (file.getName() == null ? selectedValue == null : file.getName().equals(selectedValue)) break;
+        // Gets the current directory's path
+        final String parent = currentDir.getAbsolutePath();
+        final String path = getPath(selectedItem);
+        String fileExtension = "";
+        
+        // Checks if the selected file has a valid extension
+        if (selectedItem.getName().contains(".") && selectedItem.getName().indexOf(".") != 0) {
+            fileExtension = selectedItem.getName().substring(selectedItem.getName().indexOf("."));
         }
         
-        try {
-            // Gets the current directory's path
-            String parent = currentDir.getAbsolutePath();
-            String fileExtension = "";
-            
-            int copyNumber = 1;
-            
-            // Checks if the selected file has a valid extension
-            if (selectedItem.getName().contains(".") && selectedItem.getName().indexOf(".") != 0) {
-                fileExtension = selectedItem.getName().substring(selectedItem.getName().indexOf("."));
-            }
-            
-            // Asks the user to input the new file name
-            String name = JOptionPane.showInputDialog("Enter the new name:");
-            
-            // Checks if the new name is valid
-            if (name != null && !"".equals(name)) {
-                // Renames the file or directory
-                String renamed = parent + "/" + name + fileExtension;
-                
-                if (!fileExists(parent, name + fileExtension)) p.rename(selectedItem.getAbsolutePath(), renamed);
-                 else {
-                    while (fileExists(parent, name + " (" + copyNumber + ")" + fileExtension)) {
-                        copyNumber++;
-                    }
-                    
-                    renamed = parent + "/" + name + " (" + copyNumber + ")" + fileExtension;
-                    p.rename(selectedItem.getAbsolutePath(), renamed);
+        // Asks the user to input the new file name
+        final String name = JOptionPane.showInputDialog("Enter the new name:");
+        final String extension = fileExtension;
+        
+        // Checks if the new name is valid
+        if (name != null && !"".equals(name)) {
+            // Renames the file or directory, as a copy if the name is already taken, and updates the list model
+            runRemote(new Callable<String>() {
+                @Override
+                public String call() throws Exception {
+                    return renameUnique(path, name, extension);
                 }
-                
-                // Updates the list model
-                files = p.readDirectory(parent);
-                fileList.setModel(refreshModel());
-            }
-        } catch (RemoteException ex) {
-            Logger.getLogger(RMIClient.class.getName()).log(Level.SEVERE, null, ex);
+            }, new Consumer<String>() {
+                @Override
+                public void accept(String renamed) {
+                    pendingSelection = renamed;
+                    showDirectory(parent);
+                }
+            });
         }
     }//GEN-LAST:event_renameButtonMouseClicked
 
@@ -585,69 +1327,54 @@ public class RMIClient extends javax.swing.JFrame {
         // Checks if the button state is set to enabled
         if (!newFileButton.isEnabled()) return;
         
-        try {
-            // Gets the current directory's path
-            String parent = currentDir.getAbsolutePath();
+        // Gets the current directory's path
+        final String parent = currentDir.getAbsolutePath();
+        
+        // Two-dimensional array with file types and corresponding file extensions
+        String[][] fileExtensions = {{"Microsoft Word Document (.docx)", "Microsoft Excel Spreadsheet (.xlsx)", "Microsoft Powerpoint Presentation (.pptx)", "Text Document (.txt)", "Compressed Archive (.zip)"}, 
+                                {".docx", ".xlsx", ".pptx", ".txt", ".zip"}};
+         
+        // Gets the file type
+        String fileType = (String) JOptionPane.showInputDialog(new JFrame(), 
+            "What type of file would you like to create?",
+            "File Type",
+            JOptionPane.QUESTION_MESSAGE, 
+            null, 
+            fileExtensions[0], 
+            fileExtensions[0][0]);
+        
+        // Checks if the user selected a file type
+        if (fileType != null) {
+            int typeIndex = 0;
+            for (String type:fileExtensions[0]) {
+                if (type.equals(fileType)) break;
+                typeIndex++;
+            }
             
-            int copyNumber = 1;
+            final String fileExt = fileExtensions[1][typeIndex];
             
-            // Two-dimensional array with file types and corresponding file extensions
-            String[][] fileExtensions = {{"Microsoft Word Document (.docx)", "Microsoft Excel Spreadsheet (.xlsx)", "Microsoft Powerpoint Presentation (.pptx)", "Text Document (.txt)", "Compressed Archive (.zip)"}, 
-                                    {".docx", ".xlsx", ".pptx", ".txt", ".zip"}};
-             
-            // Gets the file type
-            String fileType = (String) JOptionPane.showInputDialog(new JFrame(), 
-                "What type of file would you like to create?",
-                "File Type",
-                JOptionPane.QUESTION_MESSAGE, 
-                null, 
-                fileExtensions[0], 
-                fileExtensions[0][0]);
+            // Asks the user to input the file name
+            String fileName = JOptionPane.showInputDialog("File name:");
             
-            // Checks if the user selected a file type
-            if (fileType != null) {
-                int typeIndex = 0;
-                for (String type:fileExtensions[0]) {
-                    if (type.equals(fileType)) break;
-                    typeIndex++;
-                }
-                
-                String fileExt = fileExtensions[1][typeIndex];
-                
-                // Asks the user to input the file name
-                String fileName = JOptionPane.showInputDialog("File name:");
+            // Checks if the file name is valid
+            if (fileName != null) {
+                final String name = !"".equals(fileName) ? fileName : "New File";
                 
-                // Checks if the file name is valid
-                if (fileName != null) {
-                    if (!"".equals(fileName)) {
-                        // If a file with the same name already exists, the new file is created as a copy
-                        if (!fileExists(parent, fileName + fileExt)) p.createFile(parent + "/" + fileName + fileExt);
-                        else {
-                           while (fileExists(parent, fileName + " (" + copyNumber + ")" + fileExt)) {
-                               copyNumber++;
-                           }
-
-                           p.createFile(parent + "/" + fileName + " (" + copyNumber + ")" + fileExt);
-                        }
+                // If a file with the same name already exists, the new file is created as a copy
+                runRemote(new Callable<String>() {
+                    @Override
+                    public String call() throws Exception {
+                        return createUnique(parent, name, fileExt, false);
                     }
-                    else {
-                        if (!fileExists(parent, "New File" + fileExt)) p.createFile(parent + "/" + "New File" + fileExt);
-                        else {
-                           while (fileExists(parent, "New File" + " (" + copyNumber + ")" + fileExt)) {
-                               copyNumber++;
-                           }
-
-                           p.createFile(parent + "/" + "New File" + " (" + copyNumber + ")" + fileExt);
-                        }
+                }, new Consumer<String>() {
+                    @Override
+                    public void accept(String created) {
+                        // Update the list model, selecting the new file
+                        pendingSelection = created;
+                        showDirectory(parent);
                     }
-                    
-                    // Update the list model
-                    files = p.readDirectory(parent);
-                    fileList.setModel(refreshModel());
-                }
+                });
             }
-        } catch (RemoteException ex) {
-            Logger.getLogger(RMIClient.class.getName()).log(Level.SEVERE, null, ex);
         }
     }//GEN-LAST:event_newFileButtonMouseClicked
 
@@ -660,49 +1387,106 @@ public class RMIClient extends javax.swing.JFrame {
         // Checks if the button state is set to enabled
         if (!newFolderButton.isEnabled()) return;
         
-        try {
-            // Gets the current directory's path
-            String parent = currentDir.getAbsolutePath();
-            
-            int copyNumber = 1;
-            
-            // Asks the user to input the folder name
-            String folderName = JOptionPane.showInputDialog("Folder name:");
+        // Gets the current directory's path
+        final String parent = currentDir.getAbsolutePath();
+        
+        // Asks the user to input the folder name
+        String folderName = JOptionPane.showInputDialog("Folder name:");
+        
+        // Checks if the name is valid
+        if (folderName != null) {
+            // Creates the folder with the chosen name, or a default name if none was given
+            final String name = !"".equals(folderName) ? folderName : "New Folder";
             
-            // Checks if the name is valid
-            if (folderName != null) {
-                if (!"".equals(folderName)) {
-                    // Creates the folder with the chosen name
-                    // If a folder with the same name already exists, the new folder is created as a copy
-                     if (!fileExists(parent, folderName)) p.createDirectory(parent + "/" + folderName);
-                     else {
-                        while (fileExists(parent, folderName + " (" + copyNumber + ")")) {
-                            copyNumber++;
-                        }
-
-                        p.createDirectory(parent + "/" + folderName + " (" + copyNumber + ")");
-                    }
+            // If a folder with the same name already exists, the new folder is created as a copy
+            runRemote(new Callable<String>() {
+                @Override
+                public String call() throws Exception {
+                    return createUnique(parent, name, "", true);
                 }
-                else {
-                    // Creates the folder with a default name
-                    if (!fileExists(parent, "New Folder")) p.createDirectory(parent + "/" + "New Folder");
-                    else {
-                        while (fileExists(parent, "New Folder (" + copyNumber + ")")) {
-                            copyNumber++;
-                        }
+            }, new Consumer<String>() {
+                @Override
+                public void accept(String created) {
+                    // Updates the list model, selecting the new folder
+                    pendingSelection = created;
+                    showDirectory(parent);
+                }
+            });
+        }
+    }//GEN-LAST:event_newFolderButtonMouseClicked
 
-                        p.createDirectory(parent + "/" + "New Folder (" + copyNumber + ")");
-                    }
+    /**
+     * Searches the current directory and everything below it by name, and 
+     * opens the directory of the match the user chooses
+     * 
+     * @param evt 
+     */
+    private void searchButtonMouseClicked(java.awt.event.MouseEvent evt) {//GEN-FIRST:event_searchButtonMouseClicked
+        // Checks if the button state is set to enabled
+        if (!searchButton.isEnabled()) return;
+        
+        // Asks the user what to look for
+        final String pattern = JOptionPane.showInputDialog(this, 
+            "Search for names containing, or use glob:*.txt or regex:...", 
+            "Search", 
+            JOptionPane.QUESTION_MESSAGE);
+        if (pattern == null || "".equals(pattern)) return;
+        
+        final String parent = currentDir.getAbsolutePath();
+        final boolean[] complete = new boolean[1];
+        
+        runRemote(new Callable<String[]>() {
+            @Override
+            public String[] call() throws Exception {
+                complete[0] = p.isSearchComplete(parent);
+                return p.searchFiles(parent, pattern, 0, SEARCH_RESULTS);
+            }
+        }, new Consumer<String[]>() {
+            @Override
+            public void accept(String[] results) {
+                if (results == null) {
+                    JOptionPane.showMessageDialog(RMIClient.this, "The search pattern is not valid.", "Search", JOptionPane.ERROR_MESSAGE);
+                    return;
+                }
+                
+                // The server is still indexing, or can't watch part of the tree
+                String warning = complete[0] ? "" : "Recent changes may be missing, the server's index of this directory is not up to date.\n";
+                
+                if (results.length == 0) {
+                    JOptionPane.showMessageDialog(RMIClient.this, warning + "No matches found.", "Search", JOptionPane.INFORMATION_MESSAGE);
+                    return;
+                }
+                
+                // Shows the matches relative to the directory that was searched
+                String[] matches = new String[results.length];
+                for (int i = 0; i < results.length; i++) {
+                    matches[i] = results[i].substring(parent.length() + 1);
                 }
                 
-            // Updates the list model
-            files = p.readDirectory(parent);
-            fileList.setModel(refreshModel());
+                String message = warning + (results.length < SEARCH_RESULTS ? results.length + " matches:" : "First " + results.length + " matches:");
+                String match = (String) JOptionPane.showInputDialog(RMIClient.this, 
+                    message, 
+                    "Search", 
+                    JOptionPane.PLAIN_MESSAGE, 
+                    null, 
+                    matches, 
+                    matches[0]);
+                if (match == null) return;
+                
+                // Opens the directory of the chosen match and selects it
+                File chosen = new File(parent, match);
+                pendingSelection = chosen.getName();
+                showDirectory(chosen.getParentFile().getAbsolutePath());
             }
-        } catch (RemoteException ex) {
-            Logger.getLogger(RMIClient.class.getName()).log(Level.SEVERE, null, ex);
-        }
-    }//GEN-LAST:event_newFolderButtonMouseClicked
+        });
+    }//GEN-LAST:event_searchButtonMouseClicked
+
+    private void sortBoxActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_sortBoxActionPerformed
+        // Sorts the loaded entries here, the server is only asked for the pages still to come
+        String selected = fileList.getSelectedValue();
+        fileModel.sort(FileListModel.Order.values()[sortBox.getSelectedIndex()]);
+        restoreSelection(selected);
+    }//GEN-LAST:event_sortBoxActionPerformed
 
     /**
      * @param args the command line arguments
@@ -754,19 +1538,54 @@ public class RMIClient extends javax.swing.JFrame {
         });
     }
 
+    /**
+     * Callback the server uses to push changes to the directory being viewed
+     */
+    private class ChangeListener implements DirectoryListener {
+        
+        @Override
+        public void directoryChanged(final String directoryName, final DirectoryChange[] changes) throws RemoteException {
+            // Called on an RMI thread, so the changes are applied on the event dispatch thread
+            java.awt.EventQueue.invokeLater(new Runnable() {
+                @Override
+                public void run() {
+                    applyChanges(directoryName, changes);
+                }
+            });
+        }
+    }
+
+    /**
+     * First page of a directory and the cursor to read the rest of it
+     */
+    private static class Page {
+        final FileEntry[] entries;
+        final long cursor;
+
+        Page(FileEntry[] entries, long cursor) {
+            this.entries = entries;
+            this.cursor = cursor;
+        }
+    }
+
     // Variables declaration - do not modify//GEN-BEGIN:variables
     private javax.swing.JButton backButton;
     private javax.swing.JButton deleteButton;
+    private javax.swing.JButton downloadButton;
     private javax.swing.JList<String> fileList;
     private javax.swing.JScrollPane jScrollPane1;
     private javax.swing.JScrollPane jScrollPane4;
     private javax.swing.JButton newFileButton;
     private javax.swing.JButton newFolderButton;
     private javax.swing.JButton openFolderButton;
+    private javax.swing.JProgressBar progressBar;
     private javax.swing.JLabel propertiesLabel;
     private javax.swing.JTable propertiesTable;
     private javax.swing.JButton renameButton;
+    private javax.swing.JButton searchButton;
+    private javax.swing.JComboBox<String> sortBox;
     private javax.swing.JLabel titleLabel;
+    private javax.swing.JButton uploadButton;
     // End of variables declaration//GEN-END:variables
   
 }
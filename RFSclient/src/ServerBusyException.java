@@ -0,0 +1,22 @@
+import java.rmi.RemoteException;
+
+/**
+ * Thrown when the server turns a call away because too many calls are
+ * already waiting. The call was not run, so it can be safely retried later.
+ * Clients receive it as the cause of a java.rmi.ServerException
+ *
+ * @author Bernardo Lopes - a32040
+ * @author Tiago Padrão - a33061
+ */
+public class ServerBusyException extends RemoteException {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Creates a new exception
+     *
+     * @param message - reason the call was turned away
+     */
+    public ServerBusyException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,100 @@
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.rmi.registry.LocateRegistry;
+import java.rmi.registry.Registry;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.Random;
+
+/**
+ * Measures the throughput of chunked downloads from a server running in the same JVM
+ *
+ * Usage: DownloadBenchmark [file size in MiB] [registry port]
+ *
+ * @author Bernardo Lopes - a32040
+ * @author Tiago Padrão - a33061
+ */
+public class DownloadBenchmark {
+    private static final int[] CHUNK_SIZES = {1 << 20, 2 << 20, 4 << 20, 8 << 20};
+    private static final int RUNS = 3;
+
+    /**
+     * @param args the command line arguments
+     * @throws Exception
+     */
+    public static void main(String[] args) throws Exception {
+        long size = (args.length > 0 ? Long.parseLong(args[0]) : 256) << 20;
+        int port = args.length > 1 ? Integer.parseInt(args[1]) : 10990;
+
+        // Starts the server behind a loopback registry
+        RemoteProtocol server = new RemoteProtocol();
+        Registry registry = LocateRegistry.createRegistry(port);
+        registry.rebind("myProtocol", UnicastRemoteObject.exportObject(server, 0));
+        Protocol p = (Protocol) LocateRegistry.getRegistry("localhost", port).lookup("myProtocol");
+
+        Path file = createFile(size);
+        try {
+            System.out.printf("File size: %d MiB%n", size >> 20);
+
+            for (int chunkSize:CHUNK_SIZES) {
+                // The first run warms up the JIT and the page cache
+                download(p, file.toString(), chunkSize);
+
+                double total = 0;
+                for (int run = 0; run < RUNS; run++) {
+                    total += download(p, file.toString(), chunkSize);
+                }
+
+                System.out.printf("Chunk %d MiB: %.1f MB/s%n", chunkSize >> 20, total / RUNS);
+            }
+        }
+        finally {
+            Files.delete(file);
+        }
+
+        System.exit(0);
+    }
+
+    /**
+     * Reads a whole file through the protocol
+     *
+     * @param p - remote protocol
+     * @param name - absolute path of the file
+     * @param chunkSize - number of bytes requested per call
+     * @return throughput in MB/s
+     * @throws Exception
+     */
+    private static double download(Protocol p, String name, int chunkSize) throws Exception {
+        long start = System.nanoTime();
+        long offset = 0;
+        FileChunk chunk;
+
+        do {
+            chunk = p.readFile(name, offset, chunkSize);
+            offset += chunk.getLength();
+        } while (!chunk.isLast() && chunk.getLength() > 0);
+
+        return offset / 1e6 / ((System.nanoTime() - start) / 1e9);
+    }
+
+    /**
+     * Creates a temporary file filled with random bytes
+     *
+     * @param size - size of the file in bytes
+     * @return path of the file
+     * @throws Exception
+     */
+    private static Path createFile(long size) throws Exception {
+        Path file = Files.createTempFile("rfs-bench", ".bin");
+        byte[] block = new byte[1 << 20];
+        new Random(42).nextBytes(block);
+
+        try (OutputStream out = Files.newOutputStream(file)) {
+            for (long written = 0; written < size; written += block.length) {
+                out.write(block, 0, (int) Math.min(block.length, size - written));
+            }
+        }
+
+        return file;
+    }
+}
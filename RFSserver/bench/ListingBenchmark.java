@@ -0,0 +1,113 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Compares the size and marshalling time of the directory listing formats
+ *
+ * Lists a generated directory as the File[] returned by readDirectory, as a
+ * plain serialized FileEntry[] and as the compact DirectoryListing, and
+ * reports the bytes each takes on the wire and the time to marshal and
+ * unmarshal it with the object streams RMI uses.
+ *
+ * Usage: ListingBenchmark [entries,entries,...]
+ *
+ * @author Bernardo Lopes - a32040
+ * @author Tiago Padrão - a33061
+ */
+public class ListingBenchmark {
+    private static final int RUNS = 50;
+
+    /**
+     * @param args the command line arguments
+     * @throws Exception
+     */
+    public static void main(String[] args) throws Exception {
+        String[] sizes = (args.length > 0 ? args[0] : "100,1000,10000").split(",");
+        RemoteProtocol server = new RemoteProtocol();
+
+        System.out.printf("%-18s %9s %12s %10s %12s %12s%n", "Format", "Entries", "Bytes", "B/entry", "Marshal us", "Unmarshal us");
+
+        for (String size:sizes) {
+            int entries = Integer.parseInt(size.trim());
+
+            // A realistically deep parent path, which File[] repeats for every entry
+            Path root = Files.createTempDirectory("rfs-bench");
+            Path directory = Files.createDirectories(root.resolve("projects/remote-file-system/shared/documents"));
+            for (int i = 0; i < entries; i++) {
+                Files.createFile(directory.resolve("report-" + i + ".txt"));
+            }
+
+            File[] files = server.readDirectory(directory.toString());
+            DirectoryListing listing = server.readDirectoryEntries(directory.toString(), true);
+
+            measure("File[]", entries, files);
+            measure("FileEntry[]", entries, listing.getEntries());
+            measure("DirectoryListing", entries, listing);
+
+            server.deleteDirectory(root.toString());
+        }
+
+        System.exit(0);
+    }
+
+    /**
+     * Marshals and unmarshals an object repeatedly and prints its statistics
+     *
+     * @param format - name of the format
+     * @param entries - number of entries in the listing
+     * @param listing - listing to marshal
+     * @throws Exception
+     */
+    private static void measure(String format, int entries, Object listing) throws Exception {
+        byte[] bytes = marshal(listing);
+
+        // The first runs warm up the JIT
+        for (int run = 0; run < RUNS; run++) {
+            unmarshal(marshal(listing));
+        }
+
+        long start = System.nanoTime();
+        for (int run = 0; run < RUNS; run++) {
+            marshal(listing);
+        }
+        long marshalTime = (System.nanoTime() - start) / RUNS;
+
+        start = System.nanoTime();
+        for (int run = 0; run < RUNS; run++) {
+            unmarshal(bytes);
+        }
+        long unmarshalTime = (System.nanoTime() - start) / RUNS;
+
+        System.out.printf("%-18s %9d %12d %10.1f %12.1f %12.1f%n", format, entries, bytes.length,
+                (double) bytes.length / Math.max(1, entries), marshalTime / 1e3, unmarshalTime / 1e3);
+    }
+
+    /**
+     * @param object - object to marshal
+     * @return serialized bytes of the object
+     * @throws Exception
+     */
+    private static byte[] marshal(Object object) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(object);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * @param bytes - serialized bytes
+     * @return the unmarshalled object
+     * @throws Exception
+     */
+    private static Object unmarshal(byte[] bytes) throws Exception {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+            return in.readObject();
+        }
+    }
+}
@@ -0,0 +1,260 @@
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.rmi.registry.LocateRegistry;
+import java.rmi.registry.Registry;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.Arrays;
+
+/**
+ * Measures the latency of the main protocol calls on generated directory trees,
+ * either through a loopback RMI registry or calling the server directly
+ *
+ * Each tree has its entries spread over directories of up to 1000 files. For
+ * every call the benchmark reports the throughput, the median and 99th
+ * percentile latency and the bytes allocated per call by all the threads of
+ * the JVM, which includes the RMI threads on both sides of a loopback call.
+ *
+ * Usage: ProtocolBenchmark [entries,entries,...] [rmi|direct|both] [registry port]
+ *
+ * Trees of a million entries need a few GB of free disk and some patience
+ * to generate: ProtocolBenchmark 1000,100000,1000000
+ *
+ * @author Bernardo Lopes - a32040
+ * @author Tiago Padrão - a33061
+ */
+public class ProtocolBenchmark {
+    private static final int FILES_PER_DIRECTORY = 1000;
+    private static final int MAX_SAMPLES = 10000;
+    private static final int WARMUP = 1000;
+
+    /**
+     * @param args the command line arguments
+     * @throws Exception
+     */
+    public static void main(String[] args) throws Exception {
+        String[] sizes = (args.length > 0 ? args[0] : "1000,100000").split(",");
+        String mode = args.length > 1 ? args[1] : "both";
+        int port = args.length > 2 ? Integer.parseInt(args[2]) : 10990;
+
+        RemoteProtocol server = new RemoteProtocol();
+        Protocol remote = null;
+
+        if (!mode.equals("direct")) {
+            // Starts the server behind a loopback registry
+            Registry registry = LocateRegistry.createRegistry(port);
+            registry.rebind("myProtocol", UnicastRemoteObject.exportObject(server, 0));
+            remote = (Protocol) LocateRegistry.getRegistry("localhost", port).lookup("myProtocol");
+        }
+
+        System.out.printf("%-22s %-7s %9s %12s %10s %10s %12s%n", "Call", "Mode", "Entries", "Ops/s", "p50 us", "p99 us", "Alloc B/op");
+
+        for (String size:sizes) {
+            int entries = Integer.parseInt(size.trim());
+
+            if (!mode.equals("rmi")) run(server, "direct", entries);
+            if (remote != null) run(remote, "rmi", entries);
+        }
+
+        System.exit(0);
+    }
+
+    /**
+     * Generates a tree and measures every call on it
+     *
+     * @param p - protocol to call
+     * @param mode - name of the way the protocol is called
+     * @param entries - number of files in the tree
+     * @throws Exception
+     */
+    private static void run(Protocol p, String mode, int entries) throws Exception {
+        Path root = Files.createTempDirectory("rfs-bench");
+        String[] directories = createTree(root, entries);
+        String[] files = sampleFiles(directories, Math.min(entries, MAX_SAMPLES));
+
+        // Reading whole directories
+        new Measurement("readDirectory", mode, entries) {
+            @Override
+            void call(int i) throws Exception {
+                p.readDirectory(directories[i % directories.length]);
+            }
+        }.run(Math.min(directories.length * 10, MAX_SAMPLES / 10), true);
+
+        new Measurement("readDirectoryEntries", mode, entries) {
+            @Override
+            void call(int i) throws Exception {
+                p.readDirectoryEntries(directories[i % directories.length], true);
+            }
+        }.run(Math.min(directories.length * 10, MAX_SAMPLES / 10), true);
+
+        // The per-file metadata calls the client used to make for every entry
+        final File[] sampled = new File[files.length];
+        for (int i = 0; i < files.length; i++) {
+            sampled[i] = new File(files[i]);
+        }
+
+        new Measurement("isDirectory", mode, entries) {
+            @Override
+            void call(int i) throws Exception {
+                p.isDirectory(sampled[i]);
+            }
+        }.run(sampled.length, true);
+
+        new Measurement("getLength", mode, entries) {
+            @Override
+            void call(int i) throws Exception {
+                p.getLength(sampled[i]);
+            }
+        }.run(sampled.length, true);
+
+        new Measurement("getLastModifiedDate", mode, entries) {
+            @Override
+            void call(int i) throws Exception {
+                p.getLastModifiedDate(sampled[i]);
+            }
+        }.run(sampled.length, true);
+
+        // Writes, each on files of its own
+        final String created = root + "/created";
+        Files.createDirectory(root.resolve("created"));
+
+        new Measurement("createFile", mode, entries) {
+            @Override
+            void call(int i) throws Exception {
+                p.createFile(created + "/new" + i);
+            }
+        }.run(files.length, false);
+
+        new Measurement("rename", mode, entries) {
+            @Override
+            void call(int i) throws Exception {
+                p.rename(created + "/new" + i, created + "/renamed" + i);
+            }
+        }.run(files.length, false);
+
+        // Deleting the whole tree is a single call, reported per deleted entry
+        long allocated = allocatedBytes();
+        long start = System.nanoTime();
+        JobStatus status = p.deleteDirectory(root.toString());
+        long elapsed = System.nanoTime() - start;
+        allocated = allocatedBytes() - allocated;
+
+        long deleted = Math.max(1, status.getCompleted());
+        System.out.printf("%-22s %-7s %9d %12.0f %10.1f %10s %12d%n", "deleteDirectory/entry", mode, entries,
+                deleted / (elapsed / 1e9), elapsed / 1e3 / deleted, "-", allocated / deleted);
+    }
+
+    /**
+     * Creates a tree with the given number of empty files
+     *
+     * @param root - root of the tree
+     * @param entries - number of files
+     * @return absolute paths of the directories holding the files
+     * @throws Exception
+     */
+    private static String[] createTree(Path root, int entries) throws Exception {
+        int count = Math.max(1, (entries + FILES_PER_DIRECTORY - 1) / FILES_PER_DIRECTORY);
+        String[] directories = new String[count];
+
+        for (int d = 0; d < count; d++) {
+            Path directory = Files.createDirectory(root.resolve("d" + d));
+            directories[d] = directory.toString();
+
+            int files = Math.min(FILES_PER_DIRECTORY, entries - d * FILES_PER_DIRECTORY);
+            for (int f = 0; f < files; f++) {
+                Files.createFile(directory.resolve("f" + f));
+            }
+        }
+
+        return directories;
+    }
+
+    /**
+     * Picks files spread evenly over the tree
+     *
+     * @param directories - directories holding the files
+     * @param count - number of files to pick
+     * @return absolute paths of the files
+     */
+    private static String[] sampleFiles(String[] directories, int count) {
+        String[] files = new String[count];
+
+        for (int i = 0; i < count; i++) {
+            files[i] = directories[i % directories.length] + "/f" + (i / directories.length % FILES_PER_DIRECTORY);
+        }
+
+        return files;
+    }
+
+    /**
+     * @return bytes allocated so far by all live threads, or 0 if the JVM can't tell
+     */
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (!(threads instanceof com.sun.management.ThreadMXBean)) return 0;
+
+        com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threads;
+        long total = 0;
+        for (long allocated:allocations.getThreadAllocatedBytes(threads.getAllThreadIds())) {
+            if (allocated > 0) total += allocated;
+        }
+
+        return total;
+    }
+
+    /**
+     * Latencies of a single call, measured one call at a time
+     */
+    private abstract static class Measurement {
+        private final String name;
+        private final String mode;
+        private final int entries;
+
+        Measurement(String name, String mode, int entries) {
+            this.name = name;
+            this.mode = mode;
+            this.entries = entries;
+        }
+
+        /**
+         * Makes the call being measured
+         *
+         * @param i - number of the call
+         * @throws Exception
+         */
+        abstract void call(int i) throws Exception;
+
+        /**
+         * Makes the call a number of times and prints its statistics
+         *
+         * @param count - number of calls to measure
+         * @param warmup - true if the call can be repeated to warm up the JIT first
+         * @throws Exception
+         */
+        void run(int count, boolean warmup) throws Exception {
+            if (warmup) {
+                for (int i = 0; i < WARMUP; i++) {
+                    call(i % count);
+                }
+            }
+
+            long[] latencies = new long[count];
+            long allocated = allocatedBytes();
+            long start = System.nanoTime();
+
+            for (int i = 0; i < count; i++) {
+                long before = System.nanoTime();
+                call(i);
+                latencies[i] = System.nanoTime() - before;
+            }
+
+            long elapsed = System.nanoTime() - start;
+            allocated = allocatedBytes() - allocated;
+            Arrays.sort(latencies);
+
+            System.out.printf("%-22s %-7s %9d %12.0f %10.1f %10.1f %12d%n", name, mode, entries,
+                    count / (elapsed / 1e9), latencies[count / 2] / 1e3, latencies[(int) (count * 0.99)] / 1e3, allocated / count);
+        }
+    }
+}
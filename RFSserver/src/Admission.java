@@ -0,0 +1,106 @@
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.rmi.server.RemoteServer;
+import java.rmi.server.ServerNotActiveException;
+import java.util.Set;
+
+/**
+ * Decides when the calls made to a remote interface run
+ *
+ * RMI runs every call on its own connection thread as soon as it arrives,
+ * so the object is wrapped in a proxy that makes each call wait for its
+ * turn first. Heavy calls, that read whole directories or trees or move
+ * file data, wait in a queue of their own, so they can't hold up the cheap
+ * metadata calls. Both queues are fair between clients and turn calls away
+ * with a ServerBusyException when they overflow.
+ *
+ * @author Bernardo Lopes - a32040
+ * @author Tiago Padrão - a33061
+ */
+class Admission {
+    private final Class<?> type;
+    private final FairQueue metadata;
+    private final FairQueue heavy;
+    private final Set<String> heavyMethods;
+
+    /**
+     * Creates a new admission policy
+     *
+     * @param type - interface whose calls are admitted
+     * @param metadata - queue of the cheap calls
+     * @param heavy - queue of the heavy calls
+     * @param heavyMethods - names of the methods that are heavy
+     */
+    Admission(Class<?> type, FairQueue metadata, FairQueue heavy, Set<String> heavyMethods) {
+        this.type = type;
+        this.metadata = metadata;
+        this.heavy = heavy;
+        this.heavyMethods = heavyMethods;
+    }
+
+    /**
+     * Wraps an object so every call made to it waits for its turn
+     *
+     * @param <T> - type of the interface
+     * @param target - object to wrap
+     * @return proxy implementing the interface that forwards calls to the object
+     */
+    @SuppressWarnings("unchecked")
+    <T> T guard(T target) {
+        InvocationHandler handler = (proxy, method, args) -> invoke(target, method, args);
+        return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, handler);
+    }
+
+    /**
+     * Runs a call once the queue of its kind admits it
+     *
+     * @param target - wrapped object
+     * @param method - method called
+     * @param args - arguments of the call
+     * @return result of the call
+     * @throws Throwable whatever the method threw, or ServerBusyException if the call was turned away
+     */
+    private Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        if (method.getDeclaringClass() == Object.class) return invokeTarget(target, method, args);
+
+        FairQueue queue = heavyMethods.contains(method.getName()) ? heavy : metadata;
+        queue.acquire(clientOf());
+
+        try {
+            return invokeTarget(target, method, args);
+        }
+        finally {
+            queue.release();
+        }
+    }
+
+    /**
+     * @param target - object to call
+     * @param method - method to call
+     * @param args - arguments of the call
+     * @return result of the call
+     * @throws Throwable whatever the method threw, unwrapped
+     */
+    private static Object invokeTarget(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        }
+        catch(InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * @return host of the client making the current call, or "local" if it isn't a remote call
+     */
+    static String clientOf() {
+        try {
+            return RemoteServer.getClientHost();
+        }
+        catch(ServerNotActiveException e) {
+            return "local";
+        }
+    }
+}
@@ -0,0 +1,505 @@
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NotDirectoryException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Directory trees being archived while clients download them, a chunk at a time
+ *
+ * Each archive is made by a pipeline of three stages joined by bounded
+ * queues. One thread walks the tree and reads the files, another writes
+ * what was read into the archive, compressing it, and the client's calls
+ * take the archive's bytes as they come out. A stage that gets ahead of the
+ * next waits for it, so no more than a few blocks of the archive are ever
+ * held in memory, and nothing is written to disk. Archives that stay unread
+ * for longer than their lease are discarded.
+ *
+ * @author Bernardo Lopes - a32040
+ * @author Tiago Padrão - a33061
+ */
+class Archives {
+    // Bytes of a file read at a time, and of the archive queued at a time
+    private static final int BLOCK_SIZE = 256 << 10;
+    // Entries the walk may get ahead of the archive, within its limit of bytes
+    private static final int MAX_ITEMS = 4096;
+    // Milliseconds a read waits for the first bytes, after which it returns none
+    private static final long MAX_WAIT = 1000;
+
+    private final Map<Long, Archive> archives = new ConcurrentHashMap<>();
+    private final AtomicLong nextId = new AtomicLong();
+    private final long lease;
+    private final int level;
+    private final int maxBlocks;
+
+    private final ExecutorService threads = Executors.newCachedThreadPool(r -> {
+        Thread thread = new Thread(r, "archive-worker");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Creates a new set of archives
+     *
+     * @param lease - milliseconds an archive may stay unread before it's discarded
+     * @param level - compression level, from 0 to 9
+     * @param maxBlocks - number of blocks each stage may get ahead of the next
+     */
+    Archives(long lease, int level, int maxBlocks) {
+        this.lease = lease;
+        this.level = level;
+        this.maxBlocks = Math.max(1, maxBlocks);
+
+        ScheduledExecutorService reaper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "archive-reaper");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        long period = Math.max(lease / 2, 1);
+        reaper.scheduleWithFixedDelay(this::expire, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Starts archiving a directory tree in the background
+     *
+     * @param directory - root of the tree, which is the top directory of the archive
+     * @param format - format of the archive
+     * @return id of the archive
+     * @throws IOException
+     */
+    long open(Path directory, ArchiveFormat format) throws IOException {
+        if (!Files.isDirectory(directory, LinkOption.NOFOLLOW_LINKS)) throw new NotDirectoryException(directory.toString());
+
+        long id = nextId.incrementAndGet();
+        Archive archive = new Archive(directory.toAbsolutePath().normalize(), format);
+        archive.start();
+        archives.put(id, archive);
+        return id;
+    }
+
+    /**
+     * Returns the next bytes of an archive, waiting for them if they aren't ready
+     *
+     * @param id - id of the archive
+     * @param offset - position of the bytes in the archive, which must follow the last chunk
+     * returned, or be the same as it to have it again
+     * @param maxLength - maximum number of bytes returned
+     * @return the bytes, or null if the archive doesn't exist, failed or the offset is wrong
+     * @throws InterruptedIOException
+     */
+    FileChunk read(long id, long offset, int maxLength) throws InterruptedIOException {
+        Archive archive = archives.get(id);
+        if (archive == null) return null;
+
+        archive.lastAccess = System.currentTimeMillis();
+        try {
+            return archive.read(offset, Math.max(1, maxLength));
+        }
+        catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+    }
+
+    /**
+     * Stops archiving and discards what wasn't read
+     *
+     * @param id - id of the archive
+     */
+    void close(long id) {
+        Archive archive = archives.remove(id);
+        if (archive != null) archive.stop();
+    }
+
+    /**
+     * Discards the archives that were not read within their lease
+     */
+    private void expire() {
+        long now = System.currentTimeMillis();
+        for (Map.Entry<Long, Archive> entry:archives.entrySet()) {
+            if (now - entry.getValue().lastAccess > lease) close(entry.getKey());
+        }
+    }
+
+    /**
+     * Something found in the tree, or a block of the contents of the last file found
+     */
+    private static class Item {
+        // Marks the end of the tree
+        static final Item END = new Item(null, (char) 0, 0, 0, 0, null, null);
+
+        final String name;
+        final char type;
+        final long size;
+        final int mode;
+        final long lastModified;
+        final String linkName;
+        final byte[] data;
+
+        Item(String name, char type, long size, int mode, long lastModified, String linkName, byte[] data) {
+            this.name = name;
+            this.type = type;
+            this.size = size;
+            this.mode = mode;
+            this.lastModified = lastModified;
+            this.linkName = linkName;
+            this.data = data;
+        }
+    }
+
+    /**
+     * A tree being archived
+     */
+    private class Archive {
+        // Marks the end of the archive
+        private final byte[] end = new byte[0];
+
+        private final Path root;
+        private final Path base;
+        private final ArchiveFormat format;
+        private final BlockingQueue<Item> items = new LinkedBlockingQueue<>(MAX_ITEMS);
+        private final Semaphore itemBytes = new Semaphore(maxBlocks * BLOCK_SIZE);
+        private final BlockingQueue<byte[]> blocks = new ArrayBlockingQueue<>(maxBlocks);
+        private volatile Future<?> reader;
+        private volatile Future<?> writer;
+        private volatile boolean failed;
+        volatile long lastAccess = System.currentTimeMillis();
+
+        // What the client has read, guarded by this archive
+        private byte[] block;
+        private int blockOffset;
+        private boolean finished;
+        private long position;
+        private byte[] scratch;
+        private byte[] lastData;
+        private long lastOffset = -1;
+        private long lastArchiveLength;
+
+        Archive(Path root, ArchiveFormat format) {
+            this.root = root;
+            this.base = root.getParent() == null ? root : root.getParent();
+            this.format = format;
+        }
+
+        void start() {
+            reader = threads.submit(this::walk);
+            writer = threads.submit(this::write);
+        }
+
+        void stop() {
+            if (reader != null) reader.cancel(true);
+            if (writer != null) writer.cancel(true);
+        }
+
+        /**
+         * Walks the tree, queueing each entry and the contents of each file
+         */
+        private void walk() {
+            try {
+                Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+                    @Override
+                    public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                        put(new Item(nameOf(dir) + "/", TarOutputStream.DIRECTORY, 0, modeOf(dir, 0755), attrs.lastModifiedTime().toMillis(), null, null));
+                        return FileVisitResult.CONTINUE;
+                    }
+
+                    @Override
+                    public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                        if (Uploads.isTemporary(file)) {
+                            return FileVisitResult.CONTINUE;
+                        }
+                        else if (attrs.isSymbolicLink()) {
+                            String target = Files.readSymbolicLink(file).toString();
+                            put(new Item(nameOf(file), TarOutputStream.SYMBOLIC_LINK, 0, 0777, attrs.lastModifiedTime().toMillis(), target, null));
+                        }
+                        else if (attrs.isRegularFile()) {
+                            readFile(file, attrs);
+                        }
+                        return FileVisitResult.CONTINUE;
+                    }
+
+                    @Override
+                    public FileVisitResult visitFileFailed(Path file, IOException e) throws IOException {
+                        if (e instanceof InterruptedIOException) throw e;
+
+                        // Unreadable entries are left out rather than ending the archive
+                        Logger.getLogger(Archives.class.getName()).log(Level.WARNING, null, e);
+                        return FileVisitResult.CONTINUE;
+                    }
+                });
+                put(Item.END);
+            }
+            catch(InterruptedIOException | ClosedByInterruptException e) {
+                // Stopped
+            }
+            catch(IOException | RuntimeException e) {
+                Logger.getLogger(Archives.class.getName()).log(Level.SEVERE, null, e);
+                fail();
+            }
+        }
+
+        /**
+         * Queues a file and its contents, a block at a time
+         *
+         * The file is archived with the length it had when it was found, cut
+         * or padded with zeros if it changes while it's read.
+         */
+        private void readFile(Path file, BasicFileAttributes attrs) throws IOException {
+            FileChannel channel;
+            try {
+                channel = FileChannel.open(file, StandardOpenOption.READ);
+            }
+            catch(IOException e) {
+                Logger.getLogger(Archives.class.getName()).log(Level.WARNING, null, e);
+                return;
+            }
+
+            try {
+                long size = attrs.size();
+                String name = nameOf(file);
+                int mode = modeOf(file, 0644);
+                long lastModified = attrs.lastModifiedTime().toMillis();
+
+                long position = 0;
+                do {
+                    byte[] data = new byte[(int) Math.min(BLOCK_SIZE, size - position)];
+                    ByteBuffer buffer = ByteBuffer.wrap(data);
+                    while (buffer.hasRemaining()) {
+                        if (channel.read(buffer, position + buffer.position()) < 0) break;
+                    }
+
+                    // The first block comes with the entry
+                    put(position == 0 ? new Item(name, TarOutputStream.FILE, size, mode, lastModified, null, data)
+                            : new Item(null, TarOutputStream.FILE, 0, 0, 0, null, data));
+                    position += data.length;
+                } while (position < size);
+            }
+            finally {
+                channel.close();
+            }
+        }
+
+        private String nameOf(Path path) {
+            return base.relativize(path).toString().replace(path.getFileSystem().getSeparator(), "/");
+        }
+
+        /**
+         * @return permission bits of a file, or the given ones if they aren't available
+         */
+        private int modeOf(Path path, int otherwise) {
+            if (format == ArchiveFormat.ZIP) return otherwise;
+
+            try {
+                Set<PosixFilePermission> permissions = Files.getPosixFilePermissions(path, LinkOption.NOFOLLOW_LINKS);
+                int mode = 0;
+                for (PosixFilePermission permission:permissions) {
+                    mode |= 0400 >> permission.ordinal();
+                }
+                return mode;
+            }
+            catch(IOException | UnsupportedOperationException e) {
+                return otherwise;
+            }
+        }
+
+        private void put(Item item) throws InterruptedIOException {
+            try {
+                if (item.data != null) itemBytes.acquire(item.data.length);
+                items.put(item);
+            }
+            catch(InterruptedException e) {
+                throw new InterruptedIOException();
+            }
+        }
+
+        /**
+         * Writes the queued entries into the archive
+         */
+        private void write() {
+            try {
+                OutputStream out = open(new Pipe());
+
+                for (Item item = items.take(); item != Item.END; item = items.take()) {
+                    if (item.name != null) begin(out, item);
+                    if (item.data != null) {
+                        out.write(item.data);
+                        itemBytes.release(item.data.length);
+                    }
+                }
+
+                // Only closed when complete, since closing writes more of the archive
+                out.close();
+            }
+            catch(InterruptedIOException e) {
+                // Stopped
+            }
+            catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            catch(IOException | RuntimeException e) {
+                Logger.getLogger(Archives.class.getName()).log(Level.SEVERE, null, e);
+                fail();
+            }
+        }
+
+        /**
+         * @return stream writing the archive's format to the given stream
+         */
+        private OutputStream open(OutputStream out) throws IOException {
+            switch (format) {
+                case ZIP:
+                    ZipOutputStream zip = new ZipOutputStream(out);
+                    zip.setLevel(level);
+                    return zip;
+                case TAR_GZIP:
+                    return new TarOutputStream(new GZIPOutputStream(out, BLOCK_SIZE) {
+                        {
+                            def.setLevel(level);
+                        }
+                    });
+                default:
+                    return new TarOutputStream(out);
+            }
+        }
+
+        /**
+         * Starts a new entry of the archive
+         */
+        private void begin(OutputStream out, Item item) throws IOException {
+            if (out instanceof TarOutputStream) {
+                ((TarOutputStream) out).putEntry(item.name, item.type, item.size, item.mode, item.lastModified, item.linkName);
+            }
+            else if (item.type != TarOutputStream.SYMBOLIC_LINK) {
+                // ZIP has no portable way to store symbolic links, so they're left out
+                ZipEntry entry = new ZipEntry(item.name);
+                entry.setTime(item.lastModified);
+                ((ZipOutputStream) out).putNextEntry(entry);
+            }
+        }
+
+        /**
+         * Ends the archive early, so the client's next read fails
+         */
+        private void fail() {
+            failed = true;
+            stop();
+            blocks.clear();
+            blocks.offer(end);
+        }
+
+        /**
+         * Returns the bytes that follow the last chunk read, or the last chunk again
+         */
+        synchronized FileChunk read(long offset, int maxLength) throws InterruptedException {
+            if (offset == lastOffset && offset < position) return new FileChunk(lastOffset, lastArchiveLength, ByteBuffer.wrap(lastData), null);
+            if (offset != position || failed) return null;
+
+            if (scratch == null || scratch.length < maxLength) scratch = new byte[maxLength];
+            byte[] data = scratch;
+            int length = 0;
+
+            // Waits for the first bytes, then takes whatever else is already there
+            while (length < maxLength && !finished) {
+                if (block == null || blockOffset == block.length) {
+                    block = length == 0 ? blocks.poll(MAX_WAIT, TimeUnit.MILLISECONDS) : blocks.poll();
+                    blockOffset = 0;
+                    if (block == null) break;
+                    if (block == end) {
+                        finished = true;
+                        break;
+                    }
+                }
+
+                int n = Math.min(maxLength - length, block.length - blockOffset);
+                System.arraycopy(block, blockOffset, data, length, n);
+                blockOffset += n;
+                length += n;
+            }
+            if (failed) return null;
+
+            // The archive's length is only known once it has all been read
+            lastData = Arrays.copyOf(data, length);
+            lastOffset = position;
+            lastArchiveLength = finished ? position + length : Long.MAX_VALUE;
+            position += length;
+            return new FileChunk(lastOffset, lastArchiveLength, ByteBuffer.wrap(lastData), null);
+        }
+
+        /**
+         * Hands the archive to the client in blocks, waiting while the client is behind
+         */
+        private class Pipe extends OutputStream {
+            private byte[] buffer = new byte[BLOCK_SIZE];
+            private int count;
+
+            @Override
+            public void write(int b) throws IOException {
+                if (count == buffer.length) send();
+                buffer[count++] = (byte) b;
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                while (len > 0) {
+                    if (count == buffer.length) send();
+                    int n = Math.min(len, buffer.length - count);
+                    System.arraycopy(b, off, buffer, count, n);
+                    count += n;
+                    off += n;
+                    len -= n;
+                }
+            }
+
+            @Override
+            public void close() throws IOException {
+                if (count > 0) put(Arrays.copyOf(buffer, count));
+                put(end);
+            }
+
+            private void send() throws IOException {
+                put(buffer);
+                buffer = new byte[BLOCK_SIZE];
+                count = 0;
+            }
+
+            private void put(byte[] block) throws InterruptedIOException {
+                try {
+                    blocks.put(block);
+                }
+                catch(InterruptedException e) {
+                    throw new InterruptedIOException();
+                }
+            }
+        }
+    }
+}
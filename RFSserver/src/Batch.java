@@ -0,0 +1,170 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * Runs the operations of a batch, in parallel where it's safe to
+ *
+ * Two operations conflict when a path of one is the same as, or inside, a
+ * path of the other. Each operation waits for the earlier ones it conflicts
+ * with, so the batch has the same effect as running it in order, while
+ * operations on unrelated paths run at the same time. An operation still
+ * runs if one it waited for failed, and reports its own outcome.
+ *
+ * @author Bernardo Lopes - a32040
+ * @author Tiago Padrão - a33061
+ */
+class Batch {
+    private final BatchOperation[] operations;
+    private final Path[][] paths;
+
+    // Last operation on each path, and the operations inside each path since the last one on it
+    private final Map<Path, Integer> lastOn = new HashMap<>();
+    private final Map<Path, List<Integer>> pendingInside = new HashMap<>();
+
+    /**
+     * Creates a new batch
+     *
+     * @param operations - operations in the order they were sent
+     */
+    Batch(BatchOperation[] operations) {
+        this.operations = operations;
+        this.paths = new Path[operations.length][];
+    }
+
+    /**
+     * Runs every operation and waits for them to finish
+     *
+     * @param executor - executor the operations run on
+     * @return outcome of each operation, in the same order
+     */
+    BatchResult[] execute(Executor executor) {
+        List<CompletableFuture<BatchResult>> results = new ArrayList<>(operations.length);
+
+        for (int i = 0; i < operations.length; i++) {
+            final BatchOperation operation = operations[i];
+
+            // Operations sent with missing fields are rejected like invalid paths
+            if (operation == null || operation.getKind() == null || operation.getPath() == null
+                    || (operation.getKind() == BatchOperation.Kind.RENAME && operation.getTarget() == null)) {
+                results.add(CompletableFuture.completedFuture(new BatchResult(false, "Invalid path")));
+                continue;
+            }
+
+            try {
+                paths[i] = pathsOf(operation);
+            }
+            catch(InvalidPathException e) {
+                results.add(CompletableFuture.completedFuture(new BatchResult(false, "Invalid path")));
+                continue;
+            }
+
+            List<Integer> dependencies = dependenciesOf(i);
+            CompletableFuture<?>[] waitFor = new CompletableFuture<?>[dependencies.size()];
+            for (int d = 0; d < waitFor.length; d++) {
+                waitFor[d] = results.get(dependencies.get(d));
+            }
+
+            results.add(CompletableFuture.allOf(waitFor).thenApplyAsync(ignored -> run(operation), executor));
+        }
+
+        BatchResult[] outcomes = new BatchResult[operations.length];
+        for (int i = 0; i < outcomes.length; i++) {
+            outcomes[i] = results.get(i).join();
+        }
+
+        return outcomes;
+    }
+
+    /**
+     * @param operation - operation of the batch
+     * @return normalized absolute paths the operation touches
+     */
+    private static Path[] pathsOf(BatchOperation operation) {
+        Path path = Paths.get(operation.getPath()).toAbsolutePath().normalize();
+        if (operation.getKind() != BatchOperation.Kind.RENAME) return new Path[]{path};
+
+        return new Path[]{path, Paths.get(operation.getTarget()).toAbsolutePath().normalize()};
+    }
+
+    /**
+     * Finds the earlier operations an operation must wait for and records its paths
+     *
+     * Operations on the same path, and on a path and the ones inside it,
+     * already wait for each other in turn, so only the last operation on
+     * each path needs to be waited for
+     *
+     * @param index - index of the operation
+     * @return indexes of the operations to wait for
+     */
+    private List<Integer> dependenciesOf(int index) {
+        List<Integer> dependencies = new ArrayList<>();
+
+        for (Path path:paths[index]) {
+            // Earlier operations on the path, on a directory it's in and on anything inside it
+            Integer last = lastOn.put(path, index);
+            if (last != null && last != index) dependencies.add(last);
+
+            for (Path parent = path.getParent(); parent != null; parent = parent.getParent()) {
+                Integer onParent = lastOn.get(parent);
+                if (onParent != null && onParent != index) dependencies.add(onParent);
+                pendingInside.computeIfAbsent(parent, key -> new ArrayList<>()).add(index);
+            }
+
+            List<Integer> inside = pendingInside.remove(path);
+            if (inside != null) {
+                for (Integer operation:inside) {
+                    if (operation != index) dependencies.add(operation);
+                }
+            }
+        }
+
+        return dependencies;
+    }
+
+    /**
+     * Runs a single operation
+     *
+     * @param operation - operation to run
+     * @return outcome of the operation
+     */
+    private static BatchResult run(BatchOperation operation) {
+        try {
+            Path path = Paths.get(operation.getPath());
+
+            switch (operation.getKind()) {
+                case CREATE_FILE:
+                    Files.createFile(path);
+                    break;
+                case CREATE_DIRECTORY:
+                    Files.createDirectory(path);
+                    break;
+                case RENAME:
+                    Files.move(path, Paths.get(operation.getTarget()));
+                    break;
+                case DELETE_FILE:
+                    Files.delete(path);
+                    break;
+                case DELETE_DIRECTORY:
+                    Job job = new Job();
+                    new DeleteTask(path, job).invoke();
+                    long failed = job.getStatus().getFailed();
+                    if (failed > 0) return new BatchResult(false, failed + " entries could not be deleted");
+                    break;
+            }
+
+            return new BatchResult(true, null);
+        }
+        catch(IOException | SecurityException | InvalidPathException e) {
+            return new BatchResult(false, e.toString());
+        }
+    }
+}
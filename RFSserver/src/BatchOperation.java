@@ -0,0 +1,106 @@
+import java.io.Serializable;
+
+/**
+ * A single operation of a batch sent with executeBatch
+ *
+ * @author Bernardo Lopes - a32040
+ * @author Tiago Padrão - a33061
+ */
+public class BatchOperation implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Types of operation
+     */
+    public enum Kind {
+        /** Creates an empty file */
+        CREATE_FILE,
+        /** Creates a directory */
+        CREATE_DIRECTORY,
+        /** Renames or moves a file or directory */
+        RENAME,
+        /** Deletes a file or empty directory */
+        DELETE_FILE,
+        /** Deletes a directory and everything in it */
+        DELETE_DIRECTORY
+    }
+
+    private final Kind kind;
+    private final String path;
+    private final String target;
+
+    /**
+     * Creates a new operation
+     *
+     * @param kind - type of operation
+     * @param path - absolute path the operation applies to
+     * @param target - absolute path the file is renamed to, or null
+     */
+    private BatchOperation(Kind kind, String path, String target) {
+        this.kind = kind;
+        this.path = path;
+        this.target = target;
+    }
+
+    /**
+     * @param name - absolute path of the new file
+     * @return operation creating the file
+     */
+    public static BatchOperation createFile(String name) {
+        return new BatchOperation(Kind.CREATE_FILE, name, null);
+    }
+
+    /**
+     * @param directoryName - absolute path of the new directory
+     * @return operation creating the directory
+     */
+    public static BatchOperation createDirectory(String directoryName) {
+        return new BatchOperation(Kind.CREATE_DIRECTORY, directoryName, null);
+    }
+
+    /**
+     * @param name - absolute path of the file or directory to rename
+     * @param nameNew - new absolute path, which must not exist yet
+     * @return operation renaming the file or directory
+     */
+    public static BatchOperation rename(String name, String nameNew) {
+        return new BatchOperation(Kind.RENAME, name, nameNew);
+    }
+
+    /**
+     * @param name - absolute path of the file to delete
+     * @return operation deleting the file
+     */
+    public static BatchOperation deleteFile(String name) {
+        return new BatchOperation(Kind.DELETE_FILE, name, null);
+    }
+
+    /**
+     * @param name - absolute path of the directory to delete
+     * @return operation deleting the directory and everything in it
+     */
+    public static BatchOperation deleteDirectory(String name) {
+        return new BatchOperation(Kind.DELETE_DIRECTORY, name, null);
+    }
+
+    /**
+     * @return type of operation
+     */
+    public Kind getKind() {
+        return kind;
+    }
+
+    /**
+     * @return absolute path the operation applies to
+     */
+    public String getPath() {
+        return path;
+    }
+
+    /**
+     * @return absolute path the file is renamed to, or null if it's not a rename
+     */
+    public String getTarget() {
+        return target;
+    }
+}
@@ -0,0 +1,39 @@
+import java.io.Serializable;
+
+/**
+ * Outcome of a single operation of a batch
+ *
+ * @author Bernardo Lopes - a32040
+ * @author Tiago Padrão - a33061
+ */
+public class BatchResult implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final boolean succeeded;
+    private final String error;
+
+    /**
+     * Creates a new result
+     *
+     * @param succeeded - true if the operation succeeded
+     * @param error - why the operation failed, or null if it succeeded
+     */
+    BatchResult(boolean succeeded, String error) {
+        this.succeeded = succeeded;
+        this.error = error;
+    }
+
+    /**
+     * @return true if the operation succeeded
+     */
+    public boolean isSucceeded() {
+        return succeeded;
+    }
+
+    /**
+     * @return why the operation failed, or null if it succeeded
+     */
+    public String getError() {
+        return error;
+    }
+}
@@ -0,0 +1,55 @@
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * A bounded pool of equally sized heap buffers, reused across file transfers
+ * so each chunk doesn't allocate a new array
+ *
+ * @author Bernardo Lopes - a32040
+ * @author Tiago Padrão - a33061
+ */
+class BufferPool {
+    private final int bufferSize;
+    private final BlockingQueue<ByteBuffer> buffers;
+
+    /**
+     * Creates a new pool
+     *
+     * @param bufferSize - capacity of each buffer in bytes
+     * @param maxBuffers - maximum number of idle buffers kept for reuse
+     */
+    BufferPool(int bufferSize, int maxBuffers) {
+        this.bufferSize = bufferSize;
+        this.buffers = new ArrayBlockingQueue<>(maxBuffers);
+    }
+
+    /**
+     * @return capacity of each buffer in bytes
+     */
+    int getBufferSize() {
+        return bufferSize;
+    }
+
+    /**
+     * Takes a buffer from the pool, or allocates one if the pool is empty
+     *
+     * @return a cleared buffer
+     */
+    ByteBuffer acquire() {
+        ByteBuffer buffer = buffers.poll();
+        if (buffer == null) return ByteBuffer.allocate(bufferSize);
+
+        buffer.clear();
+        return buffer;
+    }
+
+    /**
+     * Returns a buffer to the pool. Buffers that don't fit are left to the garbage collector
+     *
+     * @param buffer - buffer to return
+     */
+    void release(ByteBuffer buffer) {
+        if (buffer.capacity() == bufferSize) buffers.offer(buffer);
+    }
+}
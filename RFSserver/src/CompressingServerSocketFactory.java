@@ -0,0 +1,55 @@
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.rmi.server.RMIServerSocketFactory;
+
+/**
+ * Creates the server sockets that accept compressed connections
+ *
+ * @author Bernardo Lopes - a32040
+ * @author Tiago Padrão - a33061
+ */
+class CompressingServerSocketFactory implements RMIServerSocketFactory {
+    private final int level;
+    private final int threshold;
+
+    /**
+     * Creates a new factory
+     *
+     * @param level - highest Deflater level the server replies with, from 0 (no compression) to 9
+     * @param threshold - smallest frame, in bytes, that is deflated
+     */
+    CompressingServerSocketFactory(int level, int threshold) {
+        this.level = level;
+        this.threshold = threshold;
+    }
+
+    @Override
+    public ServerSocket createServerSocket(int port) throws IOException {
+        return new ServerSocket(port) {
+            @Override
+            public Socket accept() throws IOException {
+                if (isClosed()) throw new SocketException("Socket is closed");
+
+                Socket socket = new CompressingSocket(level, threshold);
+                implAccept(socket);
+                return socket;
+            }
+        };
+    }
+
+    // RMI shares a port between objects exported with equal factories
+
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof CompressingServerSocketFactory)) return false;
+        CompressingServerSocketFactory other = (CompressingServerSocketFactory) obj;
+        return level == other.level && threshold == other.threshold;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * level + threshold;
+    }
+}
@@ -0,0 +1,144 @@
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Copies a file or a directory tree, copying its subdirectories in parallel
+ *
+ * Each directory is a task that creates its copy, copies its own files and
+ * forks a task for each subdirectory. Regular files are copied by the
+ * kernel, from one channel to the other, without passing through the
+ * server's memory, a slice at a time so the job's byte count shows its
+ * progress and a cancelled job stops in the middle of a large file.
+ * Symbolic links are copied as links, never followed.
+ *
+ * @author Bernardo Lopes - a32040
+ * @author Tiago Padrão - a33061
+ */
+class CopyTask extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+    private static final long SLICE = 64 << 20;
+
+    private final Path source;
+    private final Path target;
+    private final Job job;
+
+    /**
+     * Creates a new task
+     *
+     * @param source - file or directory to copy
+     * @param target - path of the copy, which must not exist
+     * @param job - job counting the copied and failed entries and the bytes copied
+     */
+    CopyTask(Path source, Path target, Job job) {
+        this.source = source;
+        this.target = target;
+        this.job = job;
+    }
+
+    @Override
+    protected void compute() {
+        if (job.isCancelled()) return;
+
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(source, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+            if (!attributes.isDirectory()) {
+                if (copyFile(attributes)) job.completed.incrementAndGet();
+                return;
+            }
+
+            Files.createDirectory(target);
+        }
+        catch(IOException | SecurityException e) {
+            job.failed.incrementAndGet();
+            return;
+        }
+
+        List<CopyTask> subtasks = new ArrayList<>();
+
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(source)) {
+            for (Path path:stream) {
+                if (job.isCancelled()) break;
+
+                CopyTask subtask = new CopyTask(path, target.resolve(path.getFileName()), job);
+                if (Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+                    subtask.fork();
+                    subtasks.add(subtask);
+                }
+                else {
+                    subtask.compute();
+                }
+            }
+        }
+        catch(IOException | DirectoryIteratorException | SecurityException e) {
+            job.failed.incrementAndGet();
+        }
+
+        for (CopyTask subtask:subtasks) {
+            subtask.join();
+        }
+
+        // The directory's date is set last, since copying into it changes it
+        try {
+            Files.setLastModifiedTime(target, attributes.lastModifiedTime());
+            job.completed.incrementAndGet();
+        }
+        catch(IOException | SecurityException e) {
+            job.failed.incrementAndGet();
+        }
+    }
+
+    /**
+     * Copies a single file, or a link or special file as it is
+     *
+     * @param attributes - attributes of the source
+     * @return false if the job was cancelled before the file was copied
+     * @throws IOException
+     */
+    private boolean copyFile(BasicFileAttributes attributes) throws IOException {
+        if (!attributes.isRegularFile()) {
+            Files.copy(source, target, LinkOption.NOFOLLOW_LINKS, StandardCopyOption.COPY_ATTRIBUTES);
+            return true;
+        }
+
+        long position = 0;
+        long size;
+
+        try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+                FileChannel out = FileChannel.open(target, StandardOpenOption.WRITE, StandardOpenOption.CREATE_NEW)) {
+            size = in.size();
+
+            while (position < size) {
+                if (job.isCancelled()) break;
+
+                long n = in.transferTo(position, Math.min(SLICE, size - position), out);
+                if (n <= 0) break;
+
+                position += n;
+                job.bytes.addAndGet(n);
+            }
+        }
+
+        // A file cut short isn't left behind, and unless the job was cancelled the copy failed
+        if (position < size) {
+            Files.deleteIfExists(target);
+            if (job.isCancelled()) return false;
+            throw new EOFException("Copied " + position + " of " + size + " bytes of " + source + ", it shrank during the copy");
+        }
+
+        Files.setLastModifiedTime(target, attributes.lastModifiedTime());
+        return true;
+    }
+}
@@ -0,0 +1,87 @@
+import java.io.IOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Deletes a directory tree, deleting its subdirectories in parallel
+ *
+ * Each directory is a task that deletes its own files, forks a task for
+ * each subdirectory and deletes itself once they are done. Symbolic links
+ * are deleted, never followed.
+ *
+ * @author Bernardo Lopes - a32040
+ * @author Tiago Padrão - a33061
+ */
+class DeleteTask extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    private final Path directory;
+    private final Job job;
+
+    /**
+     * Creates a new task
+     *
+     * @param directory - directory to delete
+     * @param job - job counting the deleted and failed entries
+     */
+    DeleteTask(Path directory, Job job) {
+        this.directory = directory;
+        this.job = job;
+    }
+
+    @Override
+    protected void compute() {
+        if (job.isCancelled()) return;
+
+        List<DeleteTask> subtasks = new ArrayList<>();
+
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+            for (Path path:stream) {
+                if (job.isCancelled()) break;
+
+                if (Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+                    DeleteTask subtask = new DeleteTask(path, job);
+                    subtask.fork();
+                    subtasks.add(subtask);
+                }
+                else {
+                    delete(path);
+                }
+            }
+        }
+        catch(IOException | DirectoryIteratorException | SecurityException e) {
+            job.failed.incrementAndGet();
+        }
+
+        for (DeleteTask subtask:subtasks) {
+            subtask.join();
+        }
+
+        if (!job.isCancelled()) delete(directory);
+    }
+
+    /**
+     * Deletes a single file or empty directory, counting the result
+     *
+     * @param path - path to delete
+     */
+    private void delete(Path path) {
+        try {
+            Files.delete(path);
+            job.completed.incrementAndGet();
+        }
+        catch(NoSuchFileException e) {
+            // Already deleted by someone else
+        }
+        catch(IOException | SecurityException e) {
+            job.failed.incrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,63 @@
+import java.io.Serializable;
+
+/**
+ * A single change to the contents of a watched directory
+ *
+ * @author Bernardo Lopes - a32040
+ * @author Tiago Padrão - a33061
+ */
+class DirectoryChange implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Types of change
+     */
+    enum Kind {
+        /** A file or directory was created */
+        CREATED,
+        /** A file or directory was modified */
+        MODIFIED,
+        /** A file or directory was deleted */
+        DELETED,
+        /** Some changes were lost and the directory must be read again */
+        OVERFLOW
+    }
+
+    private final Kind kind;
+    private final String name;
+    private final FileEntry entry;
+
+    /**
+     * Creates a new change
+     *
+     * @param kind - type of change
+     * @param name - name of the changed file or directory, or null for OVERFLOW
+     * @param entry - current attributes of the file or directory, or null for DELETED and OVERFLOW
+     */
+    DirectoryChange(Kind kind, String name, FileEntry entry) {
+        this.kind = kind;
+        this.name = name;
+        this.entry = entry;
+    }
+
+    /**
+     * @return type of change
+     */
+    public Kind getKind() {
+        return kind;
+    }
+
+    /**
+     * @return name of the changed file or directory
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return current attributes of the file or directory, or null if it no longer exists
+     */
+    public FileEntry getEntry() {
+        return entry;
+    }
+}
@@ -0,0 +1,206 @@
+import java.io.IOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Open directory listings that clients read a page at a time
+ *
+ * Each cursor keeps a lazy DirectoryStream open on the server. Cursors that
+ * are not used for longer than their lease are closed automatically, so
+ * clients that disconnect without closing them don't leak file handles.
+ * Each cursor holds a file descriptor until then, so a client opening more
+ * than its share loses its least recently used cursor, and cursors beyond
+ * the server's total are refused until others are closed.
+ *
+ * @author Bernardo Lopes - a32040
+ * @author Tiago Padrão - a33061
+ */
+class DirectoryCursors {
+    /**
+     * Largest number of entries returned by a single fetch
+     */
+    static final int MAX_PAGE_SIZE = 10000;
+
+    private final Map<Long, Cursor> cursors = new ConcurrentHashMap<>();
+    private final AtomicLong nextId = new AtomicLong();
+    private final long lease;
+    private final int maxPerClient;
+    private final int maxTotal;
+    private final ScheduledExecutorService reaper;
+
+    /**
+     * Creates a new set of cursors
+     *
+     * @param lease - milliseconds a cursor may stay unused before it expires
+     * @param maxPerClient - cursors a client may have open, after which its least recently used one is closed
+     * @param maxTotal - cursors open at once on the server, after which new ones are refused
+     */
+    DirectoryCursors(long lease, int maxPerClient, int maxTotal) {
+        this.lease = lease;
+        this.maxPerClient = Math.max(1, maxPerClient);
+        this.maxTotal = Math.max(1, maxTotal);
+        this.reaper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "directory-cursor-reaper");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        long period = Math.max(lease / 2, 1);
+        reaper.scheduleWithFixedDelay(this::expire, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Opens a new cursor over the given directory
+     *
+     * @param directory - directory to read
+     * @param posix - true to read the POSIX attributes, including permissions
+     * @param client - client opening the cursor
+     * @return id of the new cursor
+     * @throws ServerBusyException if the server has too many cursors open
+     * @throws IOException
+     */
+    synchronized long open(Path directory, boolean posix, String client) throws IOException {
+        long oldest = -1;
+        long oldestAccess = Long.MAX_VALUE;
+        int open = 0;
+
+        for (Map.Entry<Long, Cursor> entry:cursors.entrySet()) {
+            Cursor cursor = entry.getValue();
+            if (!cursor.client.equals(client)) continue;
+
+            open++;
+            if (cursor.lastAccess < oldestAccess) {
+                oldest = entry.getKey();
+                oldestAccess = cursor.lastAccess;
+            }
+        }
+
+        if (open >= maxPerClient) {
+            close(oldest);
+        }
+        else if (cursors.size() >= maxTotal) {
+            throw new ServerBusyException("Too many directory cursors open");
+        }
+
+        long id = nextId.incrementAndGet();
+        cursors.put(id, new Cursor(directory, Files.newDirectoryStream(directory), posix, client));
+        return id;
+    }
+
+    /**
+     * Reads the next entries of a cursor. The cursor is closed once all
+     * the entries have been read, which is signaled by marking the page
+     * as the last one
+     *
+     * @param id - id of the cursor
+     * @param maxEntries - maximum number of entries to return
+     * @return the next entries, or null if the cursor doesn't exist or has expired
+     * @throws IOException
+     */
+    DirectoryListing fetch(long id, int maxEntries) throws IOException {
+        Cursor cursor = cursors.get(id);
+        if (cursor == null) return null;
+
+        int max = Math.max(1, Math.min(maxEntries, MAX_PAGE_SIZE));
+        List<FileEntry> page = new ArrayList<>(max);
+        boolean last;
+
+        synchronized (cursor) {
+            if (cursor.closed) return null;
+            cursor.lastAccess = System.currentTimeMillis();
+
+            try {
+                while (page.size() < max && cursor.iterator.hasNext()) {
+                    Path path = cursor.iterator.next();
+                    if (Uploads.isTemporary(path)) continue;
+
+                    try {
+                        page.add(RemoteProtocol.readEntry(path, cursor.posix));
+                    }
+                    catch(NoSuchFileException e) {
+                        // The entry was removed while the directory was being read
+                    }
+                }
+
+                last = !cursor.iterator.hasNext();
+            }
+            catch(DirectoryIteratorException e) {
+                close(id);
+                throw e.getCause();
+            }
+        }
+
+        if (last) close(id);
+
+        return new DirectoryListing(cursor.directory.toString(), page.toArray(new FileEntry[page.size()]),
+                ListingOptions.ALL_ATTRIBUTES, last);
+    }
+
+    /**
+     * Closes a cursor, releasing its directory stream
+     *
+     * @param id - id of the cursor
+     */
+    void close(long id) {
+        Cursor cursor = cursors.remove(id);
+        if (cursor == null) return;
+
+        synchronized (cursor) {
+            cursor.closed = true;
+            try {
+                cursor.stream.close();
+            }
+            catch(IOException e) {
+                Logger.getLogger(DirectoryCursors.class.getName()).log(Level.SEVERE, null, e);
+            }
+        }
+    }
+
+    /**
+     * Closes every cursor whose lease has run out
+     */
+    private void expire() {
+        long now = System.currentTimeMillis();
+
+        for (Map.Entry<Long, Cursor> entry:cursors.entrySet()) {
+            if (now - entry.getValue().lastAccess > lease) {
+                close(entry.getKey());
+            }
+        }
+    }
+
+    /**
+     * State of a single open listing
+     */
+    private static class Cursor {
+        final Path directory;
+        final DirectoryStream<Path> stream;
+        final Iterator<Path> iterator;
+        final boolean posix;
+        final String client;
+        volatile long lastAccess = System.currentTimeMillis();
+        boolean closed;
+
+        Cursor(Path directory, DirectoryStream<Path> stream, boolean posix, String client) {
+            this.directory = directory;
+            this.stream = stream;
+            this.iterator = stream.iterator();
+            this.posix = posix;
+            this.client = client;
+        }
+    }
+}
@@ -0,0 +1,20 @@
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+
+/**
+ * Callback exported by a client to be told about changes to the directories it is viewing
+ *
+ * @author Bernardo Lopes - a32040
+ * @author Tiago Padrão - a33061
+ */
+interface DirectoryListener extends Remote {
+    
+    /**
+     * Called by the server with the changes made to a watched directory since the last call
+     * 
+     * @param directoryName - absolute path of the directory that changed
+     * @param changes - changes to the directory's entries, coalesced so there is at most one per name
+     * @throws RemoteException 
+     */
+    public void directoryChanged(String directoryName, DirectoryChange[] changes) throws RemoteException;
+}
@@ -0,0 +1,200 @@
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+
+/**
+ * Entries of a directory, or of a page of it, in a compact wire format
+ *
+ * The directory's path is sent once and each entry as its name followed by
+ * its attributes: a byte of flags, the length and modification date as
+ * variable-length numbers and the permissions packed into nine bits. No
+ * class descriptor or object header is sent per entry. Attributes left out
+ * of the listing aren't sent at all and read as 0.
+ *
+ * A page read from a cursor also says whether it was the last one, since a
+ * page can be shorter than asked for when the server caps its size.
+ *
+ * @author Bernardo Lopes - a32040
+ * @author Tiago Padrão - a33061
+ */
+public class DirectoryListing implements Externalizable {
+    private static final long serialVersionUID = 1L;
+
+    private static final int DIRECTORY = 1;
+    private static final int PERMISSIONS = 2;
+    private static final String PERMISSION_CHARS = "rwxrwxrwx";
+
+    private String directory;
+    private FileEntry[] entries;
+    private int attributes;
+    private boolean last = true;
+
+    /**
+     * Used when a listing is unmarshalled
+     */
+    public DirectoryListing() {
+    }
+
+    /**
+     * Creates a new listing
+     *
+     * @param directory - absolute path of the directory
+     * @param entries - entries of the directory
+     */
+    DirectoryListing(String directory, FileEntry[] entries) {
+        this(directory, entries, ListingOptions.ALL_ATTRIBUTES);
+    }
+
+    /**
+     * Creates a new listing with only some of the attributes of each entry
+     *
+     * @param directory - absolute path of the directory
+     * @param entries - entries of the directory
+     * @param attributes - attributes sent, combined from the ListingOptions attributes
+     */
+    DirectoryListing(String directory, FileEntry[] entries, int attributes) {
+        this(directory, entries, attributes, true);
+    }
+
+    /**
+     * Creates a new page of a directory
+     *
+     * @param directory - absolute path of the directory
+     * @param entries - entries of the page
+     * @param attributes - attributes sent, combined from the ListingOptions attributes
+     * @param last - true if no entries are left after this page
+     */
+    DirectoryListing(String directory, FileEntry[] entries, int attributes, boolean last) {
+        this.directory = directory;
+        this.entries = entries;
+        this.attributes = attributes;
+        this.last = last;
+    }
+
+    /**
+     * @return absolute path of the directory
+     */
+    public String getDirectory() {
+        return directory;
+    }
+
+    /**
+     * @return entries of the directory
+     */
+    public FileEntry[] getEntries() {
+        return entries;
+    }
+
+    /**
+     * @return attributes sent, combined from the ListingOptions attributes
+     */
+    public int getAttributes() {
+        return attributes;
+    }
+
+    /**
+     * @return true if no entries are left after these, which is always the case for whole listings
+     */
+    public boolean isLast() {
+        return last;
+    }
+
+    @Override
+    public void writeExternal(ObjectOutput out) throws IOException {
+        out.writeUTF(directory);
+        out.writeByte(attributes);
+        out.writeBoolean(last);
+        out.writeInt(entries.length);
+
+        for (FileEntry entry:entries) {
+            String permissions = (attributes & ListingOptions.PERMISSIONS) != 0 ? entry.getPermissions() : null;
+            out.writeByte((entry.isDirectory() ? DIRECTORY : 0) | (permissions != null ? PERMISSIONS : 0));
+            out.writeUTF(entry.getName());
+            if ((attributes & ListingOptions.LENGTH) != 0) writeNumber(out, entry.getLength());
+            if ((attributes & ListingOptions.MODIFIED) != 0) writeNumber(out, entry.getLastModified());
+            if (permissions != null) out.writeShort(packPermissions(permissions));
+        }
+    }
+
+    @Override
+    public void readExternal(ObjectInput in) throws IOException {
+        directory = in.readUTF();
+        attributes = in.readByte();
+        last = in.readBoolean();
+        entries = new FileEntry[in.readInt()];
+
+        for (int i = 0; i < entries.length; i++) {
+            int flags = in.readByte();
+            String name = in.readUTF();
+            long length = (attributes & ListingOptions.LENGTH) != 0 ? readNumber(in) : 0;
+            long lastModified = (attributes & ListingOptions.MODIFIED) != 0 ? readNumber(in) : 0;
+            String permissions = (flags & PERMISSIONS) != 0 ? unpackPermissions(in.readShort()) : null;
+            entries[i] = new FileEntry(name, (flags & DIRECTORY) != 0, length, lastModified, permissions);
+        }
+    }
+
+    /**
+     * Writes a non-negative number seven bits at a time, so small numbers take fewer bytes
+     *
+     * @param out - stream to write to
+     * @param value - number to write
+     * @throws IOException
+     */
+    private static void writeNumber(ObjectOutput out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    /**
+     * Reads a number written by writeNumber
+     *
+     * @param in - stream to read from
+     * @return number read
+     * @throws IOException
+     */
+    private static long readNumber(ObjectInput in) throws IOException {
+        long value = 0;
+        int shift = 0;
+        int b;
+
+        do {
+            b = in.readByte();
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+
+        return value;
+    }
+
+    /**
+     * Packs a permissions string into nine bits, one per permission
+     *
+     * @param permissions - permissions string (e.g. rwxr-x---)
+     * @return packed permissions
+     */
+    private static int packPermissions(String permissions) {
+        int packed = 0;
+        for (int i = 0; i < PERMISSION_CHARS.length(); i++) {
+            if (permissions.charAt(i) != '-') packed |= 1 << i;
+        }
+        return packed;
+    }
+
+    /**
+     * Unpacks permissions packed by packPermissions
+     *
+     * @param packed - packed permissions
+     * @return permissions string (e.g. rwxr-x---)
+     */
+    private static String unpackPermissions(int packed) {
+        char[] permissions = new char[PERMISSION_CHARS.length()];
+        for (int i = 0; i < permissions.length; i++) {
+            permissions[i] = (packed & 1 << i) != 0 ? PERMISSION_CHARS.charAt(i) : '-';
+        }
+        return new String(permissions);
+    }
+}
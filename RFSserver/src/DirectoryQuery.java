@@ -0,0 +1,152 @@
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Lists a directory the way a set of listing options asks for
+ *
+ * Entries are filtered as the directory is read, so the ones that don't
+ * match are never kept. When the number of entries is limited, only the
+ * best ones seen so far are kept, in a heap with the worst of them on top,
+ * so listing the 20 most recent files of a huge directory holds 20 entries
+ * rather than all of them. Unsorted listings stop reading once they have
+ * enough entries.
+ *
+ * @author Bernardo Lopes - a32040
+ * @author Tiago Padrão - a33061
+ */
+class DirectoryQuery {
+    private static final Comparator<FileEntry> BY_NAME = Comparator.comparing(FileEntry::getName, String.CASE_INSENSITIVE_ORDER)
+            .thenComparing(FileEntry::getName);
+
+    private final ListingOptions options;
+    private final Comparator<FileEntry> order;
+
+    /**
+     * Creates a new query
+     *
+     * @param options - how to sort, filter and trim the entries, or null for the defaults
+     */
+    DirectoryQuery(ListingOptions options) {
+        this.options = options != null ? options : new ListingOptions();
+        this.order = orderOf(this.options);
+    }
+
+    /**
+     * Reads the entries of a directory that match the options
+     *
+     * @param directory - directory to list
+     * @return the matching entries, sorted and trimmed
+     * @throws IOException if the directory can't be read
+     * @throws java.util.regex.PatternSyntaxException if the glob is invalid
+     */
+    DirectoryListing list(Path directory) throws IOException {
+        int attributes = options.getAttributes();
+        int limit = options.getLimit() > 0 ? options.getLimit() : Integer.MAX_VALUE;
+        boolean posix = (attributes & ListingOptions.PERMISSIONS) != 0
+                && directory.getFileSystem().supportedFileAttributeViews().contains("posix");
+
+        // The heap has the entry that would be dropped first on top, and only grows as entries are found
+        PriorityQueue<FileEntry> best = order != null && limit != Integer.MAX_VALUE ? new PriorityQueue<>(Math.min(limit, 1024), order.reversed()) : null;
+        List<FileEntry> entries = new ArrayList<>();
+
+        try (DirectoryStream<Path> stream = options.getPattern() == null ? Files.newDirectoryStream(directory)
+                : Files.newDirectoryStream(directory, options.getPattern())) {
+            for (Path path:stream) {
+                if (Uploads.isTemporary(path)) continue;
+
+                FileEntry entry;
+                try {
+                    entry = RemoteProtocol.readEntry(path, posix);
+                }
+                catch(NoSuchFileException e) {
+                    // The entry was removed while the directory was being read
+                    continue;
+                }
+
+                if (!matchesType(entry)) continue;
+
+                if (best == null) {
+                    entries.add(entry);
+                    if (order == null && entries.size() == limit) break;
+                }
+                else if (best.size() < limit) {
+                    best.add(entry);
+                }
+                else if (order.compare(entry, best.peek()) < 0) {
+                    best.poll();
+                    best.add(entry);
+                }
+            }
+        }
+
+        FileEntry[] result = best != null ? best.toArray(new FileEntry[best.size()]) : entries.toArray(new FileEntry[entries.size()]);
+        if (order != null) Arrays.sort(result, order);
+
+        return new DirectoryListing(directory.toString(), result, attributes);
+    }
+
+    /**
+     * @param entry - entry of the directory
+     * @return true if the entry is of a type the options ask for
+     */
+    private boolean matchesType(FileEntry entry) {
+        if (options.getType() == null) return true;
+
+        switch (options.getType()) {
+            case FILES:
+                return !entry.isDirectory();
+            case DIRECTORIES:
+                return entry.isDirectory();
+            default:
+                return true;
+        }
+    }
+
+    /**
+     * @param options - listing options
+     * @return order the entries are returned in, with ties broken by name,
+     * or null if they are returned in the order they are read
+     */
+    private static Comparator<FileEntry> orderOf(ListingOptions options) {
+        Comparator<FileEntry> order;
+        if (options.getSortKey() == null) return null;
+
+        switch (options.getSortKey()) {
+            case NAME:
+                order = BY_NAME;
+                break;
+            case SIZE:
+                order = Comparator.comparingLong(FileEntry::getLength).thenComparing(BY_NAME);
+                break;
+            case MODIFIED:
+                order = Comparator.comparingLong(FileEntry::getLastModified).thenComparing(BY_NAME);
+                break;
+            case TYPE:
+                order = Comparator.comparing((FileEntry entry) -> !entry.isDirectory())
+                        .thenComparing(entry -> extensionOf(entry.getName()), String.CASE_INSENSITIVE_ORDER)
+                        .thenComparing(BY_NAME);
+                break;
+            default:
+                return null;
+        }
+
+        return options.isDescending() ? order.reversed() : order;
+    }
+
+    /**
+     * @param name - name of a file
+     * @return extension of the name, without the dot, or an empty string if it has none
+     */
+    private static String extensionOf(String name) {
+        int dot = name.lastIndexOf('.');
+        return dot > 0 ? name.substring(dot + 1) : "";
+    }
+}
@@ -0,0 +1,60 @@
+import java.io.Serializable;
+
+/**
+ * Total size and number of entries of a directory tree
+ *
+ * @author Bernardo Lopes - a32040
+ * @author Tiago Padrão - a33061
+ */
+class DirectorySize implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final long bytes;
+    private final long files;
+    private final long directories;
+    private final boolean complete;
+
+    /**
+     * Creates a new directory size
+     *
+     * @param bytes - total length of the files in the tree
+     * @param files - number of files in the tree
+     * @param directories - number of directories in the tree, not counting its root
+     * @param complete - false if part of the tree was not read
+     */
+    DirectorySize(long bytes, long files, long directories, boolean complete) {
+        this.bytes = bytes;
+        this.files = files;
+        this.directories = directories;
+        this.complete = complete;
+    }
+
+    /**
+     * @return total length of the files in the tree
+     */
+    public long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * @return number of files in the tree
+     */
+    public long getFiles() {
+        return files;
+    }
+
+    /**
+     * @return number of directories in the tree, not counting its root
+     */
+    public long getDirectories() {
+        return directories;
+    }
+
+    /**
+     * @return false if the depth limit or the timeout was reached, or part of 
+     * the tree could not be read, so the totals are only a lower bound
+     */
+    public boolean isComplete() {
+        return complete;
+    }
+}
@@ -0,0 +1,131 @@
+import java.io.IOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Computes the total size of directory trees, caching the direct contents of each directory
+ *
+ * A directory's cached contents are reused while its modification time is
+ * unchanged, so adding up a large tree again only reads the attributes of
+ * its directories and lists the ones that changed. Files modified in place
+ * don't change their directory's modification time, so cached contents also
+ * expire after a fixed time to live. Symbolic links are counted as files and
+ * never followed.
+ *
+ * @author Bernardo Lopes - a32040
+ * @author Tiago Padrão - a33061
+ */
+class DirectorySizes {
+    private final Map<Path, Contents> cache = new ConcurrentHashMap<>();
+    private final long ttl;
+    private final int maxDirectories;
+
+    /**
+     * Creates a new cache of directory sizes
+     *
+     * @param ttl - milliseconds the contents of a directory are reused for
+     * @param maxDirectories - maximum number of directories cached, after which the cache starts over
+     */
+    DirectorySizes(long ttl, int maxDirectories) {
+        this.ttl = ttl;
+        this.maxDirectories = maxDirectories;
+    }
+
+    /**
+     * Adds up the size of a directory tree
+     *
+     * @param directory - root of the tree
+     * @param maxDepth - number of levels of subdirectories to read, or a negative number for no limit
+     * @param timeout - milliseconds to stop reading after, or 0 for no limit
+     * @param pool - pool to read the subdirectories on
+     * @return total size and number of entries of the tree, or null if it's not a directory
+     */
+    DirectorySize compute(Path directory, int maxDepth, long timeout, ForkJoinPool pool) {
+        if (!Files.isDirectory(directory)) return null;
+
+        long deadline = System.nanoTime() + (timeout > 0 ? TimeUnit.MILLISECONDS.toNanos(timeout) : Long.MAX_VALUE / 2);
+        SizeTask task = new SizeTask(this, directory, maxDepth < 0 ? Integer.MAX_VALUE : maxDepth, deadline);
+        pool.invoke(task);
+
+        return new DirectorySize(task.bytes, task.files, task.directories, task.complete);
+    }
+
+    /**
+     * Returns the direct contents of a directory, from the cache if it hasn't changed
+     *
+     * @param directory - directory to read
+     * @param deadline - System.nanoTime at which to stop reading
+     * @return contents of the directory, or null if the deadline was reached before it was read
+     * @throws IOException
+     */
+    Contents getContents(Path directory, long deadline) throws IOException {
+        long lastModified = Files.getLastModifiedTime(directory, LinkOption.NOFOLLOW_LINKS).toMillis();
+        long now = System.currentTimeMillis();
+
+        Contents contents = cache.get(directory);
+        if (contents != null && contents.lastModified == lastModified && now - contents.time <= ttl) return contents;
+
+        long bytes = 0, files = 0;
+        List<Path> subdirectories = new ArrayList<>();
+
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+            for (Path path:stream) {
+                if (System.nanoTime() - deadline > 0) return null;
+
+                try {
+                    BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                    if (attributes.isDirectory()) {
+                        subdirectories.add(path);
+                    }
+                    else {
+                        bytes += attributes.size();
+                        files++;
+                    }
+                }
+                catch(NoSuchFileException e) {
+                    // The entry was removed while the directory was being read
+                }
+            }
+        }
+        catch(DirectoryIteratorException e) {
+            throw e.getCause();
+        }
+
+        contents = new Contents(lastModified, now, bytes, files, subdirectories.toArray(new Path[subdirectories.size()]));
+
+        if (cache.size() >= maxDirectories) cache.clear();
+        cache.put(directory, contents);
+
+        return contents;
+    }
+
+    /**
+     * Files and subdirectories directly inside a directory
+     */
+    static class Contents {
+        final long lastModified;
+        final long time;
+        final long bytes;
+        final long files;
+        final Path[] subdirectories;
+
+        Contents(long lastModified, long time, long bytes, long files, Path[] subdirectories) {
+            this.lastModified = lastModified;
+            this.time = time;
+            this.bytes = bytes;
+            this.files = files;
+            this.subdirectories = subdirectories;
+        }
+    }
+}
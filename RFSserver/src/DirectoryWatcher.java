@@ -0,0 +1,382 @@
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Watches the directories clients are viewing and pushes their changes to them
+ *
+ * Events are collected for a short delay and coalesced per name before being
+ * sent, so a burst of changes to a directory becomes a single callback. The
+ * watch service and its threads are only started when the first directory
+ * is watched.
+ *
+ * Each listener has its own queue of callbacks, sent in order by a shared
+ * pool of threads, so a slow client only delays itself. A client whose
+ * queue fills up has fallen behind: its queue is replaced by an OVERFLOW
+ * change for each directory it watched, so it reads them again, and it's
+ * removed until it watches them again. Listeners in the server itself are
+ * never removed.
+ *
+ * @author Bernardo Lopes - a32040
+ * @author Tiago Padrão - a33061
+ */
+class DirectoryWatcher {
+    private final long delay;
+    private final int backlog;
+    private final Map<Path, Watch> watches = new HashMap<>();
+    private final Map<WatchKey, Watch> keys = new HashMap<>();
+    private final Map<DirectoryListener, Subscriber> subscribers = new ConcurrentHashMap<>();
+    private WatchService watchService;
+    private ExecutorService sender;
+
+    /**
+     * Creates a new watcher
+     *
+     * @param delay - milliseconds events are collected before being sent to the listeners
+     * @param backlog - callbacks waiting to be sent to a client before it's removed
+     */
+    DirectoryWatcher(long delay, int backlog) {
+        this.delay = delay;
+        this.backlog = backlog;
+    }
+
+    /**
+     * Starts sending the changes of a directory to a client
+     *
+     * @param directory - directory to watch
+     * @param listener - listener to notify
+     * @throws IOException
+     */
+    void watch(Path directory, DirectoryListener listener) throws IOException {
+        watch(directory, listener, false);
+    }
+
+    /**
+     * Starts sending the changes of a directory to a listener
+     *
+     * @param directory - directory to watch
+     * @param listener - listener to notify
+     * @param local - true for listeners in the server itself, which are never removed for falling behind
+     * @throws IOException
+     */
+    synchronized void watch(Path directory, DirectoryListener listener, boolean local) throws IOException {
+        if (watchService == null) start();
+
+        Watch watch = watches.get(directory);
+        if (watch == null) {
+            WatchKey key = directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+            watch = new Watch(directory, key);
+            watches.put(directory, watch);
+            keys.put(key, watch);
+        }
+
+        if (watch.listeners.add(listener)) {
+            subscribers.computeIfAbsent(listener, key -> new Subscriber(key, local)).watches++;
+        }
+    }
+
+    /**
+     * Stops sending the changes of a directory to a listener
+     *
+     * @param directory - watched directory
+     * @param listener - listener to remove
+     */
+    synchronized void unwatch(Path directory, DirectoryListener listener) {
+        Watch watch = watches.get(directory);
+        if (watch == null) return;
+
+        if (watch.listeners.remove(listener)) {
+            Subscriber subscriber = subscribers.get(listener);
+            if (subscriber != null && --subscriber.watches == 0) subscribers.remove(listener);
+        }
+        if (watch.listeners.isEmpty()) cancel(watch);
+    }
+
+    /**
+     * Removes a listener from every directory, used when it can no longer be reached
+     *
+     * @param listener - listener to remove
+     * @return directories the listener watched
+     */
+    private synchronized List<Path> unwatchAll(DirectoryListener listener) {
+        List<Path> removed = new ArrayList<>();
+        for (Watch watch:new ArrayList<>(watches.values())) {
+            if (watch.listeners.contains(listener)) {
+                removed.add(watch.directory);
+                unwatch(watch.directory, listener);
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Stops watching a directory
+     *
+     * @param watch - watch to cancel
+     */
+    private void cancel(Watch watch) {
+        watch.key.cancel();
+        watches.remove(watch.directory);
+        keys.remove(watch.key);
+    }
+
+    /**
+     * Creates the watch service and starts the threads that read and send its events
+     *
+     * @throws IOException
+     */
+    private void start() throws IOException {
+        watchService = FileSystems.getDefault().newWatchService();
+
+        Thread poller = new Thread(this::poll, "directory-watcher");
+        poller.setDaemon(true);
+        poller.start();
+
+        ScheduledExecutorService flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "directory-watcher-flush");
+            thread.setDaemon(true);
+            return thread;
+        });
+        flusher.scheduleWithFixedDelay(this::flush, delay, delay, TimeUnit.MILLISECONDS);
+
+        sender = Executors.newCachedThreadPool(r -> {
+            Thread thread = new Thread(r, "directory-watcher-send");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Collects the events of the watch service until the server stops
+     */
+    private void poll() {
+        while (true) {
+            WatchKey key;
+            try {
+                key = watchService.take();
+            }
+            catch(InterruptedException e) {
+                return;
+            }
+
+            synchronized (this) {
+                Watch watch = keys.get(key);
+
+                for (WatchEvent<?> event:key.pollEvents()) {
+                    if (watch == null) continue;
+
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        watch.overflow = true;
+                    }
+                    else {
+                        // A name keeps its CREATED state until it's sent, whatever follows it
+                        String name = event.context().toString();
+                        if (Uploads.isTemporary(name)) continue;
+
+                        boolean created = event.kind() == StandardWatchEventKinds.ENTRY_CREATE;
+                        watch.pending.merge(name, created, Boolean::logicalOr);
+                    }
+                }
+
+                // The key is no longer valid if the directory was deleted
+                if (!key.reset() && watch != null) cancel(watch);
+            }
+        }
+    }
+
+    /**
+     * Queues the pending changes of every watched directory for its listeners
+     */
+    private void flush() {
+        List<Watch> changed = new ArrayList<>();
+        List<Map<String, Boolean>> pending = new ArrayList<>();
+        List<Boolean> overflows = new ArrayList<>();
+
+        // Takes the pending events, so new ones can be collected while these are sent
+        synchronized (this) {
+            for (Watch watch:watches.values()) {
+                if (watch.pending.isEmpty() && !watch.overflow) continue;
+
+                changed.add(watch);
+                pending.add(watch.pending);
+                overflows.add(watch.overflow);
+                watch.pending = new LinkedHashMap<>();
+                watch.overflow = false;
+            }
+        }
+
+        for (int i = 0; i < changed.size(); i++) {
+            Watch watch = changed.get(i);
+            DirectoryChange[] changes = readChanges(watch.directory, pending.get(i), overflows.get(i));
+
+            for (DirectoryListener listener:watch.listeners) {
+                Subscriber subscriber = subscribers.get(listener);
+                if (subscriber != null) subscriber.send(watch.directory.toString(), changes);
+            }
+        }
+    }
+
+    /**
+     * Reads the current state of the changed entries of a directory
+     *
+     * @param directory - watched directory
+     * @param pending - names that changed, mapped to whether they were created
+     * @param overflow - true if some events were lost
+     * @return changes to send to the listeners
+     */
+    private DirectoryChange[] readChanges(Path directory, Map<String, Boolean> pending, boolean overflow) {
+        // A lost event means the listeners have to read the whole directory again anyway
+        if (overflow) {
+            return new DirectoryChange[]{new DirectoryChange(DirectoryChange.Kind.OVERFLOW, null, null)};
+        }
+
+        List<DirectoryChange> changes = new ArrayList<>(pending.size());
+        boolean posix = directory.getFileSystem().supportedFileAttributeViews().contains("posix");
+
+        for (Map.Entry<String, Boolean> entry:pending.entrySet()) {
+            String name = entry.getKey();
+
+            try {
+                FileEntry file = RemoteProtocol.readEntry(directory.resolve(name), posix);
+                DirectoryChange.Kind kind = entry.getValue() ? DirectoryChange.Kind.CREATED : DirectoryChange.Kind.MODIFIED;
+                changes.add(new DirectoryChange(kind, name, file));
+            }
+            catch(NoSuchFileException e) {
+                changes.add(new DirectoryChange(DirectoryChange.Kind.DELETED, name, null));
+            }
+            catch(IOException | SecurityException e) {
+                Logger.getLogger(DirectoryWatcher.class.getName()).log(Level.SEVERE, null, e);
+            }
+        }
+
+        return changes.toArray(new DirectoryChange[changes.size()]);
+    }
+
+    /**
+     * A listener and the callbacks waiting to be sent to it
+     */
+    private class Subscriber {
+        final DirectoryListener listener;
+        final BlockingQueue<Runnable> queue;
+        final AtomicBoolean sending = new AtomicBoolean();
+        // Directories the listener watches, guarded by the watcher
+        int watches;
+        // Set once the listener is removed for falling behind, so nothing follows its OVERFLOW changes
+        volatile boolean evicted;
+
+        Subscriber(DirectoryListener listener, boolean local) {
+            this.listener = listener;
+            this.queue = local ? new LinkedBlockingQueue<>() : new ArrayBlockingQueue<>(backlog);
+        }
+
+        /**
+         * Queues the changes of a directory, removing the listener if it has fallen behind
+         *
+         * @param directory - absolute path of the directory
+         * @param changes - changes to send
+         */
+        void send(String directory, DirectoryChange[] changes) {
+            if (evicted) return;
+
+            if (!queue.offer(() -> deliver(directory, changes))) {
+                evict();
+                return;
+            }
+
+            if (sending.compareAndSet(false, true)) sender.execute(this::drain);
+        }
+
+        /**
+         * Removes the listener, replacing the changes it hasn't received with
+         * an OVERFLOW change for each directory it watched
+         */
+        private void evict() {
+            Logger.getLogger(DirectoryWatcher.class.getName()).log(Level.INFO, "Resetting directory listener that fell behind");
+            evicted = true;
+            queue.clear();
+
+            DirectoryChange[] overflow = {new DirectoryChange(DirectoryChange.Kind.OVERFLOW, null, null)};
+            List<Path> directories = unwatchAll(listener);
+            queue.offer(() -> {
+                for (Path directory:directories) deliver(directory.toString(), overflow);
+            });
+
+            if (sending.compareAndSet(false, true)) sender.execute(this::drain);
+        }
+
+        /**
+         * Sends the queued callbacks in order, until the queue is empty
+         */
+        private void drain() {
+            do {
+                Runnable callback;
+                while ((callback = queue.poll()) != null) callback.run();
+                sending.set(false);
+
+                // Callbacks queued after the loop ended and before the flag was cleared
+            } while (!queue.isEmpty() && sending.compareAndSet(false, true));
+        }
+
+        /**
+         * Calls the listener
+         *
+         * @param directory - absolute path of the directory
+         * @param changes - changes to send
+         */
+        private void deliver(String directory, DirectoryChange[] changes) {
+            try {
+                listener.directoryChanged(directory, changes);
+            }
+            catch(RemoteException e) {
+                // The client is gone
+                Logger.getLogger(DirectoryWatcher.class.getName()).log(Level.INFO, "Removing unreachable directory listener", e);
+                queue.clear();
+                unwatchAll(listener);
+            }
+            catch(RuntimeException e) {
+                Logger.getLogger(DirectoryWatcher.class.getName()).log(Level.SEVERE, null, e);
+            }
+        }
+    }
+
+    /**
+     * A watched directory, its listeners and the changes not yet sent to them
+     */
+    private static class Watch {
+        final Path directory;
+        final WatchKey key;
+        final Set<DirectoryListener> listeners = new CopyOnWriteArraySet<>();
+        Map<String, Boolean> pending = new LinkedHashMap<>();
+        boolean overflow;
+
+        Watch(Path directory, WatchKey key) {
+            this.directory = directory;
+            this.key = key;
+        }
+    }
+}
@@ -0,0 +1,120 @@
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Limits how many calls run at once, queuing the rest fairly between clients
+ *
+ * Each client has a queue of its own and, when a call finishes, the next
+ * call to run is taken from the clients in turn, so a client sending many
+ * calls can't delay the others' more than by one call each. A call is
+ * turned away when its client already has too many calls queued or when it
+ * waited too long.
+ *
+ * @author Bernardo Lopes - a32040
+ * @author Tiago Padrão - a33061
+ */
+class FairQueue {
+    private final String name;
+    private final int maxRunning;
+    private final int maxQueued;
+    private final long maxWait;
+    private final LinkedHashMap<String, ArrayDeque<Waiter>> queues = new LinkedHashMap<>();
+    private int running;
+    private int queued;
+
+    /**
+     * Creates a new queue
+     *
+     * @param name - name of the calls in the queue, used in error messages
+     * @param maxRunning - maximum number of calls running at once
+     * @param maxQueued - maximum number of calls each client can have waiting
+     * @param maxWait - milliseconds a call can wait before being turned away
+     */
+    FairQueue(String name, int maxRunning, int maxQueued, long maxWait) {
+        this.name = name;
+        this.maxRunning = Math.max(1, maxRunning);
+        this.maxQueued = Math.max(0, maxQueued);
+        this.maxWait = maxWait;
+    }
+
+    /**
+     * Waits for the call's turn to run. Every successful acquire must be followed by a release
+     *
+     * @param client - client making the call
+     * @throws ServerBusyException if the client has too many calls waiting or the call waited too long
+     */
+    synchronized void acquire(String client) throws ServerBusyException {
+        if (running < maxRunning && queued == 0) {
+            running++;
+            return;
+        }
+
+        ArrayDeque<Waiter> queue = queues.get(client);
+        if ((queue == null ? 0 : queue.size()) >= maxQueued) throw new ServerBusyException("Too many " + name + " calls waiting");
+        if (queue == null) {
+            queue = new ArrayDeque<>();
+            queues.put(client, queue);
+        }
+
+        Waiter waiter = new Waiter();
+        queue.add(waiter);
+        queued++;
+
+        long deadline = System.currentTimeMillis() + maxWait;
+        try {
+            while (!waiter.admitted) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) throw new ServerBusyException("Timed out waiting to run a " + name + " call");
+                wait(remaining);
+            }
+        }
+        catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+
+            // Admitted just before the interrupt, so the call runs and its release frees the slot
+            if (waiter.admitted) return;
+            throw new ServerBusyException("Interrupted waiting to run a " + name + " call");
+        }
+        finally {
+            // A call given up on leaves the queue, unless it was admitted in the meantime
+            if (!waiter.admitted) {
+                queue.remove(waiter);
+                queued--;
+                if (queue.isEmpty()) queues.remove(client, queue);
+            }
+        }
+    }
+
+    /**
+     * Ends a call, letting the next one waiting run
+     */
+    synchronized void release() {
+        running--;
+
+        boolean admitted = false;
+        while (running < maxRunning && queued > 0) {
+            // The client whose turn it is is the first one, and goes to the back after its call
+            Iterator<Map.Entry<String, ArrayDeque<Waiter>>> clients = queues.entrySet().iterator();
+            Map.Entry<String, ArrayDeque<Waiter>> next = clients.next();
+            clients.remove();
+
+            next.getValue().poll().admitted = true;
+            if (!next.getValue().isEmpty()) queues.put(next.getKey(), next.getValue());
+
+            queued--;
+            running++;
+            admitted = true;
+        }
+
+        if (admitted) notifyAll();
+    }
+
+    /**
+     * A call waiting for its turn
+     */
+    private static class Waiter {
+        boolean admitted;
+    }
+}
@@ -0,0 +1,134 @@
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * A range of bytes read from a file
+ *
+ * On the server the bytes stay in a reused buffer and are written straight
+ * from it when the chunk is marshalled, after which the buffer is handed
+ * back to its owner. On the client they are read into a new array.
+ *
+ * A CRC32 of the bytes is sent after them and checked when they are read,
+ * so a chunk damaged on the way fails to unmarshal and can be requested
+ * again rather than being written into the file.
+ *
+ * @author Bernardo Lopes - a32040
+ * @author Tiago Padrão - a33061
+ */
+public class FileChunk implements Externalizable {
+    private static final long serialVersionUID = 1L;
+
+    /** Largest number of bytes in a chunk, the size of the server's transfer buffers */
+    public static final int MAX_LENGTH = Integer.getInteger("rfs.chunk.max", 8 << 20);
+
+    private long offset;
+    private long fileLength;
+    private byte[] data;
+    private int length;
+    private transient ByteBuffer buffer;
+    private transient Consumer<ByteBuffer> release;
+
+    /**
+     * Used when a chunk is unmarshalled
+     */
+    public FileChunk() {
+    }
+
+    /**
+     * Creates a chunk backed by a reused buffer
+     *
+     * @param offset - position of the chunk in the file
+     * @param fileLength - length of the whole file in bytes
+     * @param buffer - heap buffer holding the chunk's bytes between its position and limit
+     * @param release - called with the buffer once it has been marshalled
+     */
+    FileChunk(long offset, long fileLength, ByteBuffer buffer, Consumer<ByteBuffer> release) {
+        this.offset = offset;
+        this.fileLength = fileLength;
+        this.buffer = buffer;
+        this.release = release;
+        this.length = buffer.remaining();
+    }
+
+    /**
+     * @return position of the chunk in the file
+     */
+    public long getOffset() {
+        return offset;
+    }
+
+    /**
+     * @return length of the whole file in bytes
+     */
+    public long getFileLength() {
+        return fileLength;
+    }
+
+    /**
+     * @return number of bytes in the chunk
+     */
+    public int getLength() {
+        return length;
+    }
+
+    /**
+     * @return bytes of the chunk, only available after unmarshalling
+     */
+    public byte[] getData() {
+        return data;
+    }
+
+    /**
+     * @return true if the chunk reaches the end of the file
+     */
+    public boolean isLast() {
+        return offset + length >= fileLength;
+    }
+
+    @Override
+    public void writeExternal(ObjectOutput out) throws IOException {
+        out.writeLong(offset);
+        out.writeLong(fileLength);
+        out.writeInt(length);
+
+        CRC32 crc = new CRC32();
+
+        if (buffer != null) {
+            crc.update(buffer.array(), buffer.arrayOffset() + buffer.position(), length);
+            out.write(buffer.array(), buffer.arrayOffset() + buffer.position(), length);
+
+            // The chunk is only marshalled once, so its buffer can be reused right away
+            ByteBuffer used = buffer;
+            buffer = null;
+            if (release != null) release.accept(used);
+        }
+        else {
+            crc.update(data, 0, length);
+            out.write(data, 0, length);
+        }
+
+        out.writeInt((int) crc.getValue());
+    }
+
+    @Override
+    public void readExternal(ObjectInput in) throws IOException {
+        offset = in.readLong();
+        fileLength = in.readLong();
+        length = in.readInt();
+
+        // Checked before allocating, so a bogus length can't exhaust the heap
+        if (length < 0 || length > MAX_LENGTH) throw new StreamCorruptedException("Invalid chunk length " + length);
+        data = new byte[length];
+        in.readFully(data);
+
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, length);
+        if (in.readInt() != (int) crc.getValue()) throw new StreamCorruptedException("Corrupt chunk at offset " + offset);
+    }
+}
@@ -0,0 +1,300 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Computes the digests of files, caching them in memory and on disk
+ *
+ * A file's cached digests are reused while its length and modification
+ * time are unchanged, so asking again for the digests of files that didn't
+ * change reads none of their contents. Every new digest is appended to a
+ * log on disk, which is read back when the server starts, so the cache
+ * survives restarts. Files modified in the last few seconds aren't cached,
+ * since a write in the same tick of the file system's clock would leave
+ * their modification time unchanged.
+ *
+ * Large files are read memory-mapped, a segment at a time. Small files are
+ * read into a buffer instead, since mapping them costs more than reading
+ * them and every mapping stays until it's garbage collected.
+ *
+ * @author Bernardo Lopes - a32040
+ * @author Tiago Padrão - a33061
+ */
+class FileDigests {
+    private static final int MAGIC = 0x52465344;
+    private static final int MAP_THRESHOLD = 1 << 20;
+    private static final long SEGMENT_SIZE = 64 << 20;
+    private static final long SETTLE_TIME = 2000;
+
+    private final Map<Path, Entry> cache = new ConcurrentHashMap<>();
+    private final ThreadLocal<ByteBuffer> buffers = ThreadLocal.withInitial(() -> ByteBuffer.allocate(MAP_THRESHOLD));
+    private final Path store;
+    private final int maxFiles;
+
+    // Log of the digests computed, or null if it can't be written
+    private DataOutputStream log;
+    private int logged;
+
+    /**
+     * Creates a new cache of digests, loading the ones stored by earlier runs
+     *
+     * @param store - file the digests are stored in
+     * @param maxFiles - maximum number of files cached, after which the cache starts over
+     * @param flushDelay - milliseconds new digests may wait before being written to disk
+     */
+    FileDigests(Path store, int maxFiles, long flushDelay) {
+        this.store = store;
+        this.maxFiles = maxFiles;
+
+        try {
+            load();
+            if (store.getParent() != null) Files.createDirectories(store.getParent());
+            rewrite();
+        }
+        catch(IOException | SecurityException e) {
+            Logger.getLogger(FileDigests.class.getName()).log(Level.WARNING, "Digests will only be kept in memory, the store {0} can''t be written: {1}",
+                    new Object[]{store, e});
+        }
+
+        ScheduledExecutorService writer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "digest-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        long period = Math.max(flushDelay, 1);
+        writer.scheduleWithFixedDelay(this::flush, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Returns the digests of a file, from the cache if it hasn't changed
+     *
+     * @param file - file to digest
+     * @return digests of the file's contents
+     * @throws IOException
+     */
+    FileDigest compute(Path file) throws IOException {
+        Path key = file.toAbsolutePath().normalize();
+        BasicFileAttributes before = Files.readAttributes(key, BasicFileAttributes.class);
+        if (!before.isRegularFile()) throw new IOException(file + " is not a regular file");
+
+        long modified = before.lastModifiedTime().to(TimeUnit.NANOSECONDS);
+        Entry cached = cache.get(key);
+        if (cached != null && cached.digest.getLength() == before.size() && cached.modified == modified) return cached.digest;
+
+        FileDigest digest = hash(key, before.lastModifiedTime().toMillis());
+
+        // Only a file that didn't change while it was read, and won't change unnoticed, is cached
+        BasicFileAttributes after = Files.readAttributes(key, BasicFileAttributes.class);
+        boolean unchanged = after.size() == digest.getLength() && after.lastModifiedTime().to(TimeUnit.NANOSECONDS) == modified;
+        if (unchanged && System.currentTimeMillis() - digest.getLastModified() > SETTLE_TIME) {
+            add(key, new Entry(modified, digest));
+        }
+
+        return digest;
+    }
+
+    /**
+     * Reads a file and computes its digests
+     *
+     * @param file - file to read
+     * @param lastModified - modification date of the file, read before its contents
+     * @return digests of the file's contents
+     * @throws IOException
+     */
+    private FileDigest hash(Path file, long lastModified) throws IOException {
+        MessageDigest sha256;
+        try {
+            sha256 = MessageDigest.getInstance("SHA-256");
+        }
+        catch(GeneralSecurityException e) {
+            throw new IOException(e);
+        }
+        XXHash64 xxHash = new XXHash64();
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long length = channel.size();
+
+            if (length < MAP_THRESHOLD) {
+                ByteBuffer buffer = buffers.get();
+                buffer.clear().limit((int) length);
+                while (buffer.hasRemaining()) {
+                    if (channel.read(buffer, buffer.position()) < 0) throw new EOFException(file + " changed while it was read");
+                }
+                buffer.flip();
+
+                xxHash.update(buffer);
+                sha256.update(buffer);
+            }
+            else {
+                for (long position = 0; position < length; position += SEGMENT_SIZE) {
+                    ByteBuffer segment = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(SEGMENT_SIZE, length - position));
+
+                    try {
+                        xxHash.update(segment);
+                        sha256.update(segment);
+                    }
+                    catch(InternalError e) {
+                        // Thrown when the file is truncated under the mapping
+                        throw new IOException(file + " changed while it was read", e);
+                    }
+                }
+            }
+
+            return new FileDigest(length, lastModified, sha256.digest(), xxHash.getValue());
+        }
+    }
+
+    /**
+     * Caches the digests of a file and appends them to the log
+     *
+     * @param file - absolute path of the file
+     * @param entry - digests of the file and the modification time they were computed at
+     */
+    private synchronized void add(Path file, Entry entry) {
+        try {
+            if (cache.size() >= maxFiles && !cache.containsKey(file)) {
+                cache.clear();
+                rewrite();
+            }
+            cache.put(file, entry);
+
+            if (log == null) return;
+            write(log, file, entry);
+
+            // Digests replaced by newer ones are dropped once they outnumber the current ones
+            if (++logged > 2 * cache.size() + 1024) rewrite();
+        }
+        catch(IOException e) {
+            Logger.getLogger(FileDigests.class.getName()).log(Level.SEVERE, null, e);
+            close();
+        }
+    }
+
+    /**
+     * Reads the digests stored by earlier runs, up to the first incomplete record
+     *
+     * @throws IOException
+     */
+    private void load() throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(store)))) {
+            if (in.readInt() != MAGIC) throw new IOException(store + " is not a digest cache");
+
+            while (cache.size() < maxFiles) {
+                Path file = Paths.get(in.readUTF());
+                long length = in.readLong();
+                long modified = in.readLong();
+                byte[] sha256 = new byte[32];
+                in.readFully(sha256);
+                long xxHash = in.readLong();
+
+                FileDigest digest = new FileDigest(length, TimeUnit.NANOSECONDS.toMillis(modified), sha256, xxHash);
+                cache.put(file, new Entry(modified, digest));
+            }
+        }
+        catch(NoSuchFileException | EOFException e) {
+            // No digests stored yet, or the last one was cut short
+        }
+    }
+
+    /**
+     * Replaces the log with one holding only the cached digests, and keeps appending to it
+     *
+     * @throws IOException
+     */
+    private synchronized void rewrite() throws IOException {
+        close();
+
+        Path temp = store.resolveSibling(store.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            for (Map.Entry<Path, Entry> entry:cache.entrySet()) {
+                write(out, entry.getKey(), entry.getValue());
+            }
+        }
+        Files.move(temp, store, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        log = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(store, StandardOpenOption.APPEND)));
+        logged = cache.size();
+    }
+
+    /**
+     * Writes the digests of a file as a record of the log
+     *
+     * @param out - stream to write to
+     * @param file - absolute path of the file
+     * @param entry - digests of the file and the modification time they were computed at
+     * @throws IOException
+     */
+    private static void write(DataOutputStream out, Path file, Entry entry) throws IOException {
+        out.writeUTF(file.toString());
+        out.writeLong(entry.digest.getLength());
+        out.writeLong(entry.modified);
+        out.write(entry.digest.getSha256());
+        out.writeLong(entry.digest.getXxHash());
+    }
+
+    /**
+     * Writes the digests waiting in the log's buffer to disk
+     */
+    synchronized void flush() {
+        if (log == null) return;
+
+        try {
+            log.flush();
+        }
+        catch(IOException e) {
+            Logger.getLogger(FileDigests.class.getName()).log(Level.SEVERE, null, e);
+            close();
+        }
+    }
+
+    /**
+     * Stops writing to the log, which keeps working as a cache in memory only
+     */
+    private synchronized void close() {
+        if (log == null) return;
+
+        try {
+            log.close();
+        }
+        catch(IOException e) {
+            Logger.getLogger(FileDigests.class.getName()).log(Level.SEVERE, null, e);
+        }
+        log = null;
+    }
+
+    /**
+     * Digests of a file and the exact modification time they were computed at
+     */
+    private static class Entry {
+        final long modified;
+        final FileDigest digest;
+
+        Entry(long modified, FileDigest digest) {
+            this.modified = modified;
+            this.digest = digest;
+        }
+    }
+}
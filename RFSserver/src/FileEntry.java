@@ -0,0 +1,69 @@
+import java.io.Serializable;
+
+/**
+ * Name and attributes of a single file or directory, as read by the server
+ *
+ * @author Bernardo Lopes - a32040
+ * @author Tiago Padrão - a33061
+ */
+class FileEntry implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final String name;
+    private final boolean directory;
+    private final long length;
+    private final long lastModified;
+    private final String permissions;
+
+    /**
+     * Creates a new entry
+     *
+     * @param name - name of the file or directory, without the parent path
+     * @param directory - true if the entry is a directory
+     * @param length - length in bytes
+     * @param lastModified - milliseconds since epoch
+     * @param permissions - permissions string (e.g. rwxr-x---), or null if not available
+     */
+    FileEntry(String name, boolean directory, long length, long lastModified, String permissions) {
+        this.name = name;
+        this.directory = directory;
+        this.length = length;
+        this.lastModified = lastModified;
+        this.permissions = permissions;
+    }
+
+    /**
+     * @return name of the file or directory
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return true if it's a directory, false otherwise
+     */
+    public boolean isDirectory() {
+        return directory;
+    }
+
+    /**
+     * @return length in bytes
+     */
+    public long getLength() {
+        return length;
+    }
+
+    /**
+     * @return milliseconds since epoch
+     */
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    /**
+     * @return permissions string, or null if they were not requested or are not supported
+     */
+    public String getPermissions() {
+        return permissions;
+    }
+}
@@ -0,0 +1,122 @@
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram of latencies, recorded without locks
+ *
+ * Values are counted in buckets whose width grows with the value, sixteen
+ * buckets for each power of two, so every value is kept within about 6% of
+ * its real value whatever its magnitude. Recording is a couple of atomic
+ * additions, so many threads can record into the same histogram at once.
+ * Reading a percentile walks the buckets, so it's meant to be done rarely.
+ *
+ * @author Bernardo Lopes - a32040
+ * @author Tiago Padrão - a33061
+ */
+class Histogram {
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(64 * SUB_BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    /**
+     * Records a value
+     *
+     * @param value - value to record, negative values are recorded as 0
+     */
+    void record(long value) {
+        value = Math.max(0, value);
+        buckets.incrementAndGet(bucketOf(value));
+        count.increment();
+        sum.add(value);
+        max.accumulate(value);
+    }
+
+    /**
+     * @return number of values recorded
+     */
+    long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * @return mean of the values recorded, or 0 if there are none
+     */
+    double getMean() {
+        long n = count.sum();
+        return n == 0 ? 0 : (double) sum.sum() / n;
+    }
+
+    /**
+     * @return largest value recorded
+     */
+    long getMax() {
+        return max.get();
+    }
+
+    /**
+     * Returns the value below which a fraction of the recorded values are
+     *
+     * @param fraction - fraction of the values, from 0 to 1
+     * @return highest value of the bucket the percentile falls in, or 0 if there are no values
+     */
+    long getPercentile(double fraction) {
+        long[] counts = new long[buckets.length()];
+        long total = 0;
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = buckets.get(i);
+            total += counts[i];
+        }
+        if (total == 0) return 0;
+
+        long rank = Math.max(1, (long) Math.ceil(fraction * total));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) return Math.min(highestValueOf(i), getMax());
+        }
+
+        return getMax();
+    }
+
+    /**
+     * Forgets every value recorded. Values recorded at the same time may be partly kept
+     */
+    void reset() {
+        for (int i = 0; i < buckets.length(); i++) {
+            buckets.set(i, 0);
+        }
+        count.reset();
+        sum.reset();
+        max.reset();
+    }
+
+    /**
+     * Values below 2 * SUB_BUCKETS each get a bucket of their own, the rest
+     * are bucketed by their highest SUB_BUCKET_BITS + 1 bits
+     *
+     * @param value - non-negative value
+     * @return index of the bucket the value is counted in
+     */
+    private static int bucketOf(long value) {
+        int shift = 64 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS - 1;
+        if (shift <= 0) return (int) value;
+        return shift * SUB_BUCKETS + (int) (value >>> shift);
+    }
+
+    /**
+     * @param bucket - index of a bucket
+     * @return highest value counted in the bucket
+     */
+    private static long highestValueOf(int bucket) {
+        if (bucket < 2 * SUB_BUCKETS) return bucket;
+
+        int shift = bucket / SUB_BUCKETS - 1;
+        long mantissa = bucket - shift * SUB_BUCKETS;
+        return ((mantissa + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,61 @@
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters and state of a job, updated by the tasks doing its work
+ *
+ * @author Bernardo Lopes - a32040
+ * @author Tiago Padrão - a33061
+ */
+class Job {
+    final AtomicLong completed = new AtomicLong();
+    final AtomicLong failed = new AtomicLong();
+    final AtomicLong bytes = new AtomicLong();
+    private volatile boolean cancelled;
+    private volatile boolean finished;
+    private volatile long finishTime;
+
+    /**
+     * Asks the job's tasks to stop as soon as possible
+     */
+    void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * @return true if the job was asked to stop
+     */
+    boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Marks the job as finished
+     */
+    void finish() {
+        finishTime = System.currentTimeMillis();
+        finished = true;
+    }
+
+    /**
+     * @return true if the job is no longer running
+     */
+    boolean isFinished() {
+        return finished;
+    }
+
+    /**
+     * @return milliseconds since epoch when the job finished
+     */
+    long getFinishTime() {
+        return finishTime;
+    }
+
+    /**
+     * @return a snapshot of the job's progress
+     */
+    JobStatus getStatus() {
+        JobStatus.State state = !finished ? JobStatus.State.RUNNING
+                : cancelled ? JobStatus.State.CANCELLED : JobStatus.State.COMPLETED;
+        return new JobStatus(state, completed.get(), failed.get(), bytes.get());
+    }
+}
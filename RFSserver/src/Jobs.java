@@ -0,0 +1,115 @@
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Jobs running in the background, which clients poll for progress or cancel
+ *
+ * Jobs run on a bounded fork/join pool, so tree operations can split their
+ * work into parallel tasks without starting threads of their own. The calls
+ * that do the same kind of work while the client waits have a pool of their
+ * own, since background jobs skip the server's admission queues and would
+ * otherwise take the threads those calls were admitted to. Finished jobs
+ * are kept for a while so clients can read their result.
+ *
+ * @author Bernardo Lopes - a32040
+ * @author Tiago Padrão - a33061
+ */
+class Jobs {
+    private final ForkJoinPool pool;
+    private final ForkJoinPool callPool;
+    private final Map<Long, Job> jobs = new ConcurrentHashMap<>();
+    private final AtomicLong nextId = new AtomicLong();
+    private final long retention;
+
+    /**
+     * Creates a new set of jobs
+     *
+     * @param parallelism - number of threads running the jobs' tasks
+     * @param callParallelism - number of threads running the tasks of calls waited for
+     * @param retention - milliseconds a finished job is kept before being forgotten
+     */
+    Jobs(int parallelism, int callParallelism, long retention) {
+        this.pool = new ForkJoinPool(parallelism);
+        this.callPool = new ForkJoinPool(callParallelism);
+        this.retention = retention;
+
+        ScheduledExecutorService reaper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "job-reaper");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        long period = Math.max(retention / 2, 1);
+        reaper.scheduleWithFixedDelay(this::expire, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return the pool for the tasks of calls the client waits for, separate from the jobs'
+     */
+    ForkJoinPool getPool() {
+        return callPool;
+    }
+
+    /**
+     * Starts a new job in the background
+     *
+     * @param work - work of the job, run on the pool
+     * @return id of the job
+     */
+    long start(Consumer<Job> work) {
+        long id = nextId.incrementAndGet();
+        Job job = new Job();
+        jobs.put(id, job);
+
+        pool.execute(() -> {
+            try {
+                work.accept(job);
+            }
+            catch(RuntimeException e) {
+                Logger.getLogger(Jobs.class.getName()).log(Level.SEVERE, null, e);
+            }
+            finally {
+                job.finish();
+            }
+        });
+
+        return id;
+    }
+
+    /**
+     * Returns the progress of a job
+     *
+     * @param id - id of the job
+     * @return status of the job, or null if it doesn't exist or was forgotten
+     */
+    JobStatus getStatus(long id) {
+        Job job = jobs.get(id);
+        return job == null ? null : job.getStatus();
+    }
+
+    /**
+     * Asks a job to stop
+     *
+     * @param id - id of the job
+     */
+    void cancel(long id) {
+        Job job = jobs.get(id);
+        if (job != null) job.cancel();
+    }
+
+    /**
+     * Forgets the jobs that finished longer ago than the retention time
+     */
+    private void expire() {
+        long now = System.currentTimeMillis();
+        jobs.values().removeIf(job -> job.isFinished() && now - job.getFinishTime() > retention);
+    }
+}
@@ -0,0 +1,150 @@
+import java.io.Serializable;
+
+/**
+ * How listDirectory sorts, filters and trims the entries of a directory
+ *
+ * By default every entry is returned, in the order the directory is read,
+ * with all of its attributes. Each method changes one option and returns
+ * the same options, so they can be chained.
+ *
+ * @author Bernardo Lopes - a32040
+ * @author Tiago Padrão - a33061
+ */
+public class ListingOptions implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    /** Attribute holding the length of each entry */
+    public static final int LENGTH = 1;
+    /** Attribute holding the modification date of each entry */
+    public static final int MODIFIED = 2;
+    /** Attribute holding the permissions of each entry */
+    public static final int PERMISSIONS = 4;
+    /** Every attribute */
+    public static final int ALL_ATTRIBUTES = LENGTH | MODIFIED | PERMISSIONS;
+
+    /**
+     * Keys the entries can be sorted by
+     */
+    public enum SortKey {
+        /** The order the directory is read in */
+        NONE,
+        /** Name, ignoring case */
+        NAME,
+        /** Length in bytes */
+        SIZE,
+        /** Modification date */
+        MODIFIED,
+        /** Directories, then files by extension */
+        TYPE
+    }
+
+    /**
+     * Types of entry that are returned
+     */
+    public enum TypeFilter {
+        /** Files and directories */
+        ALL,
+        /** Files only */
+        FILES,
+        /** Directories only */
+        DIRECTORIES
+    }
+
+    private SortKey sortKey = SortKey.NONE;
+    private boolean descending;
+    private String pattern;
+    private TypeFilter type = TypeFilter.ALL;
+    private int attributes = ALL_ATTRIBUTES;
+    private int limit;
+
+    /**
+     * @param key - key to sort by
+     * @param descending - true to sort from the largest to the smallest
+     * @return these options
+     */
+    public ListingOptions sortBy(SortKey key, boolean descending) {
+        this.sortKey = key;
+        this.descending = descending;
+        return this;
+    }
+
+    /**
+     * @param glob - glob the names must match (e.g. *.txt), or null to return every name
+     * @return these options
+     */
+    public ListingOptions matching(String glob) {
+        this.pattern = glob;
+        return this;
+    }
+
+    /**
+     * @param filter - types of entry to return
+     * @return these options
+     */
+    public ListingOptions only(TypeFilter filter) {
+        this.type = filter;
+        return this;
+    }
+
+    /**
+     * @param attributes - attributes to return, combined from LENGTH, MODIFIED
+     * and PERMISSIONS, the name and type are always returned
+     * @return these options
+     */
+    public ListingOptions withAttributes(int attributes) {
+        this.attributes = attributes;
+        return this;
+    }
+
+    /**
+     * @param maxEntries - maximum number of entries to return, the first ones
+     * in the sort order, or 0 to return them all
+     * @return these options
+     */
+    public ListingOptions limit(int maxEntries) {
+        this.limit = maxEntries;
+        return this;
+    }
+
+    /**
+     * @return key to sort by
+     */
+    public SortKey getSortKey() {
+        return sortKey;
+    }
+
+    /**
+     * @return true if sorted from the largest to the smallest
+     */
+    public boolean isDescending() {
+        return descending;
+    }
+
+    /**
+     * @return glob the names must match, or null if every name is returned
+     */
+    public String getPattern() {
+        return pattern;
+    }
+
+    /**
+     * @return types of entry to return
+     */
+    public TypeFilter getType() {
+        return type;
+    }
+
+    /**
+     * @return attributes to return
+     */
+    public int getAttributes() {
+        return attributes;
+    }
+
+    /**
+     * @return maximum number of entries to return, or 0 if there is no limit
+     */
+    public int getLimit() {
+        return limit;
+    }
+}
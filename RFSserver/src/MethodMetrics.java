@@ -0,0 +1,132 @@
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Metrics of a single protocol method
+ *
+ * Counters are LongAdders and latencies go into a lock-free histogram, so
+ * recording a call doesn't make concurrent calls wait on each other.
+ *
+ * @author Bernardo Lopes - a32040
+ * @author Tiago Padrão - a33061
+ */
+public class MethodMetrics implements MethodMetricsMBean {
+    private final String name;
+    private final Histogram latency = new Histogram();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder bytesReturned = new LongAdder();
+    private final LongAdder bytesReceived = new LongAdder();
+    private final LongAdder itemsReturned = new LongAdder();
+
+    /**
+     * Creates the metrics of a method
+     *
+     * @param name - name of the method
+     */
+    MethodMetrics(String name) {
+        this.name = name;
+    }
+
+    /**
+     * @return name of the method
+     */
+    String getName() {
+        return name;
+    }
+
+    /**
+     * Records a finished call
+     *
+     * @param nanos - time the call took in nanoseconds
+     * @param failed - true if the call failed
+     */
+    void recordCall(long nanos, boolean failed) {
+        latency.record(nanos);
+        if (failed) errors.increment();
+    }
+
+    /**
+     * Records the data a call returned
+     *
+     * @param bytes - bytes of file data
+     * @param items - number of entries or names
+     */
+    void recordReturned(long bytes, long items) {
+        if (bytes > 0) bytesReturned.add(bytes);
+        if (items > 0) itemsReturned.add(items);
+    }
+
+    /**
+     * Records the data a call received
+     *
+     * @param bytes - bytes of file data
+     */
+    void recordReceived(long bytes) {
+        if (bytes > 0) bytesReceived.add(bytes);
+    }
+
+    @Override
+    public long getCalls() {
+        return latency.getCount();
+    }
+
+    @Override
+    public long getErrors() {
+        return errors.sum();
+    }
+
+    @Override
+    public long getBytesReturned() {
+        return bytesReturned.sum();
+    }
+
+    @Override
+    public long getBytesReceived() {
+        return bytesReceived.sum();
+    }
+
+    @Override
+    public long getItemsReturned() {
+        return itemsReturned.sum();
+    }
+
+    @Override
+    public double getLatencyMeanMicros() {
+        return latency.getMean() / 1e3;
+    }
+
+    @Override
+    public double getLatencyP50Micros() {
+        return latency.getPercentile(0.5) / 1e3;
+    }
+
+    @Override
+    public double getLatencyP99Micros() {
+        return latency.getPercentile(0.99) / 1e3;
+    }
+
+    @Override
+    public double getLatencyP999Micros() {
+        return latency.getPercentile(0.999) / 1e3;
+    }
+
+    @Override
+    public double getLatencyMaxMicros() {
+        return latency.getMax() / 1e3;
+    }
+
+    @Override
+    public void reset() {
+        latency.reset();
+        errors.reset();
+        bytesReturned.reset();
+        bytesReceived.reset();
+        itemsReturned.reset();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s: calls=%d errors=%d mean=%.1fus p50=%.1fus p99=%.1fus max=%.1fus bytesOut=%d bytesIn=%d items=%d",
+                name, getCalls(), getErrors(), getLatencyMeanMicros(), getLatencyP50Micros(), getLatencyP99Micros(),
+                getLatencyMaxMicros(), getBytesReturned(), getBytesReceived(), getItemsReturned());
+    }
+}
@@ -0,0 +1,63 @@
+/**
+ * Metrics of a single protocol method, as published through JMX
+ *
+ * @author Bernardo Lopes - a32040
+ * @author Tiago Padrão - a33061
+ */
+public interface MethodMetricsMBean {
+
+    /**
+     * @return number of calls made to the method
+     */
+    long getCalls();
+
+    /**
+     * @return number of calls that threw an exception or logged an error
+     */
+    long getErrors();
+
+    /**
+     * @return bytes of file data the method returned to clients
+     */
+    long getBytesReturned();
+
+    /**
+     * @return bytes of file data the method received from clients
+     */
+    long getBytesReceived();
+
+    /**
+     * @return number of entries or names the method returned to clients
+     */
+    long getItemsReturned();
+
+    /**
+     * @return mean latency of the calls in microseconds
+     */
+    double getLatencyMeanMicros();
+
+    /**
+     * @return median latency of the calls in microseconds
+     */
+    double getLatencyP50Micros();
+
+    /**
+     * @return 99th percentile latency of the calls in microseconds
+     */
+    double getLatencyP99Micros();
+
+    /**
+     * @return 99.9th percentile latency of the calls in microseconds
+     */
+    double getLatencyP999Micros();
+
+    /**
+     * @return highest latency of the calls in microseconds
+     */
+    double getLatencyMaxMicros();
+
+    /**
+     * Sets every metric of the method back to zero
+     */
+    void reset();
+}
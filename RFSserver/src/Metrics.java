@@ -0,0 +1,223 @@
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Measures the calls made to the methods of a remote interface
+ *
+ * The object being measured is wrapped in a proxy that times every call and
+ * records it in the metrics of its method, together with the file data and
+ * entries it moved. A call fails if it throws or if an error is logged
+ * while it runs, since most methods log their errors and return null or -1.
+ * The metrics of each method are published as an MBean and can also be
+ * logged periodically.
+ *
+ * @author Bernardo Lopes - a32040
+ * @author Tiago Padrão - a33061
+ */
+class Metrics {
+    private final Class<?> type;
+    private final Map<Method, MethodMetrics> methods = new HashMap<>();
+    private final ThreadLocal<Call> current = new ThreadLocal<>();
+
+    /**
+     * Creates the metrics of every method of an interface
+     *
+     * @param type - interface whose methods are measured
+     */
+    Metrics(Class<?> type) {
+        this.type = type;
+
+        // Filled once here and only read afterwards, so it needs no synchronization
+        for (Method method:type.getMethods()) {
+            methods.put(method, new MethodMetrics(method.getName()));
+        }
+    }
+
+    /**
+     * @return metrics of each method
+     */
+    Collection<MethodMetrics> getMethods() {
+        return methods.values();
+    }
+
+    /**
+     * Wraps an object so every call made to it is measured
+     *
+     * @param <T> - type of the interface
+     * @param target - object to measure
+     * @return proxy implementing the interface that forwards calls to the object
+     */
+    @SuppressWarnings("unchecked")
+    <T> T instrument(T target) {
+        // Errors logged anywhere while a call is running count against it
+        Logger.getLogger("").addHandler(new ErrorCounter());
+
+        InvocationHandler handler = (proxy, method, args) -> invoke(target, method, args);
+        return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, handler);
+    }
+
+    /**
+     * Forwards a call to the measured object and records it
+     *
+     * @param target - measured object
+     * @param method - method called
+     * @param args - arguments of the call
+     * @return result of the call
+     * @throws Throwable whatever the method threw
+     */
+    private Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        MethodMetrics metrics = methods.get(method);
+        if (metrics == null) return invokeTarget(target, method, args);
+
+        recordReceived(metrics, args);
+
+        Call call = new Call();
+        Call outer = current.get();
+        current.set(call);
+        long start = System.nanoTime();
+
+        try {
+            Object result = invokeTarget(target, method, args);
+            recordReturned(metrics, result);
+            return result;
+        }
+        catch(Throwable e) {
+            call.failed = true;
+            throw e;
+        }
+        finally {
+            metrics.recordCall(System.nanoTime() - start, call.failed);
+            current.set(outer);
+        }
+    }
+
+    /**
+     * @param target - object to call
+     * @param method - method to call
+     * @param args - arguments of the call
+     * @return result of the call
+     * @throws Throwable whatever the method threw, unwrapped
+     */
+    private static Object invokeTarget(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        }
+        catch(InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Records the file data a call received
+     *
+     * @param metrics - metrics of the method called
+     * @param args - arguments of the call
+     */
+    private static void recordReceived(MethodMetrics metrics, Object[] args) {
+        if (args == null) return;
+
+        for (Object arg:args) {
+            if (arg instanceof FileChunk) metrics.recordReceived(((FileChunk) arg).getLength());
+        }
+    }
+
+    /**
+     * Records the file data or entries a call returned. Their marshalled size
+     * isn't known at this point, so listings are counted in entries
+     *
+     * @param metrics - metrics of the method called
+     * @param result - result of the call
+     */
+    private static void recordReturned(MethodMetrics metrics, Object result) {
+        if (result instanceof FileChunk) {
+            metrics.recordReturned(((FileChunk) result).getLength(), 0);
+        }
+        else if (result instanceof DirectoryListing) {
+            metrics.recordReturned(0, ((DirectoryListing) result).getEntries().length);
+        }
+        else if (result instanceof Object[]) {
+            metrics.recordReturned(0, ((Object[]) result).length);
+        }
+    }
+
+    /**
+     * Publishes the metrics of every method as an MBean named
+     * RFS:type=Protocol,name=method
+     *
+     * @param server - server to register the MBeans with
+     * @throws JMException if an MBean can't be registered
+     */
+    void register(MBeanServer server) throws JMException {
+        for (MethodMetrics metrics:methods.values()) {
+            server.registerMBean(metrics, new ObjectName("RFS:type=" + type.getSimpleName() + ",name=" + metrics.getName()));
+        }
+    }
+
+    /**
+     * Starts logging the metrics of the methods that were called, every period
+     *
+     * @param period - milliseconds between logs
+     */
+    void startLogging(long period) {
+        ScheduledExecutorService logger = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "metrics-log");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        logger.scheduleAtFixedRate(this::log, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Logs the metrics of the methods that were called
+     */
+    private void log() {
+        for (MethodMetrics metrics:methods.values()) {
+            if (metrics.getCalls() > 0) Logger.getLogger(Metrics.class.getName()).log(Level.INFO, metrics.toString());
+        }
+    }
+
+    /**
+     * A call being measured
+     */
+    private static class Call {
+        boolean failed;
+    }
+
+    /**
+     * Marks the running call as failed when an error is logged on its thread
+     */
+    private class ErrorCounter extends Handler {
+
+        @Override
+        public void publish(LogRecord record) {
+            if (record.getLevel().intValue() < Level.SEVERE.intValue()) return;
+
+            Call call = current.get();
+            if (call != null) call.failed = true;
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,589 @@
+import java.io.IOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * In-memory index of the names in a directory tree, used to search it by name
+ *
+ * Every directory is kept as a sorted array of the names in it, in a map
+ * sorted by path, so the directories below a given one are a single range
+ * of the map. The index is built in the background, one directory at a
+ * time, and can be searched while it's being built. Each directory is
+ * watched before it's read, so changes made while the tree is being read
+ * are not lost, and the index is kept up to date from the watcher's events.
+ * Symbolic links are indexed by name but never followed.
+ *
+ * The system only allows so many watches (fs.inotify.max_user_watches on
+ * Linux), so a large tree may not be fully watched. Directories that can't
+ * be watched are read again periodically instead, and searches in them are
+ * reported as possibly out of date until they are.
+ *
+ * Each name is also kept with the directories it appears in, so a search
+ * matches every distinct name once instead of every entry of the tree, and
+ * prefix globs only look at the range of names they can match.
+ *
+ * @author Bernardo Lopes - a32040
+ * @author Tiago Padrão - a33061
+ */
+class PathIndex {
+    // Matches found through the names above which the whole tree is read instead
+    private static final int MAX_CANDIDATES = 1 << 16;
+
+    private static final Comparator<String[]> BY_DIRECTORY = Comparator.comparing((String[] match) -> match[0])
+            .thenComparing(match -> match[1]);
+
+    private final ConcurrentSkipListMap<String, String[]> directories = new ConcurrentSkipListMap<>();
+    private final ConcurrentSkipListMap<String, Set<String>> names = new ConcurrentSkipListMap<>();
+    private final ConcurrentSkipListSet<String> unwatched = new ConcurrentSkipListSet<>();
+    private final DirectoryWatcher watcher;
+    private final DirectoryListener listener = new IndexListener();
+    private final ScheduledExecutorService updater;
+    private volatile boolean ready;
+
+    /**
+     * Creates a new, empty index
+     *
+     * @param watcher - watcher the index gets the changes to the tree from
+     * @param rescan - milliseconds between the readings of the directories that can't be watched
+     */
+    PathIndex(DirectoryWatcher watcher, long rescan) {
+        this.watcher = watcher;
+        this.updater = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "path-index");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        updater.scheduleWithFixedDelay(this::rescan, rescan, rescan, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Starts indexing a directory tree in the background
+     *
+     * @param root - root of the tree
+     */
+    void build(Path root) {
+        updater.execute(() -> {
+            long start = System.currentTimeMillis();
+            add(root);
+            ready = true;
+
+            Logger.getLogger(PathIndex.class.getName()).log(Level.INFO, "Indexed {0} directories in {1} ms, {2} of them not watched",
+                    new Object[]{directories.size(), System.currentTimeMillis() - start, unwatched.size()});
+        });
+    }
+
+    /**
+     * @return true once the whole tree has been read at least once
+     */
+    boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * Checks if searching a directory sees every change made below it
+     *
+     * @param root - directory to search in
+     * @return false while the tree is still being read, or if some of the
+     * directories below the root can't be watched and are only read periodically
+     */
+    boolean isComplete(Path root) {
+        String rootName = root.toString();
+        return ready && !unwatched.contains(rootName) && unwatched.subSet(rootName + "/", rootName + "0").isEmpty();
+    }
+
+    /**
+     * Searches a directory and everything below it by name
+     *
+     * Plain patterns match names containing them, ignoring case. Patterns
+     * starting with "glob:" or "regex:" match whole names with the given
+     * syntax, as in FileSystem.getPathMatcher
+     *
+     * @param root - directory to search in
+     * @param pattern - pattern the names must match
+     * @param offset - number of matches to skip
+     * @param maxResults - maximum number of matches to return
+     * @return absolute paths of the matches, sorted by directory and name
+     * @throws PatternSyntaxException if the pattern is not valid
+     */
+    String[] search(Path root, String pattern, int offset, int maxResults) {
+        NameMatcher matcher = compile(pattern);
+
+        String[] results = searchNames(root.toString(), pattern, matcher, offset, maxResults);
+        return results != null ? results : searchDirectories(root, matcher, offset, maxResults);
+    }
+
+    /**
+     * Searches the distinct names of the tree, then the directories each match is in
+     *
+     * @param rootName - directory to search in
+     * @param pattern - pattern the names must match
+     * @param matcher - test the names must pass
+     * @param offset - number of matches to skip
+     * @param maxResults - maximum number of matches to return
+     * @return absolute paths of the matches, sorted by directory and name,
+     * or null if there are too many to sort and the directories should be read in order instead
+     */
+    private String[] searchNames(String rootName, String pattern, NameMatcher matcher, int offset, int maxResults) {
+        String prefix = prefixOf(pattern);
+        Map<String, Set<String>> range = prefix == null ? names : names.subMap(prefix, prefix + Character.MAX_VALUE);
+        String below = rootName + "/";
+        List<String[]> matches = new ArrayList<>();
+
+        for (Map.Entry<String, Set<String>> name:range.entrySet()) {
+            if (!matcher.matches(name.getKey())) continue;
+
+            for (String directory:name.getValue()) {
+                if (!directory.equals(rootName) && !directory.startsWith(below)) continue;
+
+                matches.add(new String[]{directory, name.getKey()});
+                if (matches.size() > MAX_CANDIDATES) return null;
+            }
+        }
+
+        matches.sort(BY_DIRECTORY);
+
+        int end = (int) Math.min(matches.size(), (long) offset + maxResults);
+        List<String> results = new ArrayList<>(Math.max(end - offset, 0));
+        for (int i = offset; i < end; i++) {
+            results.add(matches.get(i)[0] + "/" + matches.get(i)[1]);
+        }
+
+        return results.toArray(new String[results.size()]);
+    }
+
+    /**
+     * Searches the directories of the tree in order, stopping once enough matches are found
+     *
+     * @param root - directory to search in
+     * @param matcher - test the names must pass
+     * @param offset - number of matches to skip
+     * @param maxResults - maximum number of matches to return
+     * @return absolute paths of the matches, sorted by directory and name
+     */
+    private String[] searchDirectories(Path root, NameMatcher matcher, int offset, int maxResults) {
+        List<String> results = new ArrayList<>(Math.min(maxResults, 1024));
+        String rootName = root.toString();
+        int skip = offset;
+
+        String[] rootNames = directories.get(rootName);
+        if (rootNames != null) skip = collect(rootName, rootNames, matcher, skip, results, maxResults);
+
+        // The directories below the root are the range of paths starting with "root/"
+        ConcurrentNavigableMap<String, String[]> below = directories.subMap(rootName + "/", rootName + "0");
+        for (Map.Entry<String, String[]> directory:below.entrySet()) {
+            if (results.size() >= maxResults) break;
+            skip = collect(directory.getKey(), directory.getValue(), matcher, skip, results, maxResults);
+        }
+
+        return results.toArray(new String[results.size()]);
+    }
+
+    /**
+     * Adds the names of a directory that match a search to its results
+     *
+     * @param directory - path of the directory
+     * @param names - names in the directory
+     * @param matcher - test the names must pass
+     * @param skip - number of matches still to skip
+     * @param results - paths of the matches found so far
+     * @param maxResults - maximum number of matches to return
+     * @return number of matches still to skip
+     */
+    private static int collect(String directory, String[] names, NameMatcher matcher, int skip, List<String> results, int maxResults) {
+        for (String name:names) {
+            if (results.size() >= maxResults) break;
+            if (!matcher.matches(name)) continue;
+
+            if (skip > 0) {
+                skip--;
+            }
+            else {
+                results.add(directory + "/" + name);
+            }
+        }
+
+        return skip;
+    }
+
+    /**
+     * Reads a directory tree into the index, watching each of its directories
+     *
+     * @param root - root of the tree
+     */
+    private void add(Path root) {
+        List<Path> pending = new ArrayList<>();
+        pending.add(root);
+
+        while (!pending.isEmpty()) {
+            Path directory = pending.remove(pending.size() - 1);
+
+            // Watched before being read, so nothing created in the meantime is missed
+            watch(directory);
+
+            List<String> found = new ArrayList<>();
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+                for (Path path:stream) {
+                    if (Uploads.isTemporary(path)) continue;
+
+                    found.add(path.getFileName().toString());
+                    if (Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) pending.add(path);
+                }
+            }
+            catch(NoSuchFileException e) {
+                continue;
+            }
+            catch(IOException | DirectoryIteratorException | SecurityException e) {
+                Logger.getLogger(PathIndex.class.getName()).log(Level.WARNING, "Could not index " + directory, e);
+            }
+
+            String[] sorted = found.toArray(new String[found.size()]);
+            Arrays.sort(sorted);
+            put(directory.toString(), sorted);
+        }
+    }
+
+    /**
+     * Watches a directory, or marks it to be read periodically if it can't be watched
+     *
+     * @param directory - directory to watch
+     * @return true if the directory is watched
+     */
+    private boolean watch(Path directory) {
+        try {
+            watcher.watch(directory, listener, true);
+            return true;
+        }
+        catch(IOException | SecurityException e) {
+            // Usually the system's limit of watches, which is only reported the first time
+            Level level = unwatched.isEmpty() ? Level.WARNING : Level.FINE;
+            Logger.getLogger(PathIndex.class.getName()).log(level, "Could not watch " + directory
+                    + ", it and any other directory that can't be watched will be read periodically", e);
+            unwatched.add(directory.toString());
+            return false;
+        }
+    }
+
+    /**
+     * Reads again the directories that couldn't be watched, watching the ones
+     * that can be by now
+     */
+    private void rescan() {
+        for (String directoryName:unwatched) {
+            String[] indexed = directories.get(directoryName);
+            if (indexed == null) {
+                unwatched.remove(directoryName);
+                continue;
+            }
+
+            // Read once more after being watched, for the changes made before
+            Path directory = Paths.get(directoryName);
+            if (watch(directory)) unwatched.remove(directoryName);
+
+            List<DirectoryChange> changes = new ArrayList<>();
+            Set<String> found = new HashSet<>();
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+                for (Path path:stream) {
+                    if (Uploads.isTemporary(path)) continue;
+
+                    String name = path.getFileName().toString();
+                    boolean isDirectory = Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS);
+                    found.add(name);
+
+                    // New names, and the ones that became or stopped being directories
+                    if (Arrays.binarySearch(indexed, name) < 0 || isDirectory != directories.containsKey(path.toString())) {
+                        changes.add(new DirectoryChange(DirectoryChange.Kind.MODIFIED, name, new FileEntry(name, isDirectory, 0, 0, null)));
+                    }
+                }
+            }
+            catch(NoSuchFileException e) {
+                remove(directory);
+                continue;
+            }
+            catch(IOException | DirectoryIteratorException | SecurityException e) {
+                Logger.getLogger(PathIndex.class.getName()).log(Level.WARNING, "Could not index " + directory, e);
+                continue;
+            }
+
+            for (String name:indexed) {
+                if (!found.contains(name)) changes.add(new DirectoryChange(DirectoryChange.Kind.DELETED, name, null));
+            }
+
+            update(directory, changes.toArray(new DirectoryChange[changes.size()]));
+        }
+    }
+
+    /**
+     * Replaces the names of a directory
+     *
+     * @param directory - path of the directory
+     * @param sorted - sorted names in the directory
+     */
+    private void put(String directory, String[] sorted) {
+        String[] previous = directories.put(directory, sorted);
+        if (previous != null) {
+            for (String name:previous) unindex(directory, name);
+        }
+
+        for (String name:sorted) index(directory, name);
+    }
+
+    /**
+     * Adds a directory to the ones a name appears in
+     *
+     * @param directory - path of the directory
+     * @param name - name in the directory
+     */
+    private void index(String directory, String name) {
+        names.computeIfAbsent(name, key -> ConcurrentHashMap.newKeySet()).add(directory);
+    }
+
+    /**
+     * Removes a directory from the ones a name appears in
+     *
+     * @param directory - path of the directory
+     * @param name - name that was in the directory
+     */
+    private void unindex(String directory, String name) {
+        names.computeIfPresent(name, (key, in) -> {
+            in.remove(directory);
+            return in.isEmpty() ? null : in;
+        });
+    }
+
+    /**
+     * Removes a directory tree from the index and stops watching it
+     *
+     * @param root - root of the tree
+     */
+    private void remove(Path root) {
+        String rootName = root.toString();
+        List<String> removed = new ArrayList<>(directories.subMap(rootName + "/", rootName + "0").keySet());
+        removed.add(rootName);
+
+        for (String directory:removed) {
+            String[] previous = directories.remove(directory);
+            if (previous == null) continue;
+
+            for (String name:previous) unindex(directory, name);
+            if (!unwatched.remove(directory)) watcher.unwatch(root.getFileSystem().getPath(directory), listener);
+        }
+    }
+
+    /**
+     * Applies the changes made to a directory
+     *
+     * @param directory - directory that changed
+     * @param changes - changes to its entries
+     */
+    private void update(Path directory, DirectoryChange[] changes) {
+        for (DirectoryChange change:changes) {
+            // Some events were lost, so the directory is read again
+            if (change.getKind() == DirectoryChange.Kind.OVERFLOW) {
+                remove(directory);
+                add(directory);
+                return;
+            }
+
+            String name = change.getName();
+            Path path = directory.resolve(name);
+
+            if (change.getKind() == DirectoryChange.Kind.DELETED) {
+                if (directories.computeIfPresent(directory.toString(), (key, in) -> without(in, name)) != null) {
+                    unindex(directory.toString(), name);
+                }
+                remove(path);
+            }
+            else {
+                if (directories.computeIfPresent(directory.toString(), (key, in) -> with(in, name)) != null) {
+                    index(directory.toString(), name);
+                }
+
+                // New directories may have been created with their contents already in them
+                boolean indexed = directories.containsKey(path.toString());
+                boolean isDirectory = change.getEntry() != null && change.getEntry().isDirectory()
+                        && !Files.isSymbolicLink(path);
+                if (isDirectory && !indexed) add(path);
+                if (!isDirectory && indexed) remove(path);
+            }
+        }
+    }
+
+    /**
+     * Adds a name to a sorted array of names
+     *
+     * @param names - sorted names
+     * @param name - name to add
+     * @return sorted names including the new one
+     */
+    private static String[] with(String[] names, String name) {
+        int index = Arrays.binarySearch(names, name);
+        if (index >= 0) return names;
+
+        index = -index - 1;
+        String[] updated = new String[names.length + 1];
+        System.arraycopy(names, 0, updated, 0, index);
+        updated[index] = name;
+        System.arraycopy(names, index, updated, index + 1, names.length - index);
+        return updated;
+    }
+
+    /**
+     * Removes a name from a sorted array of names
+     *
+     * @param names - sorted names
+     * @param name - name to remove
+     * @return sorted names without the removed one
+     */
+    private static String[] without(String[] names, String name) {
+        int index = Arrays.binarySearch(names, name);
+        if (index < 0) return names;
+
+        String[] updated = new String[names.length - 1];
+        System.arraycopy(names, 0, updated, 0, index);
+        System.arraycopy(names, index + 1, updated, index, names.length - index - 1);
+        return updated;
+    }
+
+    /**
+     * Finds the prefix every name matching a pattern starts with
+     *
+     * @param pattern - plain, "glob:" or "regex:" pattern
+     * @return the prefix, or null if the names can start with anything
+     */
+    private static String prefixOf(String pattern) {
+        if (!pattern.startsWith("glob:")) return null;
+
+        String glob = pattern.substring(5);
+        int end = 0;
+        while (end < glob.length() && "*?[]{}\\".indexOf(glob.charAt(end)) < 0) end++;
+        return end > 0 ? glob.substring(0, end) : null;
+    }
+
+    /**
+     * Compiles a search pattern
+     *
+     * @param pattern - plain, "glob:" or "regex:" pattern
+     * @return matcher for the pattern
+     * @throws PatternSyntaxException if the pattern is not valid
+     */
+    private static NameMatcher compile(String pattern) {
+        if (pattern.startsWith("regex:")) {
+            Matcher matcher = Pattern.compile(pattern.substring(6)).matcher("");
+            return name -> matcher.reset(name).matches();
+        }
+
+        if (pattern.startsWith("glob:")) {
+            String glob = pattern.substring(5);
+
+            // The most common globs, like "*.txt" or "report*", are matched without a regular expression
+            String literal = glob.replaceAll("^\\*|\\*$", "");
+            if (!literal.matches(".*[*?\\[\\]{}\\\\].*")) {
+                boolean anyStart = glob.startsWith("*"), anyEnd = glob.length() > 1 && glob.endsWith("*");
+                if (anyStart && anyEnd) return name -> name.contains(literal);
+                if (anyStart) return name -> name.endsWith(literal);
+                if (anyEnd) return name -> name.startsWith(literal);
+                return name -> name.equals(literal);
+            }
+
+            Matcher matcher = Pattern.compile(globToRegex(glob)).matcher("");
+            return name -> matcher.reset(name).matches();
+        }
+
+        return name -> containsIgnoreCase(name, pattern);
+    }
+
+    /**
+     * Checks if a name contains a string, ignoring case, without copying the name
+     *
+     * @param name - name to check
+     * @param part - string to look for
+     * @return true if the name contains the string
+     */
+    private static boolean containsIgnoreCase(String name, String part) {
+        for (int i = 0; i <= name.length() - part.length(); i++) {
+            if (name.regionMatches(true, i, part, 0, part.length())) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Translates a glob into a regular expression. Supports *, ?, [...] and {a,b}
+     *
+     * @param glob - glob to translate
+     * @return equivalent regular expression
+     */
+    private static String globToRegex(String glob) {
+        StringBuilder regex = new StringBuilder(glob.length() + 8);
+        boolean inGroup = false, inClass = false;
+
+        for (int i = 0; i < glob.length(); i++) {
+            char c = glob.charAt(i);
+
+            if (inClass) {
+                if (c == ']') inClass = false;
+                if (c == '\\' || c == '[' || c == '&') regex.append('\\');
+                regex.append(c == '!' && glob.charAt(i - 1) == '[' ? '^' : c);
+                continue;
+            }
+
+            switch (c) {
+                case '*': regex.append(".*"); break;
+                case '?': regex.append('.'); break;
+                case '[': regex.append('['); inClass = true; break;
+                case '{': regex.append("(?:"); inGroup = true; break;
+                case '}': regex.append(inGroup ? ")" : "\\}"); inGroup = false; break;
+                case ',': regex.append(inGroup ? "|" : ","); break;
+                default:
+                    if ("\\.^$+()|".indexOf(c) >= 0) regex.append('\\');
+                    regex.append(c);
+            }
+        }
+
+        return regex.toString();
+    }
+
+    /**
+     * Test applied to each name during a search
+     */
+    private interface NameMatcher {
+        boolean matches(String name);
+    }
+
+    /**
+     * Listener the watcher calls with the changes to the indexed directories
+     */
+    private class IndexListener implements DirectoryListener {
+
+        @Override
+        public void directoryChanged(String directoryName, DirectoryChange[] changes) {
+            // Reading new directories may take a while, so it's done off the watcher's thread
+            Path directory = Paths.get(directoryName);
+            updater.execute(() -> update(directory, changes));
+        }
+    }
+}
@@ -1,14 +1,26 @@
+import java.lang.management.ManagementFactory;
 import java.rmi.Remote;
 import java.rmi.RemoteException;
 import java.rmi.registry.LocateRegistry;
 import java.rmi.registry.Registry;
 import java.rmi.server.UnicastRemoteObject;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.management.JMException;
 
 /**
  * @author Bernardo Lopes - a32040
  * @author Tiago Padrão - a33061
  */
 public class RMIServer {
+    // Calls that read whole directories or trees, or move file data, which get a queue of their own
+    private static final Set<String> HEAVY_CALLS = new HashSet<>(Arrays.asList("readDirectory", "readDirectoryEntries", "listDirectory", 
+            "deleteDirectory", "startDeleteDirectory", "startCopy", "startMove", "getDirectorySize", "searchFiles", 
+            "readFile", "writeFile", "executeBatch", "getBlockSignatures", "copyBlocks", "getFileDigest", "getFileDigests", 
+            "openArchive", "readArchive"));
     
     /**
      * @param args the command line arguments
@@ -21,15 +33,39 @@ public class RMIServer {
             System.setSecurityManager(new SecurityManager());
         }
         
-        //1. create our remote object
+        //1. create our remote object, limiting how many calls run at once and measuring every call made to it
         RemoteProtocol p = new RemoteProtocol();
+        int processors = Runtime.getRuntime().availableProcessors();
+        int maxQueued = Integer.getInteger("rfs.admission.queue", 16);
+        long maxWait = Long.getLong("rfs.admission.wait", 10000);
+        Admission admission = new Admission(Protocol.class, 
+                new FairQueue("metadata", Integer.getInteger("rfs.admission.metadata", 4 * processors), maxQueued, maxWait),
+                new FairQueue("heavy", Integer.getInteger("rfs.admission.heavy", processors), maxQueued, maxWait), 
+                HEAVY_CALLS);
+        Metrics metrics = new Metrics(Protocol.class);
+        Protocol measured = metrics.instrument(admission.guard((Protocol) p));
         //2. create the registry
         Registry registry = LocateRegistry.createRegistry(1099);
-        //3. export the object
-        Protocol pp = (Protocol)UnicastRemoteObject.exportObject((Remote) p,0);
+        //3. export the object, compressing its connections if a compression level is set
+        int level = Integer.getInteger("rfs.compression.level", 0);
+        int threshold = Integer.getInteger("rfs.compression.threshold", 1024);
+        Protocol pp = level > 0
+                ? (Protocol)UnicastRemoteObject.exportObject((Remote) measured, 0, new CompressingClientSocketFactory(level, threshold), new CompressingServerSocketFactory(level, threshold))
+                : (Protocol)UnicastRemoteObject.exportObject((Remote) measured,0);
         //4. register the remote object of the registry
         registry.rebind("myProtocol", (Remote) pp);
         //5. create the shared directory
         pp.createDirectory(pp.getDefaultDirectoryPath());
+        //6. index the shared directory so it can be searched
+        if (Boolean.parseBoolean(System.getProperty("rfs.index", "true"))) p.startIndexing();
+        //7. publish the metrics through JMX, and to the log if a period is set
+        try {
+            metrics.register(ManagementFactory.getPlatformMBeanServer());
+        }
+        catch(JMException e) {
+            Logger.getLogger(RMIServer.class.getName()).log(Level.SEVERE, null, e);
+        }
+        long period = Long.getLong("rfs.metrics.log", 0);
+        if (period > 0) metrics.startLogging(period);
     }
 }
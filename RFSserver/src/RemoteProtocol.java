@@ -1,14 +1,55 @@
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.nio.file.attribute.PosixFilePermissions;
 import java.rmi.RemoteException;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.regex.PatternSyntaxException;
 
 /**
  * @author Bernardo Lopes - a32040
  * @author Tiago Padrão - a33061
  */
 public class RemoteProtocol implements Protocol{
+    // Copy numbers tried before giving up on finding a free name
+    private static final int MAX_COPIES = 10000;
+    
+    // Largest block a file is signed in, for delta uploads
+    private static final int MAX_BLOCK_SIZE = 1 << 20;
+    
+    private final DirectoryCursors cursors = new DirectoryCursors(Long.getLong("rfs.cursor.lease", 60000), 
+            Integer.getInteger("rfs.cursor.client", 64), Integer.getInteger("rfs.cursor.max", 1024));
+    private final DirectoryWatcher watcher = new DirectoryWatcher(Long.getLong("rfs.watch.delay", 200), Integer.getInteger("rfs.watch.backlog", 100));
+    private final Uploads uploads = new Uploads(Long.getLong("rfs.upload.lease", 3600000));
+    private final Jobs jobs = new Jobs(Integer.getInteger("rfs.jobs.parallelism", Runtime.getRuntime().availableProcessors()), 
+            Integer.getInteger("rfs.calls.parallelism", Runtime.getRuntime().availableProcessors()), Long.getLong("rfs.jobs.retention", 600000));
+    private final DirectorySizes sizes = new DirectorySizes(Long.getLong("rfs.size.ttl", 60000), Integer.getInteger("rfs.size.cache", 100000));
+    private final PathIndex index = new PathIndex(watcher, Long.getLong("rfs.index.rescan", 60000));
+    private final BufferPool buffers = new BufferPool(FileChunk.MAX_LENGTH, Integer.getInteger("rfs.chunk.buffers", 4));
+    private final FileDigests digests = new FileDigests(Paths.get(System.getProperty("rfs.digest.store", System.getProperty("user.home") + "/.rfs-digests")), 
+            Integer.getInteger("rfs.digest.cache", 200000), Long.getLong("rfs.digest.flush", 1000));
+    private final Archives archives = new Archives(Long.getLong("rfs.archive.lease", 60000), 
+            Integer.getInteger("rfs.archive.level", 1), Integer.getInteger("rfs.archive.buffers", 32));
     
     @Override
     public String getDefaultDirectoryPath() throws RemoteException {
@@ -23,15 +64,127 @@ public class RemoteProtocol implements Protocol{
         
         try {
             file = new File(directoryName);
-            fileList = file.listFiles();
+            fileList = file.listFiles(child -> !Uploads.isTemporary(child.getName()));
         }
         catch(Exception e) {
-            e.printStackTrace();
+            Logger.getLogger(RemoteProtocol.class.getName()).log(Level.SEVERE, null, e);
         }
         
         return fileList;
     }
     
+    @Override
+    public DirectoryListing readDirectoryEntries(String directoryName, boolean includePermissions) throws RemoteException {
+        Path directory = Paths.get(directoryName);
+        List<FileEntry> entries = new ArrayList<>();
+        
+        // POSIX attributes are a superset of the basic ones, so only one read is needed per entry
+        boolean posix = includePermissions && directory.getFileSystem().supportedFileAttributeViews().contains("posix");
+        
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+            for (Path path:stream) {
+                if (Uploads.isTemporary(path)) continue;
+                
+                try {
+                    entries.add(readEntry(path, posix));
+                }
+                catch(NoSuchFileException e) {
+                    // The entry was removed while the directory was being read
+                }
+            }
+        }
+        catch(IOException | SecurityException e) {
+            Logger.getLogger(RemoteProtocol.class.getName()).log(Level.SEVERE, null, e);
+            return null;
+        }
+        
+        return new DirectoryListing(directory.toString(), entries.toArray(new FileEntry[entries.size()]));
+    }
+    
+    @Override
+    public DirectoryListing listDirectory(String directoryName, ListingOptions options) throws RemoteException {
+        try {
+            return new DirectoryQuery(options).list(Paths.get(directoryName));
+        }
+        catch(PatternSyntaxException e) {
+            return null;
+        }
+        catch(IOException | SecurityException | InvalidPathException e) {
+            Logger.getLogger(RemoteProtocol.class.getName()).log(Level.SEVERE, null, e);
+            return null;
+        }
+    }
+    
+    /**
+     * Reads the attributes of a single file or directory
+     * 
+     * @param path - path of the file or directory
+     * @param posix - true to read the POSIX attributes, including permissions
+     * @return entry with the file's name and attributes
+     * @throws IOException 
+     */
+    static FileEntry readEntry(Path path, boolean posix) throws IOException {
+        String name = path.getFileName().toString();
+        
+        if (posix) {
+            PosixFileAttributes attributes = Files.readAttributes(path, PosixFileAttributes.class);
+            return new FileEntry(name, attributes.isDirectory(), attributes.size(), 
+                    attributes.lastModifiedTime().toMillis(), PosixFilePermissions.toString(attributes.permissions()));
+        }
+        
+        BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        return new FileEntry(name, attributes.isDirectory(), attributes.size(), 
+                attributes.lastModifiedTime().toMillis(), null);
+    }
+    
+    @Override
+    public long openDirectoryCursor(String directoryName, boolean includePermissions) throws RemoteException {
+        Path directory = Paths.get(directoryName);
+        boolean posix = includePermissions && directory.getFileSystem().supportedFileAttributeViews().contains("posix");
+        
+        try {
+            return cursors.open(directory, posix, Admission.clientOf());
+        }
+        catch(ServerBusyException e) {
+            throw e;
+        }
+        catch(IOException | SecurityException e) {
+            Logger.getLogger(RemoteProtocol.class.getName()).log(Level.SEVERE, null, e);
+            return -1;
+        }
+    }
+    
+    @Override
+    public DirectoryListing fetchEntries(long cursorId, int maxEntries) throws RemoteException {
+        try {
+            return cursors.fetch(cursorId, maxEntries);
+        }
+        catch(IOException | SecurityException e) {
+            Logger.getLogger(RemoteProtocol.class.getName()).log(Level.SEVERE, null, e);
+            return null;
+        }
+    }
+    
+    @Override
+    public void closeDirectoryCursor(long cursorId) throws RemoteException {
+        cursors.close(cursorId);
+    }
+    
+    @Override
+    public void watchDirectory(String directoryName, DirectoryListener listener) throws RemoteException {
+        try {
+            watcher.watch(Paths.get(directoryName), listener);
+        }
+        catch(IOException | SecurityException e) {
+            Logger.getLogger(RemoteProtocol.class.getName()).log(Level.SEVERE, null, e);
+        }
+    }
+    
+    @Override
+    public void unwatchDirectory(String directoryName, DirectoryListener listener) throws RemoteException {
+        watcher.unwatch(Paths.get(directoryName), listener);
+    }
+    
     @Override
     public void createDirectory(String directoryName) throws RemoteException {
         File directory = new File(directoryName);
@@ -40,7 +193,7 @@ public class RemoteProtocol implements Protocol{
             directory.mkdir();
         } 
         catch(SecurityException se){
-            se.printStackTrace();
+            Logger.getLogger(RemoteProtocol.class.getName()).log(Level.SEVERE, null, se);
         } 
     }
 
@@ -52,26 +205,178 @@ public class RemoteProtocol implements Protocol{
             fileName.delete();
         }
         catch(SecurityException se){
-            se.printStackTrace();
+            Logger.getLogger(RemoteProtocol.class.getName()).log(Level.SEVERE, null, se);
         }
     }
     
     @Override
-    public void deleteDirectory(String name) throws RemoteException {
-        File directory = new File(name);
-        File[] files = directory.listFiles();
+    public JobStatus deleteDirectory(String name) throws RemoteException {
+        Job job = new Job();
+        jobs.getPool().invoke(new DeleteTask(Paths.get(name), job));
+        job.finish();
         
-        if (files != null) { 
-            for (File f:files) {
-                if (f.isDirectory()) {
-                    deleteDirectory(f.getAbsolutePath());
-                } 
-                else {
-                    f.delete();
+        return job.getStatus();
+    }
+    
+    @Override
+    public long startDeleteDirectory(String name) throws RemoteException {
+        Path directory = Paths.get(name);
+        return jobs.start(job -> new DeleteTask(directory, job).invoke());
+    }
+    
+    @Override
+    public long startCopy(String name, String nameNew) throws RemoteException {
+        try {
+            Path source = Paths.get(name).toAbsolutePath().normalize();
+            Path target = Paths.get(nameNew).toAbsolutePath().normalize();
+            if (!canCopy(source, target)) return -1;
+            
+            return jobs.start(job -> new CopyTask(source, target, job).invoke());
+        }
+        catch(InvalidPathException | SecurityException e) {
+            Logger.getLogger(RemoteProtocol.class.getName()).log(Level.SEVERE, null, e);
+            return -1;
+        }
+    }
+    
+    @Override
+    public long startMove(String name, String nameNew) throws RemoteException {
+        try {
+            Path source = Paths.get(name).toAbsolutePath().normalize();
+            Path target = Paths.get(nameNew).toAbsolutePath().normalize();
+            if (!canCopy(source, target)) return -1;
+            
+            return jobs.start(job -> move(source, target, job));
+        }
+        catch(InvalidPathException | SecurityException e) {
+            Logger.getLogger(RemoteProtocol.class.getName()).log(Level.SEVERE, null, e);
+            return -1;
+        }
+    }
+    
+    /**
+     * @param source - normalized absolute path of the file or directory to copy
+     * @param target - normalized absolute path of the copy
+     * @return true if the source exists, the target doesn't and isn't inside the source
+     */
+    private static boolean canCopy(Path source, Path target) {
+        return Files.exists(source, LinkOption.NOFOLLOW_LINKS) && !Files.exists(target, LinkOption.NOFOLLOW_LINKS) 
+                && !target.startsWith(source);
+    }
+    
+    /**
+     * Moves a file or directory, renaming it if it stays in the same file 
+     * system and copying it and deleting the original otherwise
+     * 
+     * The target may have been created since the move was checked, and a 
+     * rename would silently replace it. Files are linked under the new name 
+     * and then unlinked, since linking fails if the name is taken. Directories 
+     * can't be linked, so the target is checked again right before the rename, 
+     * which fails anyway if it's a directory with anything in it
+     * 
+     * @param source - file or directory to move
+     * @param target - path to move it to
+     * @param job - job counting the moved and failed entries and the bytes copied
+     */
+    private static void move(Path source, Path target, Job job) {
+        try {
+            if (Files.isDirectory(source, LinkOption.NOFOLLOW_LINKS)) {
+                if (Files.exists(target, LinkOption.NOFOLLOW_LINKS)) throw new FileAlreadyExistsException(target.toString());
+                Files.move(source, target, StandardCopyOption.ATOMIC_MOVE);
+            }
+            else {
+                Files.createLink(target, source);
+                try {
+                    Files.delete(source);
                 }
+                catch(IOException | SecurityException e) {
+                    // Leaves the file under its old name only
+                    Files.deleteIfExists(target);
+                    throw e;
+                }
+            }
+            job.completed.incrementAndGet();
+            return;
+        }
+        catch(AtomicMoveNotSupportedException | UnsupportedOperationException e) {
+            // The target is on another file system, or the file system has no links
+        }
+        catch(FileAlreadyExistsException | NoSuchFileException e) {
+            job.failed.incrementAndGet();
+            return;
+        }
+        catch(IOException | SecurityException e) {
+            // Linking across file systems, or where links aren't allowed, fails with a plain error
+            if (Files.isDirectory(source, LinkOption.NOFOLLOW_LINKS) || !Files.exists(source, LinkOption.NOFOLLOW_LINKS)
+                    || Files.exists(target, LinkOption.NOFOLLOW_LINKS)) {
+                job.failed.incrementAndGet();
+                return;
+            }
+        }
+        
+        new CopyTask(source, target, job).invoke();
+        if (job.isCancelled() || job.failed.get() > 0) return;
+        
+        // The original is only deleted once all of it was copied, and its deletions aren't counted again
+        Job deletion = new Job();
+        if (Files.isDirectory(source, LinkOption.NOFOLLOW_LINKS)) {
+            new DeleteTask(source, deletion).invoke();
+        }
+        else {
+            try {
+                Files.delete(source);
             }
+            catch(IOException | SecurityException e) {
+                deletion.failed.incrementAndGet();
+            }
+        }
+        job.failed.addAndGet(deletion.failed.get());
+    }
+    
+    @Override
+    public JobStatus getJobStatus(long jobId) throws RemoteException {
+        return jobs.getStatus(jobId);
+    }
+    
+    @Override
+    public void cancelJob(long jobId) throws RemoteException {
+        jobs.cancel(jobId);
+    }
+
+    @Override
+    public DirectorySize getDirectorySize(String directoryName, int maxDepth, long timeout) throws RemoteException {
+        try {
+            return sizes.compute(Paths.get(directoryName), maxDepth, timeout, jobs.getPool());
+        }
+        catch(SecurityException e) {
+            Logger.getLogger(RemoteProtocol.class.getName()).log(Level.SEVERE, null, e);
+            return null;
         }
-        directory.delete();
+    }
+
+    @Override
+    public String[] searchFiles(String directoryName, String pattern, int offset, int maxResults) throws RemoteException {
+        try {
+            return index.search(Paths.get(directoryName), pattern, Math.max(0, offset), 
+                    Math.max(1, Math.min(maxResults, DirectoryCursors.MAX_PAGE_SIZE)));
+        }
+        catch(PatternSyntaxException e) {
+            return null;
+        }
+    }
+    
+    @Override
+    public boolean isSearchComplete(String directoryName) throws RemoteException {
+        return index.isComplete(Paths.get(directoryName));
+    }
+    
+    /**
+     * Starts indexing the shared directory in the background so it can be searched
+     * 
+     * @throws RemoteException 
+     */
+    void startIndexing() throws RemoteException {
+        index.build(Paths.get(getDefaultDirectoryPath()));
     }
 
     @Override
@@ -83,10 +388,279 @@ public class RemoteProtocol implements Protocol{
             fileName.renameTo(renamed);
         }
         catch(SecurityException se){
-            se.printStackTrace();
+            Logger.getLogger(RemoteProtocol.class.getName()).log(Level.SEVERE, null, se);
+        }
+    }
+    
+    @Override
+    public String createUnique(String directoryName, String name, String extension, boolean directory) throws RemoteException {
+        Path parent = Paths.get(directoryName);
+        
+        for (int copy = 0; copy < MAX_COPIES; copy++) {
+            String candidate = copyName(name, extension, copy);
+            
+            try {
+                // Creating the file fails if the name is taken, so checking and claiming it is a single step
+                if (directory) {
+                    Files.createDirectory(parent.resolve(candidate));
+                }
+                else {
+                    Files.createFile(parent.resolve(candidate));
+                }
+                return candidate;
+            }
+            catch(FileAlreadyExistsException e) {
+                // Taken, the next copy number is tried
+            }
+            catch(IOException | SecurityException | InvalidPathException e) {
+                Logger.getLogger(RemoteProtocol.class.getName()).log(Level.SEVERE, null, e);
+                return null;
+            }
+        }
+        
+        return null;
+    }
+    
+    @Override
+    public String renameUnique(String name, String nameNew, String extension) throws RemoteException {
+        Path source = Paths.get(name);
+        Path parent = source.getParent();
+        
+        for (int copy = 0; copy < MAX_COPIES; copy++) {
+            String candidate = copyName(nameNew, extension, copy);
+            Path target = parent.resolve(candidate);
+            
+            // Renaming to its own name leaves the file as it is
+            if (target.equals(source)) return candidate;
+            
+            try {
+                Files.move(source, target);
+                return candidate;
+            }
+            catch(FileAlreadyExistsException e) {
+                // Taken, the next copy number is tried
+            }
+            catch(IOException | SecurityException | InvalidPathException e) {
+                Logger.getLogger(RemoteProtocol.class.getName()).log(Level.SEVERE, null, e);
+                return null;
+            }
+        }
+        
+        return null;
+    }
+    
+    /**
+     * @param name - name without the file extension
+     * @param extension - file extension, including the dot, or an empty string
+     * @param copy - copy number, or 0 for the name itself
+     * @return the name with the copy number
+     */
+    private static String copyName(String name, String extension, int copy) {
+        return copy == 0 ? name + extension : name + " (" + copy + ")" + extension;
+    }
+    
+    @Override
+    public BatchResult[] executeBatch(BatchOperation[] operations) throws RemoteException {
+        return new Batch(operations).execute(jobs.getPool());
+    }
+    
+    @Override
+    public FileChunk readFile(String name, long offset, int length) throws RemoteException {
+        ByteBuffer buffer = buffers.acquire();
+        buffer.limit(Math.max(0, Math.min(length, buffer.capacity())));
+        
+        try (FileChannel channel = FileChannel.open(Paths.get(name), StandardOpenOption.READ)) {
+            long fileLength = channel.size();
+            
+            // Positional reads don't move the channel, so the same file can be read concurrently
+            long position = offset;
+            while (buffer.hasRemaining() && position < fileLength) {
+                int read = channel.read(buffer, position);
+                if (read < 0) break;
+                position += read;
+            }
+            
+            buffer.flip();
+            return new FileChunk(offset, fileLength, buffer, buffers::release);
+        }
+        catch(IOException | SecurityException e) {
+            buffers.release(buffer);
+            Logger.getLogger(RemoteProtocol.class.getName()).log(Level.SEVERE, null, e);
+            return null;
+        }
+    }
+    
+    @Override
+    public long beginUpload(String name, long length) throws RemoteException {
+        try {
+            return uploads.begin(Paths.get(name), length);
+        }
+        catch(IOException | SecurityException e) {
+            Logger.getLogger(RemoteProtocol.class.getName()).log(Level.SEVERE, null, e);
+            return -1;
+        }
+    }
+    
+    @Override
+    public long getUploadedLength(long uploadId) throws RemoteException {
+        return uploads.getReceivedLength(uploadId);
+    }
+    
+    @Override
+    public boolean writeFile(long uploadId, FileChunk chunk) throws RemoteException {
+        try {
+            return uploads.write(uploadId, chunk);
+        }
+        catch(IOException | SecurityException e) {
+            Logger.getLogger(RemoteProtocol.class.getName()).log(Level.SEVERE, null, e);
+            return false;
+        }
+    }
+    
+    @Override
+    public BlockSignatures getBlockSignatures(String name, int blockSize) throws RemoteException {
+        try {
+            return sign(Paths.get(name), Math.max(1, Math.min(blockSize, MAX_BLOCK_SIZE)));
+        }
+        catch(NoSuchFileException e) {
+            // A new file, which has to be uploaded in full
+            return null;
+        }
+        catch(IOException | SecurityException | InvalidPathException e) {
+            Logger.getLogger(RemoteProtocol.class.getName()).log(Level.SEVERE, null, e);
+            return null;
+        }
+    }
+    
+    /**
+     * Computes the checksums of the blocks of a file, reading it a run of blocks at a time
+     * 
+     * @param file - file to sign
+     * @param blockSize - length of each block in bytes
+     * @return checksums of each block
+     * @throws IOException 
+     */
+    private static BlockSignatures sign(Path file, int blockSize) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            // Read first, so a file modified while it's signed looks changed when its blocks are copied
+            long lastModified = Files.getLastModifiedTime(file).toMillis();
+            long length = channel.size();
+            
+            long count = (length + blockSize - 1) / blockSize;
+            if (count > Integer.MAX_VALUE / BlockSignatures.STRONG_LENGTH) throw new IOException("Too many blocks in " + file);
+            
+            int[] weak = new int[(int) count];
+            byte[] strong = new byte[(int) count * BlockSignatures.STRONG_LENGTH];
+            MessageDigest md5 = MessageDigest.getInstance("MD5");
+            ByteBuffer buffer = ByteBuffer.allocate(Math.max(1, (8 << 20) / blockSize) * blockSize);
+            
+            long position = 0;
+            int block = 0;
+            while (position < length) {
+                buffer.clear();
+                while (buffer.hasRemaining()) {
+                    if (channel.read(buffer, position + buffer.position()) < 0) break;
+                }
+                buffer.flip();
+                if (!buffer.hasRemaining()) break;
+                
+                for (int offset = 0; offset < buffer.limit() && block < count; offset += blockSize, block++) {
+                    int n = Math.min(blockSize, buffer.limit() - offset);
+                    weak[block] = RollingChecksum.of(buffer.array(), offset, n);
+                    md5.update(buffer.array(), offset, n);
+                    md5.digest(strong, block * BlockSignatures.STRONG_LENGTH, BlockSignatures.STRONG_LENGTH);
+                }
+                position += buffer.limit();
+            }
+            
+            return new BlockSignatures(length, lastModified, blockSize, weak, strong);
+        }
+        catch(GeneralSecurityException e) {
+            throw new IOException(e);
+        }
+    }
+    
+    @Override
+    public boolean copyBlocks(long uploadId, BlockCopies copies) throws RemoteException {
+        try {
+            return uploads.copy(uploadId, copies);
+        }
+        catch(IOException | SecurityException e) {
+            Logger.getLogger(RemoteProtocol.class.getName()).log(Level.SEVERE, null, e);
+            return false;
+        }
+    }
+    
+    @Override
+    public void cancelUpload(long uploadId) throws RemoteException {
+        uploads.cancel(uploadId);
+    }
+    
+    @Override
+    public FileDigest getFileDigest(String name) throws RemoteException {
+        return digest(name);
+    }
+    
+    @Override
+    public FileDigest[] getFileDigests(String[] names) throws RemoteException {
+        List<CompletableFuture<FileDigest>> results = new ArrayList<>(names.length);
+        for (String name:names) {
+            results.add(CompletableFuture.supplyAsync(() -> digest(name), jobs.getPool()));
+        }
+        
+        FileDigest[] digests = new FileDigest[names.length];
+        for (int i = 0; i < names.length; i++) {
+            digests[i] = results.get(i).join();
+        }
+        return digests;
+    }
+    
+    /**
+     * @param name - absolute path of a file
+     * @return digests of the file, or null if it could not be read
+     */
+    private FileDigest digest(String name) {
+        if (name == null) return null;
+        
+        try {
+            return digests.compute(Paths.get(name));
+        }
+        catch(NoSuchFileException e) {
+            return null;
+        }
+        catch(IOException | SecurityException | InvalidPathException e) {
+            Logger.getLogger(RemoteProtocol.class.getName()).log(Level.SEVERE, null, e);
+            return null;
+        }
+    }
+    
+    @Override
+    public long openArchive(String directoryName, ArchiveFormat format) throws RemoteException {
+        try {
+            return archives.open(Paths.get(directoryName), format == null ? ArchiveFormat.ZIP : format);
+        }
+        catch(IOException | SecurityException | InvalidPathException e) {
+            Logger.getLogger(RemoteProtocol.class.getName()).log(Level.SEVERE, null, e);
+            return -1;
         }
     }
     
+    @Override
+    public FileChunk readArchive(long archiveId, long offset, int maxLength) throws RemoteException {
+        try {
+            return archives.read(archiveId, offset, Math.min(maxLength, buffers.getBufferSize()));
+        }
+        catch(IOException e) {
+            Logger.getLogger(RemoteProtocol.class.getName()).log(Level.SEVERE, null, e);
+            return null;
+        }
+    }
+    
+    @Override
+    public void closeArchive(long archiveId) throws RemoteException {
+        archives.close(archiveId);
+    }
+    
     @Override
     public void createFile(String name) throws RemoteException {
         File file = new File(name);
@@ -95,7 +669,7 @@ public class RemoteProtocol implements Protocol{
             file.createNewFile();
         } 
         catch(SecurityException se){
-            se.printStackTrace();
+            Logger.getLogger(RemoteProtocol.class.getName()).log(Level.SEVERE, null, se);
         } catch (IOException ex) {
             Logger.getLogger(RemoteProtocol.class.getName()).log(Level.SEVERE, null, ex);
         }
@@ -0,0 +1,66 @@
+/**
+ * Weak checksum of a block that can be moved along a file a byte at a time
+ *
+ * It's the checksum rsync uses: the sum of the bytes and the sum of the
+ * bytes weighted by their distance from the end of the block, 16 bits each.
+ * Moving the block one byte forward only takes the byte that leaves and the
+ * one that enters, so every offset of a file can be checked in one pass.
+ *
+ * @author Bernardo Lopes - a32040
+ * @author Tiago Padrão - a33061
+ */
+class RollingChecksum {
+    private int a;
+    private int b;
+    private int length;
+
+    /**
+     * Computes the checksum of a block
+     *
+     * @param data - array holding the block
+     * @param offset - position of the block in the array
+     * @param length - length of the block
+     */
+    void reset(byte[] data, int offset, int length) {
+        a = 0;
+        b = 0;
+        this.length = length;
+
+        for (int i = 0; i < length; i++) {
+            int x = data[offset + i] & 0xFF;
+            a += x;
+            b += (length - i) * x;
+        }
+    }
+
+    /**
+     * Moves the block one byte forward
+     *
+     * @param out - first byte of the block, which leaves it
+     * @param in - byte after the block, which enters it
+     */
+    void roll(byte out, byte in) {
+        int x = out & 0xFF;
+        a += (in & 0xFF) - x;
+        b += a - length * x;
+    }
+
+    /**
+     * @return checksum of the current block
+     */
+    int getValue() {
+        return (a & 0xFFFF) | (b << 16);
+    }
+
+    /**
+     * @param data - array holding a block
+     * @param offset - position of the block in the array
+     * @param length - length of the block
+     * @return checksum of the block
+     */
+    static int of(byte[] data, int offset, int length) {
+        RollingChecksum checksum = new RollingChecksum();
+        checksum.reset(data, offset, length);
+        return checksum.getValue();
+    }
+}
@@ -0,0 +1,89 @@
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Adds up the size of a directory tree, reading its subdirectories in parallel
+ *
+ * Each directory is a task that adds up its own files and forks a task for
+ * each subdirectory. The direct contents of each directory come from the
+ * cache of directory sizes while the directory is unchanged.
+ *
+ * @author Bernardo Lopes - a32040
+ * @author Tiago Padrão - a33061
+ */
+class SizeTask extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    private final DirectorySizes sizes;
+    private final Path directory;
+    private final int depth;
+    private final long deadline;
+
+    long bytes, files, directories;
+    boolean complete = true;
+
+    /**
+     * Creates a new task
+     *
+     * @param sizes - cache of the directories' direct contents
+     * @param directory - directory to add up
+     * @param depth - number of levels of subdirectories still to read
+     * @param deadline - System.nanoTime at which to stop reading
+     */
+    SizeTask(DirectorySizes sizes, Path directory, int depth, long deadline) {
+        this.sizes = sizes;
+        this.directory = directory;
+        this.depth = depth;
+        this.deadline = deadline;
+    }
+
+    @Override
+    protected void compute() {
+        if (System.nanoTime() - deadline > 0) {
+            complete = false;
+            return;
+        }
+
+        DirectorySizes.Contents contents;
+        try {
+            contents = sizes.getContents(directory, deadline);
+        }
+        catch(IOException | SecurityException e) {
+            complete = false;
+            return;
+        }
+
+        // The directory was only partly read before the deadline
+        if (contents == null) {
+            complete = false;
+            return;
+        }
+
+        bytes = contents.bytes;
+        files = contents.files;
+        directories = contents.subdirectories.length;
+
+        if (depth == 0) {
+            if (contents.subdirectories.length > 0) complete = false;
+            return;
+        }
+
+        List<SizeTask> subtasks = new ArrayList<>(contents.subdirectories.length);
+        for (Path subdirectory:contents.subdirectories) {
+            SizeTask subtask = new SizeTask(sizes, subdirectory, depth - 1, deadline);
+            subtask.fork();
+            subtasks.add(subtask);
+        }
+
+        for (SizeTask subtask:subtasks) {
+            subtask.join();
+            bytes += subtask.bytes;
+            files += subtask.files;
+            directories += subtask.directories;
+            complete &= subtask.complete;
+        }
+    }
+}
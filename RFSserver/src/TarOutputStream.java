@@ -0,0 +1,192 @@
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Writes a POSIX tar archive, an entry at a time
+ *
+ * Each entry has a 512 byte ustar header followed by its contents, padded
+ * to a multiple of 512 bytes. Names and link targets too long for the
+ * header, or not plain ASCII, and files of 8 GB or more are described by a
+ * pax extended header before the entry.
+ *
+ * @author Bernardo Lopes - a32040
+ * @author Tiago Padrão - a33061
+ */
+class TarOutputStream extends FilterOutputStream {
+    static final char FILE = '0';
+    static final char SYMBOLIC_LINK = '2';
+    static final char DIRECTORY = '5';
+
+    private static final int BLOCK = 512;
+    private static final long MAX_OCTAL_SIZE = 077777777777L;
+
+    private final byte[] header = new byte[BLOCK];
+
+    // Bytes of the current entry still to be written, and written so far
+    private long remaining;
+    private long written;
+
+    /**
+     * Creates a new archive
+     *
+     * @param out - stream the archive is written to
+     */
+    TarOutputStream(OutputStream out) {
+        super(out);
+    }
+
+    /**
+     * Starts a new entry, ending the previous one
+     *
+     * @param name - path of the entry inside the archive, with directories ending in /
+     * @param type - FILE, SYMBOLIC_LINK or DIRECTORY
+     * @param size - number of bytes the entry's contents will have, 0 if it's not a file
+     * @param mode - permission bits
+     * @param lastModified - modification date, in milliseconds since epoch
+     * @param linkName - target of a symbolic link, or null
+     * @throws IOException
+     */
+    void putEntry(String name, char type, long size, int mode, long lastModified, String linkName) throws IOException {
+        closeEntry();
+
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        byte[] linkBytes = linkName == null ? new byte[0] : linkName.getBytes(StandardCharsets.UTF_8);
+
+        StringBuilder pax = new StringBuilder();
+        if (nameBytes.length > 100 || !isAscii(name)) pax.append(record("path", name));
+        if (linkBytes.length > 100 || linkName != null && !isAscii(linkName)) pax.append(record("linkpath", linkName));
+        if (size > MAX_OCTAL_SIZE) pax.append(record("size", Long.toString(size)));
+
+        if (pax.length() > 0) {
+            byte[] records = pax.toString().getBytes(StandardCharsets.UTF_8);
+            writeHeader("PaxHeaders/" + truncate(name, 88), 'x', records.length, 0644, lastModified, null);
+            out.write(records);
+            pad(records.length);
+        }
+
+        writeHeader(name, type, size, mode, lastModified, linkName);
+        remaining = size;
+        written = 0;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (len > remaining) throw new IOException("Entry is longer than its size");
+        out.write(b, off, len);
+        remaining -= len;
+        written += len;
+    }
+
+    /**
+     * Ends the current entry, padding its contents to a whole block
+     *
+     * @throws IOException
+     */
+    void closeEntry() throws IOException {
+        if (remaining > 0) throw new IOException("Entry is shorter than its size");
+        pad(written);
+        written = 0;
+    }
+
+    /**
+     * Ends the archive with two empty blocks, leaving the stream open
+     *
+     * @throws IOException
+     */
+    void finish() throws IOException {
+        closeEntry();
+        out.write(new byte[2 * BLOCK]);
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        finish();
+        out.close();
+    }
+
+    /**
+     * Writes a ustar header, cutting fields that don't fit
+     *
+     * @throws IOException
+     */
+    private void writeHeader(String name, char type, long size, int mode, long lastModified, String linkName) throws IOException {
+        Arrays.fill(header, (byte) 0);
+        field(truncate(name, 100), 0, 100);
+        octal(mode & 07777, 100, 8);
+        octal(0, 108, 8);
+        octal(0, 116, 8);
+        octal(size > MAX_OCTAL_SIZE ? 0 : size, 124, 12);
+        octal(Math.max(0, lastModified / 1000), 136, 12);
+        header[156] = (byte) type;
+        if (linkName != null) field(truncate(linkName, 100), 157, 100);
+        field("ustar", 257, 6);
+        field("00", 263, 2);
+
+        // The checksum is computed with its own field filled with spaces
+        Arrays.fill(header, 148, 156, (byte) ' ');
+        long checksum = 0;
+        for (byte b:header) checksum += b & 0xFF;
+        octal(checksum, 148, 7);
+
+        out.write(header);
+    }
+
+    private void field(String value, int offset, int length) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        System.arraycopy(bytes, 0, header, offset, Math.min(bytes.length, length));
+    }
+
+    /**
+     * Writes a number as zero-padded octal digits followed by a NUL
+     */
+    private void octal(long value, int offset, int length) {
+        String digits = Long.toOctalString(value);
+        StringBuilder padded = new StringBuilder();
+        for (int i = digits.length(); i < length - 1; i++) padded.append('0');
+        field(padded.append(digits).toString(), offset, length - 1);
+        header[offset + length - 1] = 0;
+    }
+
+    private void pad(long length) throws IOException {
+        int rest = (int) (length % BLOCK);
+        if (rest != 0) out.write(new byte[BLOCK - rest]);
+    }
+
+    /**
+     * @return a pax record, whose length includes the digits of the length itself
+     */
+    private static String record(String key, String value) {
+        int length = key.length() + value.getBytes(StandardCharsets.UTF_8).length + 3;
+        int total = length + Integer.toString(length).length();
+        if (Integer.toString(total).length() != Integer.toString(length).length()) total++;
+        return total + " " + key + "=" + value + "\n";
+    }
+
+    /**
+     * @return the ASCII characters at the start of a string, up to a number of them
+     */
+    private static String truncate(String value, int length) {
+        StringBuilder ascii = new StringBuilder();
+        for (int i = 0; i < value.length() && ascii.length() < length; i++) {
+            char c = value.charAt(i);
+            ascii.append(c < 128 ? c : '_');
+        }
+        return ascii.toString();
+    }
+
+    private static boolean isAscii(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            if (value.charAt(i) >= 128) return false;
+        }
+        return true;
+    }
+}
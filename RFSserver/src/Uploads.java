@@ -0,0 +1,335 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.SecureRandom;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Uploads in progress, written chunk by chunk into temporary files
+ *
+ * Chunks may arrive in any order and several at a time. Each upload keeps
+ * track of the byte ranges it has received, and once the whole file is
+ * there its temporary file is moved over the target in one step. Uploads
+ * that stay unused for longer than their lease are discarded.
+ *
+ * Besides chunks sent by the client, an upload can take blocks copied from
+ * the file it replaces, so a new version of a file only needs the bytes
+ * that changed to be sent.
+ *
+ * The temporary files sit next to their targets, so committing one is a
+ * single rename, and are left out of listings, searches and change
+ * notifications.
+ *
+ * @author Bernardo Lopes - a32040
+ * @author Tiago Padrão - a33061
+ */
+class Uploads {
+    private static final String TEMP_PREFIX = ".rfs-upload-";
+
+    private final Map<Long, Upload> uploads = new ConcurrentHashMap<>();
+    private final SecureRandom random = new SecureRandom();
+    private final long lease;
+
+    /**
+     * Creates a new set of uploads
+     *
+     * @param lease - milliseconds an upload may stay unused before it's discarded
+     */
+    Uploads(long lease) {
+        this.lease = lease;
+
+        ScheduledExecutorService reaper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "upload-reaper");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        long period = Math.max(lease / 2, 1);
+        reaper.scheduleWithFixedDelay(this::expire, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @param name - name of a file
+     * @return true if it's the temporary file of an upload, which is kept out of listings
+     */
+    static boolean isTemporary(String name) {
+        return name.startsWith(TEMP_PREFIX);
+    }
+
+    /**
+     * @param path - path of a file
+     * @return true if it's the temporary file of an upload, which is kept out of listings
+     */
+    static boolean isTemporary(Path path) {
+        Path name = path.getFileName();
+        return name != null && isTemporary(name.toString());
+    }
+
+    /**
+     * Starts a new upload
+     *
+     * Its id is random, so only the client that started the upload can
+     * write to it or resume it, even when others upload the same file.
+     *
+     * @param target - file to create or replace
+     * @param length - length of the whole file in bytes
+     * @return id of the upload
+     * @throws IOException
+     */
+    long begin(Path target, long length) throws IOException {
+        long id;
+        do {
+            id = random.nextLong() & Long.MAX_VALUE;
+        } while (id == 0 || uploads.containsKey(id));
+
+        Path temp = target.resolveSibling(TEMP_PREFIX + Long.toHexString(id) + "-" + target.getFileName());
+        FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        uploads.put(id, new Upload(target, temp, length, channel));
+
+        // Empty files have nothing to wait for
+        if (length == 0) commit(id, uploads.get(id));
+
+        return id;
+    }
+
+    /**
+     * Returns how much of the start of the file has been received, which is
+     * where a resumed upload should continue from
+     *
+     * @param id - id of the upload
+     * @return number of contiguous bytes received from the start, or -1 if the upload doesn't exist
+     */
+    long getReceivedLength(long id) {
+        Upload upload = uploads.get(id);
+        if (upload == null) return -1;
+
+        synchronized (upload) {
+            upload.lastAccess = System.currentTimeMillis();
+            Map.Entry<Long, Long> first = upload.received.firstEntry();
+            return first != null && first.getKey() == 0 ? first.getValue() : 0;
+        }
+    }
+
+    /**
+     * Writes a chunk of an upload, committing it if it was the last missing one
+     *
+     * @param id - id of the upload
+     * @param chunk - chunk to write
+     * @return true if the upload is complete and the file was moved into place
+     * @throws IOException
+     */
+    boolean write(long id, FileChunk chunk) throws IOException {
+        Upload upload = uploads.get(id);
+        if (upload == null) return false;
+
+        long offset = chunk.getOffset();
+        if (offset < 0 || offset + chunk.getLength() > upload.length) {
+            throw new IOException("Chunk outside of the file: " + offset + "+" + chunk.getLength());
+        }
+
+        // Positional writes go straight from the unmarshalled array and can run concurrently
+        ByteBuffer data = ByteBuffer.wrap(chunk.getData(), 0, chunk.getLength());
+        long position = offset;
+        while (data.hasRemaining()) {
+            position += upload.channel.write(data, position);
+        }
+
+        return received(id, upload, offset, offset + chunk.getLength());
+    }
+
+    /**
+     * Copies blocks of the file an upload replaces into the upload,
+     * committing it if they were the last missing bytes
+     *
+     * @param id - id of the upload
+     * @param copies - blocks to copy and where to
+     * @return true if the upload is complete and the file was moved into place, false 
+     * if it isn't or if the file changed since the blocks were signed
+     * @throws IOException
+     */
+    boolean copy(long id, BlockCopies copies) throws IOException {
+        Upload upload = uploads.get(id);
+        if (upload == null) return false;
+
+        int[] blocks = copies.getBlocks();
+        long[] offsets = copies.getOffsets();
+        long basisLength = copies.getBasisLength();
+        boolean committed = false;
+
+        try (FileChannel basis = FileChannel.open(upload.target, StandardOpenOption.READ)) {
+            // The blocks only mean something in the version they were signed from
+            if (basis.size() != basisLength || Files.getLastModifiedTime(upload.target).toMillis() != copies.getBasisModified()) return false;
+
+            for (int i = 0; i < blocks.length; i++) {
+                long from = (long) blocks[i] * copies.getBlockSize();
+                long length = Math.min(copies.getBlockSize(), basisLength - from);
+                if (blocks[i] < 0 || length <= 0 || offsets[i] < 0 || offsets[i] + length > upload.length) {
+                    throw new IOException("Block outside of the file: " + blocks[i] + " to " + offsets[i]);
+                }
+
+                // Copied by the kernel, the basis channel's own position is only used by this call
+                long copied = 0;
+                basis.position(from);
+                while (copied < length) {
+                    long n = upload.channel.transferFrom(basis, offsets[i] + copied, length - copied);
+                    if (n <= 0) throw new IOException("Could not copy block " + blocks[i]);
+                    copied += n;
+                }
+
+                committed |= received(id, upload, offsets[i], offsets[i] + length);
+            }
+        }
+
+        return committed;
+    }
+
+    /**
+     * Records a range written into an upload, committing it if it was the last missing one
+     *
+     * @param id - id of the upload
+     * @param upload - upload written to
+     * @param start - first byte of the range
+     * @param end - byte after the last one of the range
+     * @return true if the upload is complete and this call moved the file into place
+     * @throws IOException
+     */
+    private boolean received(long id, Upload upload, long start, long end) throws IOException {
+        synchronized (upload) {
+            upload.lastAccess = System.currentTimeMillis();
+            upload.addRange(start, end);
+            if (!upload.isComplete() || upload.committed) return false;
+            upload.committed = true;
+        }
+
+        commit(id, upload);
+        return true;
+    }
+
+    /**
+     * Discards an upload and its temporary file
+     *
+     * @param id - id of the upload
+     */
+    void cancel(long id) {
+        Upload upload = uploads.remove(id);
+        if (upload == null) return;
+
+        try {
+            upload.channel.close();
+            Files.deleteIfExists(upload.temp);
+        }
+        catch(IOException e) {
+            Logger.getLogger(Uploads.class.getName()).log(Level.SEVERE, null, e);
+        }
+    }
+
+    /**
+     * Moves a complete upload over its target
+     *
+     * @param id - id of the upload
+     * @param upload - upload to commit
+     * @throws IOException
+     */
+    private void commit(long id, Upload upload) throws IOException {
+        uploads.remove(id);
+
+        try {
+            upload.channel.force(false);
+            upload.channel.close();
+
+            try {
+                Files.move(upload.temp, upload.target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            }
+            catch(AtomicMoveNotSupportedException e) {
+                Files.move(upload.temp, upload.target, StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        catch(IOException | RuntimeException e) {
+            // The upload is no longer listed, so nothing else would remove its hidden file
+            try {
+                upload.channel.close();
+                Files.deleteIfExists(upload.temp);
+            }
+            catch(IOException cleanup) {
+                e.addSuppressed(cleanup);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Discards every upload whose lease has run out
+     */
+    private void expire() {
+        long now = System.currentTimeMillis();
+
+        for (Map.Entry<Long, Upload> entry:uploads.entrySet()) {
+            if (now - entry.getValue().lastAccess > lease) {
+                cancel(entry.getKey());
+            }
+        }
+    }
+
+    /**
+     * State of a single upload
+     */
+    private static class Upload {
+        final Path target;
+        final Path temp;
+        final long length;
+        final FileChannel channel;
+        final TreeMap<Long, Long> received = new TreeMap<>();
+        volatile long lastAccess = System.currentTimeMillis();
+        boolean committed;
+
+        Upload(Path target, Path temp, long length, FileChannel channel) {
+            this.target = target;
+            this.temp = temp;
+            this.length = length;
+            this.channel = channel;
+        }
+
+        /**
+         * Records a received range, merging it with the ranges it touches
+         *
+         * @param start - first byte of the range
+         * @param end - byte after the last one of the range
+         */
+        void addRange(long start, long end) {
+            Map.Entry<Long, Long> before = received.floorEntry(start);
+            if (before != null && before.getValue() >= start) {
+                start = before.getKey();
+                end = Math.max(end, before.getValue());
+            }
+
+            Map.Entry<Long, Long> after = received.ceilingEntry(start);
+            while (after != null && after.getKey() <= end) {
+                end = Math.max(end, after.getValue());
+                received.remove(after.getKey());
+                after = received.ceilingEntry(start);
+            }
+
+            received.put(start, end);
+        }
+
+        /**
+         * @return true if every byte of the file has been received
+         */
+        boolean isComplete() {
+            Map.Entry<Long, Long> first = received.firstEntry();
+            return first != null && first.getKey() == 0 && first.getValue() >= length;
+        }
+    }
+}
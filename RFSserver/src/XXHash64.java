@@ -0,0 +1,121 @@
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * 64-bit xxHash of a stream of bytes, with a seed of 0
+ *
+ * It's a non-cryptographic hash several times faster than SHA-256, good to
+ * tell apart files that differ but not to protect against files made to
+ * collide. The bytes are taken 32 at a time in four independent lanes,
+ * and the last ones that don't fill a stripe are kept until the next update
+ * or the end.
+ *
+ * @author Bernardo Lopes - a32040
+ * @author Tiago Padrão - a33061
+ */
+class XXHash64 {
+    private static final long P1 = 0x9E3779B185EBCA87L;
+    private static final long P2 = 0xC2B2AE3D27D4EB4FL;
+    private static final long P3 = 0x165667B19E3779F9L;
+    private static final long P4 = 0x85EBCA77C2B2AE63L;
+    private static final long P5 = 0x27D4EB2F165667C5L;
+
+    private long v1 = P1 + P2;
+    private long v2 = P2;
+    private long v3 = 0;
+    private long v4 = -P1;
+    private long total;
+
+    // Bytes after the last full stripe
+    private final ByteBuffer tail = ByteBuffer.allocate(32).order(ByteOrder.LITTLE_ENDIAN);
+
+    /**
+     * Adds bytes to the hash
+     *
+     * @param buffer - bytes between its position and its limit, which are left unchanged
+     */
+    void update(ByteBuffer buffer) {
+        ByteBuffer data = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        total += data.remaining();
+
+        if (tail.position() > 0) {
+            while (tail.hasRemaining() && data.hasRemaining()) tail.put(data.get());
+            if (tail.hasRemaining()) return;
+
+            stripe(tail, 0);
+            tail.clear();
+        }
+
+        int position = data.position();
+        int limit = data.limit();
+        for (; limit - position >= 32; position += 32) {
+            stripe(data, position);
+        }
+
+        data.position(position);
+        tail.put(data);
+    }
+
+    /**
+     * @param data - buffer holding the stripe
+     * @param offset - position of the stripe in the buffer
+     */
+    private void stripe(ByteBuffer data, int offset) {
+        v1 = round(v1, data.getLong(offset));
+        v2 = round(v2, data.getLong(offset + 8));
+        v3 = round(v3, data.getLong(offset + 16));
+        v4 = round(v4, data.getLong(offset + 24));
+    }
+
+    /**
+     * @return hash of all the bytes added
+     */
+    long getValue() {
+        long h;
+        if (total >= 32) {
+            h = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7) + Long.rotateLeft(v3, 12) + Long.rotateLeft(v4, 18);
+            h = merge(h, v1);
+            h = merge(h, v2);
+            h = merge(h, v3);
+            h = merge(h, v4);
+        }
+        else {
+            h = P5;
+        }
+        h += total;
+
+        int i = 0;
+        int n = tail.position();
+        for (; i + 8 <= n; i += 8) {
+            h ^= round(0, tail.getLong(i));
+            h = Long.rotateLeft(h, 27) * P1 + P4;
+        }
+        if (i + 4 <= n) {
+            h ^= (tail.getInt(i) & 0xFFFFFFFFL) * P1;
+            h = Long.rotateLeft(h, 23) * P2 + P3;
+            i += 4;
+        }
+        for (; i < n; i++) {
+            h ^= (tail.get(i) & 0xFF) * P5;
+            h = Long.rotateLeft(h, 11) * P1;
+        }
+
+        h ^= h >>> 33;
+        h *= P2;
+        h ^= h >>> 29;
+        h *= P3;
+        h ^= h >>> 32;
+        return h;
+    }
+
+    private static long round(long acc, long input) {
+        acc += input * P2;
+        acc = Long.rotateLeft(acc, 31);
+        return acc * P1;
+    }
+
+    private static long merge(long acc, long value) {
+        acc ^= round(0, value);
+        return acc * P1 + P4;
+    }
+}